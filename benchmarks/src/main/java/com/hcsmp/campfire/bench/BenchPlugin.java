@@ -0,0 +1,27 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.File;
+
+import org.bukkit.plugin.PluginDescriptionFile;
+
+import com.hcsmp.campfire.Campfire;
+
+/**
+ * Campfire wired to a fake server instead of being loaded by Bukkit
+ * @author bitdagger
+ *
+ */
+public class BenchPlugin extends Campfire
+{
+	/**
+	 * Constructor
+	 * @param server Fake server
+	 * @param folder Data folder, holding config.yml
+	 */
+	public BenchPlugin( FakeServer server, File folder )
+	{
+		PluginDescriptionFile description = new PluginDescriptionFile( "Campfire", "4.1", Campfire.class.getName() );
+		this.initialize( null, server.getServer(), description, folder, null, Campfire.class.getClassLoader() );
+		server.addCommand( "campfire", this );
+	}
+}
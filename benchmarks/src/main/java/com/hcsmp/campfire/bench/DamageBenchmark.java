@@ -0,0 +1,112 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hcsmp.campfire.CampfireDataException;
+import com.hcsmp.campfire.EventListener;
+
+/**
+ * The onEntityDamageByEntity decision for each kind of player against player hit
+ * @author bitdagger
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class DamageBenchmark
+{
+	/**
+	 * Running plugin
+	 */
+	private Harness _harness;
+
+	/**
+	 * Listener under test
+	 */
+	private EventListener _listener;
+
+	/**
+	 * Vulnerable player hitting a protected one, cancelled
+	 */
+	private EntityDamageByEntityEvent _protectedVictim;
+
+	/**
+	 * Protected player hitting a vulnerable one, cancelled
+	 */
+	private EntityDamageByEntityEvent _protectedAttacker;
+
+	/**
+	 * Vulnerable players fighting, allowed
+	 */
+	private EntityDamageByEntityEvent _bothVulnerable;
+
+	@Setup
+	public void setup() throws IOException, CampfireDataException
+	{
+		this._harness = new Harness( null );
+		this._harness.joinAll( 1000, 4 );
+		FakePlayer guarded = this._harness.getPlayers().get( 0 );
+		FakePlayer first = this._harness.getPlayers().get( 1 );
+		FakePlayer second = this._harness.getPlayers().get( 2 );
+		this._harness.getManager().terminate( first.getName() );
+		this._harness.getManager().terminate( second.getName() );
+		this._listener = this._harness.getListener();
+		this._protectedVictim = new EntityDamageByEntityEvent( first.getPlayer(), guarded.getPlayer(), DamageCause.ENTITY_ATTACK, 1 );
+		this._protectedAttacker = new EntityDamageByEntityEvent( guarded.getPlayer(), first.getPlayer(), DamageCause.ENTITY_ATTACK, 1 );
+		this._bothVulnerable = new EntityDamageByEntityEvent( first.getPlayer(), second.getPlayer(), DamageCause.ENTITY_ATTACK, 1 );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this._harness.close();
+	}
+
+	@Benchmark
+	public boolean protectedVictim()
+	{
+		return this.hit( this._protectedVictim );
+	}
+
+	@Benchmark
+	public boolean protectedAttacker()
+	{
+		return this.hit( this._protectedAttacker );
+	}
+
+	@Benchmark
+	public boolean bothVulnerable()
+	{
+		return this.hit( this._bothVulnerable );
+	}
+
+	/**
+	 * Run the handler on a fresh event
+	 * @param e Event to reuse
+	 * @return True if the hit was cancelled
+	 */
+	private boolean hit( EntityDamageByEntityEvent e )
+	{
+		e.setCancelled( false );
+		this._listener.onEntityDamageByEntity( e );
+		return e.isCancelled();
+	}
+}
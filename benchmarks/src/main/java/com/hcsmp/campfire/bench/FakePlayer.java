@@ -0,0 +1,196 @@
+package com.hcsmp.campfire.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.HashSet;
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * A player with just enough state for Campfire - Name, UUID, position, OP, permissions, health and item in hand
+ * Messages sent to it are counted, not kept
+ * @author bitdagger
+ *
+ */
+public class FakePlayer implements InvocationHandler
+{
+	/**
+	 * Proxy handed to Campfire
+	 */
+	private final Player _player;
+
+	/**
+	 * Player name
+	 */
+	private final String _name;
+
+	/**
+	 * Player UUID
+	 */
+	private final UUID _uuid;
+
+	/**
+	 * Permissions granted besides OP
+	 */
+	private final HashSet<String> _permissions;
+
+	/**
+	 * Current position
+	 */
+	private Location _location;
+
+	/**
+	 * Item in hand
+	 */
+	private ItemStack _hand;
+
+	/**
+	 * OP flag
+	 */
+	private boolean _op;
+
+	/**
+	 * Whether the player is dead
+	 */
+	private boolean _dead;
+
+	/**
+	 * Number of chat lines sent to the player
+	 */
+	private long _messages;
+
+	/**
+	 * Constructor
+	 * @param name Player name
+	 * @param location Starting position
+	 */
+	public FakePlayer( String name, Location location )
+	{
+		this._name = name;
+		this._uuid = UUID.nameUUIDFromBytes( ( "OfflinePlayer:" + name ).getBytes() ); // Like an offline mode server
+		this._permissions = new HashSet<String>();
+		this._permissions.add( "campfire.broadcasts" ); // Defaults to true in plugin.yml
+		this._location = location;
+		this._hand = new ItemStack( Material.AIR );
+		this._player = Stubs.proxy( Player.class, this );
+	}
+
+	/**
+	 * Handle a call on the proxy
+	 */
+	public Object invoke( Object proxy, Method method, Object[] args )
+	{
+		String m = method.getName();
+		if ( m.equals( "getName" ) || m.equals( "getDisplayName" ) || m.equals( "getPlayerListName" ) ) return this._name;
+		if ( m.equals( "getUniqueId" ) ) return this._uuid;
+		if ( m.equals( "isOp" ) ) return this._op;
+		if ( m.equals( "hasPermission" ) ) return this._op || this._permissions.contains( String.valueOf( args[0] ) );
+		if ( m.equals( "isPermissionSet" ) ) return this._permissions.contains( String.valueOf( args[0] ) );
+		if ( m.equals( "isDead" ) ) return this._dead;
+		if ( m.equals( "isOnline" ) || m.equals( "isValid" ) ) return true;
+		if ( m.equals( "getWorld" ) ) return this._location.getWorld();
+		if ( m.equals( "getItemInHand" ) ) return this._hand;
+		if ( m.equals( "sendMessage" ) || m.equals( "sendRawMessage" ) )
+		{
+			this._messages += args[0] instanceof String[] ? ( (String[]) args[0] ).length : 1;
+			return null;
+		}
+		if ( m.equals( "getLocation" ) )
+		{
+			if ( args == null ) return this._location.clone();
+			Location into = (Location) args[0];
+			if ( into == null ) return null;
+			into.setWorld( this._location.getWorld() );
+			into.setX( this._location.getX() );
+			into.setY( this._location.getY() );
+			into.setZ( this._location.getZ() );
+			return into;
+		}
+		return Stubs.object( proxy, method, args, "FakePlayer{" + this._name + "}" );
+	}
+
+	/**
+	 * Get the proxy handed to Campfire
+	 * @return Player
+	 */
+	public Player getPlayer()
+	{
+		return this._player;
+	}
+
+	/**
+	 * Get the player name
+	 * @return Player name
+	 */
+	public String getName()
+	{
+		return this._name;
+	}
+
+	/**
+	 * Get the current position
+	 * @return Position, not a copy
+	 */
+	public Location getLocation()
+	{
+		return this._location;
+	}
+
+	/**
+	 * Move the player
+	 * @param location New position
+	 */
+	public void setLocation( Location location )
+	{
+		this._location = location;
+	}
+
+	/**
+	 * Set the item in hand
+	 * @param material Item type
+	 */
+	public void setItemInHand( Material material )
+	{
+		this._hand = new ItemStack( material );
+	}
+
+	/**
+	 * Set the OP flag
+	 * @param op OP flag
+	 */
+	public void setOp( boolean op )
+	{
+		this._op = op;
+	}
+
+	/**
+	 * Set whether the player is dead
+	 * @param dead True if dead
+	 */
+	public void setDead( boolean dead )
+	{
+		this._dead = dead;
+	}
+
+	/**
+	 * Grant a permission
+	 * @param permission Permission
+	 */
+	public void grant( String permission )
+	{
+		this._permissions.add( permission );
+	}
+
+	/**
+	 * Get the number of chat lines sent to the player
+	 * @return Line count
+	 */
+	public long getMessages()
+	{
+		return this._messages;
+	}
+}
@@ -0,0 +1,176 @@
+package com.hcsmp.campfire.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.bukkit.scheduler.BukkitScheduler;
+
+/**
+ * Scheduler that runs sync tasks when it is ticked, and async tasks on a thread of their own straight away
+ * Tasks can be scheduled from any thread, like on a real server
+ * @author bitdagger
+ *
+ */
+public class FakeScheduler implements InvocationHandler
+{
+	/**
+	 * Proxy handed to Campfire
+	 */
+	private final BukkitScheduler _scheduler;
+
+	/**
+	 * Scheduled tasks
+	 */
+	private final ArrayList<Task> _tasks;
+
+	/**
+	 * Id of the next task
+	 */
+	private int _nextId;
+
+	/**
+	 * Current tick
+	 */
+	private long _tick;
+
+	/**
+	 * Constructor
+	 */
+	public FakeScheduler()
+	{
+		this._tasks = new ArrayList<Task>();
+		this._nextId = 1;
+		this._scheduler = Stubs.proxy( BukkitScheduler.class, this );
+	}
+
+	/**
+	 * Handle a call on the proxy
+	 */
+	public Object invoke( Object proxy, Method method, Object[] args )
+	{
+		String m = method.getName();
+		if ( m.equals( "scheduleSyncRepeatingTask" ) ) return this.schedule( (Runnable) args[1], (Long) args[2], (Long) args[3] );
+		if ( m.equals( "scheduleSyncDelayedTask" ) ) return this.schedule( (Runnable) args[1], args.length > 2 ? (Long) args[2] : 0L, -1 );
+		if ( m.equals( "scheduleAsyncDelayedTask" ) )
+		{
+			Thread thread = new Thread( (Runnable) args[1], "FakeScheduler async" );
+			thread.setDaemon( true );
+			thread.start();
+			synchronized ( this )
+			{
+				return this._nextId++;
+			}
+		}
+		if ( m.equals( "cancelTask" ) )
+		{
+			this.cancel( (Integer) args[0] );
+			return null;
+		}
+		if ( m.equals( "cancelTasks" ) )
+		{
+			synchronized ( this )
+			{
+				this._tasks.clear();
+			}
+			return null;
+		}
+		if ( m.equals( "isQueued" ) || m.equals( "isCurrentlyRunning" ) ) return this.find( (Integer) args[0] ) != null;
+		return Stubs.object( proxy, method, args, "FakeScheduler" );
+	}
+
+	/**
+	 * Get the proxy handed to Campfire
+	 * @return Scheduler
+	 */
+	public BukkitScheduler getScheduler()
+	{
+		return this._scheduler;
+	}
+
+	/**
+	 * Get the current tick
+	 * @return Ticks run so far
+	 */
+	public synchronized long getTick()
+	{
+		return this._tick;
+	}
+
+	/**
+	 * Run one tick, running every task that is due
+	 * Tasks scheduled while ticking run on a later tick
+	 */
+	public void tick()
+	{
+		ArrayList<Task> due = new ArrayList<Task>();
+		synchronized ( this )
+		{
+			this._tick++;
+			Iterator<Task> it = this._tasks.iterator();
+			while ( it.hasNext() )
+			{
+				Task task = it.next();
+				if ( task.next > this._tick ) continue;
+				due.add( task );
+				if ( task.period <= 0 ) it.remove();
+				else task.next = this._tick + task.period;
+			}
+		}
+		for ( Task task : due ) task.runnable.run();
+	}
+
+	/**
+	 * Schedule a task
+	 * @param runnable Task
+	 * @param delay Ticks before the first run, at least one
+	 * @param period Ticks between runs, 0 or less to run once
+	 * @return Task id
+	 */
+	private synchronized int schedule( Runnable runnable, long delay, long period )
+	{
+		Task task = new Task();
+		task.id = this._nextId++;
+		task.runnable = runnable;
+		task.next = this._tick + Math.max( 1, delay );
+		task.period = period;
+		this._tasks.add( task );
+		return task.id;
+	}
+
+	/**
+	 * Cancel a task
+	 * @param id Task id
+	 */
+	private synchronized void cancel( int id )
+	{
+		Task task = this.find( id );
+		if ( task != null ) this._tasks.remove( task );
+	}
+
+	/**
+	 * Find a task
+	 * @param id Task id
+	 * @return Task, null if it isn't scheduled
+	 */
+	private synchronized Task find( int id )
+	{
+		for ( Task task : this._tasks )
+		{
+			if ( task.id == id ) return task;
+		}
+		return null;
+	}
+
+	/**
+	 * A scheduled task
+	 */
+	private static class Task
+	{
+		int id;
+		Runnable runnable;
+		long next;
+		long period;
+	}
+}
@@ -0,0 +1,181 @@
+package com.hcsmp.campfire.bench;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import org.bukkit.Server;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
+
+/**
+ * In-process stand-in for the Bukkit server
+ * Tracks who is online, hands out a fake scheduler and answers the lookups Campfire makes
+ * Events are not dispatched, callers invoke the listener directly
+ * @author bitdagger
+ *
+ */
+public class FakeServer implements InvocationHandler
+{
+	/**
+	 * Proxy handed to Campfire
+	 */
+	private final Server _server;
+
+	/**
+	 * Plugin manager that knows no plugins and ignores registrations
+	 */
+	private final PluginManager _pluginManager;
+
+	/**
+	 * Scheduler
+	 */
+	private final FakeScheduler _scheduler;
+
+	/**
+	 * Online players - Keyed by lowercase name
+	 */
+	private final HashMap<String,FakePlayer> _online;
+
+	/**
+	 * Online players as handed out, null once someone joins or quits until it is asked for again
+	 */
+	private Player[] _players;
+
+	/**
+	 * Commands - Keyed by name
+	 */
+	private final HashMap<String,PluginCommand> _commands;
+
+	/**
+	 * Logger
+	 */
+	private final Logger _logger;
+
+	/**
+	 * Constructor
+	 */
+	public FakeServer()
+	{
+		this._scheduler = new FakeScheduler();
+		this._online = new HashMap<String,FakePlayer>();
+		this._players = new Player[0];
+		this._commands = new HashMap<String,PluginCommand>();
+		this._logger = Logger.getLogger( "FakeServer" );
+		this._server = Stubs.proxy( Server.class, this );
+		this._pluginManager = Stubs.proxy( PluginManager.class, new InvocationHandler()
+		{
+			public Object invoke( Object proxy, Method method, Object[] args )
+			{
+				if ( method.getName().equals( "getPlugins" ) ) return new Plugin[0];
+				return Stubs.object( proxy, method, args, "FakePluginManager" );
+			}
+		} );
+	}
+
+	/**
+	 * Handle a call on the proxy
+	 */
+	public Object invoke( Object proxy, Method method, Object[] args )
+	{
+		String m = method.getName();
+		if ( m.equals( "getOnlinePlayers" ) ) return this.getOnlinePlayers();
+		if ( m.equals( "getPlayerExact" ) || ( m.equals( "getPlayer" ) && args[0] instanceof String ) )
+		{
+			FakePlayer player = this._online.get( ( (String) args[0] ).toLowerCase() );
+			return player == null ? null : player.getPlayer();
+		}
+		if ( m.equals( "getScheduler" ) ) return this._scheduler.getScheduler();
+		if ( m.equals( "getPluginManager" ) ) return this._pluginManager;
+		if ( m.equals( "getPluginCommand" ) ) return this._commands.get( args[0] );
+		if ( m.equals( "getLogger" ) ) return this._logger;
+		if ( m.equals( "getName" ) ) return "FakeServer";
+		if ( m.equals( "getVersion" ) || m.equals( "getBukkitVersion" ) ) return "1.6.1-R0.1-SNAPSHOT";
+		if ( m.equals( "getMaxPlayers" ) ) return Integer.MAX_VALUE;
+		if ( m.equals( "isPrimaryThread" ) ) return true;
+		return Stubs.object( proxy, method, args, "FakeServer" );
+	}
+
+	/**
+	 * Get the proxy handed to Campfire
+	 * @return Server
+	 */
+	public Server getServer()
+	{
+		return this._server;
+	}
+
+	/**
+	 * Get the scheduler
+	 * @return Scheduler
+	 */
+	public FakeScheduler getScheduler()
+	{
+		return this._scheduler;
+	}
+
+	/**
+	 * Register a plugin's command, as loading its plugin.yml would
+	 * @param name Command name
+	 * @param plugin Owning plugin
+	 */
+	public void addCommand( String name, Plugin plugin )
+	{
+		try {
+			Constructor<PluginCommand> constructor = PluginCommand.class.getDeclaredConstructor( String.class, Plugin.class );
+			constructor.setAccessible( true );
+			this._commands.put( name, constructor.newInstance( name, plugin ) );
+		} catch ( Exception e ) {
+			throw new IllegalStateException( "Can't create command " + name, e );
+		}
+	}
+
+	/**
+	 * Put a player online
+	 * @param player Player
+	 */
+	public void join( FakePlayer player )
+	{
+		this._online.put( player.getName().toLowerCase(), player );
+		this._players = null;
+	}
+
+	/**
+	 * Take a player offline
+	 * @param player Player
+	 */
+	public void quit( FakePlayer player )
+	{
+		this._online.remove( player.getName().toLowerCase() );
+		this._players = null;
+	}
+
+	/**
+	 * Get the number of players online
+	 * @return Player count
+	 */
+	public int getOnlineCount()
+	{
+		return this._online.size();
+	}
+
+	/**
+	 * Get the online players, as Server.getOnlinePlayers() returns them
+	 * @return Online players
+	 */
+	public Player[] getOnlinePlayers()
+	{
+		if ( this._players == null )
+		{
+			ArrayList<Player> players = new ArrayList<Player>( this._online.size() );
+			for ( FakePlayer player : this._online.values() ) players.add( player.getPlayer() );
+			this._players = players.toArray( new Player[players.size()] );
+		}
+		return this._players;
+	}
+}
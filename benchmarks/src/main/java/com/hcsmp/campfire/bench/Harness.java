@@ -0,0 +1,251 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import com.hcsmp.campfire.DataManager;
+import com.hcsmp.campfire.EventListener;
+
+/**
+ * A running Campfire on a fake server with a temporary data folder
+ * Players join and quit through the real listener, and ticking runs Campfire's scheduled tasks
+ * @author bitdagger
+ *
+ */
+public class Harness
+{
+	/**
+	 * Data folder
+	 */
+	private final File _folder;
+
+	/**
+	 * Fake server
+	 */
+	private final FakeServer _server;
+
+	/**
+	 * Plugin under test
+	 */
+	private BenchPlugin _plugin;
+
+	/**
+	 * The only world
+	 */
+	private final World _world;
+
+	/**
+	 * Players who are online
+	 */
+	private final ArrayList<FakePlayer> _players;
+
+	/**
+	 * Thread logins run on, like a real server's pre-login threads
+	 */
+	private final ExecutorService _login;
+
+	/**
+	 * Constructor - Write the config and enable the plugin
+	 * WorldGuard isn't available, so WorldGuardPause is off unless the options say otherwise
+	 * @param options Config options, may be null
+	 * @throws IOException
+	 */
+	public Harness( Map<String,Object> options ) throws IOException
+	{
+		this._folder = Files.createTempDirectory( "campfire-bench" ).toFile();
+		YamlConfiguration config = new YamlConfiguration();
+		config.set( "WorldGuardPause", false );
+		if ( options != null )
+		{
+			for ( Map.Entry<String,Object> option : options.entrySet() ) config.set( option.getKey(), option.getValue() );
+		}
+		config.save( new File( this._folder, "config.yml" ) );
+
+		this._server = new FakeServer();
+		this._world = Stubs.world( "world" );
+		this._players = new ArrayList<FakePlayer>();
+		this._login = Executors.newSingleThreadExecutor();
+		this._plugin = new BenchPlugin( this._server, this._folder );
+		this._plugin.onEnable();
+	}
+
+	/**
+	 * Let a player log in on the login thread, like a real server does before they join, and wait for it
+	 * @param name Player name
+	 */
+	public void preLogin( String name )
+	{
+		final AsyncPlayerPreLoginEvent event = new AsyncPlayerPreLoginEvent( name, InetAddress.getLoopbackAddress() );
+		try {
+			this._login.submit( new Runnable()
+			{
+				public void run()
+				{
+					Harness.this.getListener().onPlayerPreLogin( event );
+				}
+			} ).get();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		} catch ( ExecutionException e ) {
+			throw new IllegalStateException( "Pre-login failed", e.getCause() );
+		}
+	}
+
+	/**
+	 * Bring a player online
+	 * @param name Player name
+	 * @param x Block x to stand at
+	 * @param z Block z to stand at
+	 * @return Player
+	 */
+	public FakePlayer join( String name, double x, double z )
+	{
+		FakePlayer player = new FakePlayer( name, new Location( this._world, x, 64, z ) );
+		this._server.join( player );
+		this.getListener().onPlayerJoin( new PlayerJoinEvent( player.getPlayer(), null ) );
+		this._players.add( player );
+		return player;
+	}
+
+	/**
+	 * Bring players named player0, player1, ... online, standing on a square grid
+	 * @param count Number of players
+	 * @param spacing Blocks between neighbours
+	 */
+	public void joinAll( int count, double spacing )
+	{
+		int side = (int) Math.ceil( Math.sqrt( count ) );
+		for ( int i = 0; i < count; i++ ) this.join( "player" + i, ( i % side ) * spacing + 0.5, ( i / side ) * spacing + 0.5 );
+	}
+
+	/**
+	 * Take a player offline
+	 * @param player Player
+	 */
+	public void quit( FakePlayer player )
+	{
+		this.getListener().onPlayerQuit( new PlayerQuitEvent( player.getPlayer(), null ) );
+		this._server.quit( player );
+		this._players.remove( player );
+	}
+
+	/**
+	 * Run one server tick
+	 */
+	public void tick()
+	{
+		this._server.getScheduler().tick();
+	}
+
+	/**
+	 * Disable the plugin and enable a new copy on the same data folder, like a server restart
+	 * Players stay online, and are picked up by the new copy as it is enabled
+	 */
+	public void restart()
+	{
+		this._plugin.onDisable();
+		this._server.getScheduler().getScheduler().cancelTasks( this._plugin );
+		this._plugin = new BenchPlugin( this._server, this._folder );
+		this._plugin.onEnable();
+	}
+
+	/**
+	 * Disable the plugin and delete the data folder
+	 */
+	public void close()
+	{
+		this._login.shutdown();
+		this._plugin.onDisable();
+		Harness.delete( this._folder );
+	}
+
+	/**
+	 * Delete a file or folder
+	 * @param file File
+	 */
+	private static void delete( File file )
+	{
+		File[] children = file.listFiles();
+		if ( children != null ) for ( File child : children ) Harness.delete( child );
+		file.delete();
+	}
+
+	//-- Getters
+
+	/**
+	 * Get the plugin
+	 * @return Plugin
+	 */
+	public BenchPlugin getPlugin()
+	{
+		return this._plugin;
+	}
+
+	/**
+	 * Get the plugin's data manager
+	 * @return Data manager
+	 */
+	public DataManager getManager()
+	{
+		return this._plugin.getDataManager();
+	}
+
+	/**
+	 * Get the plugin's event listener
+	 * @return Event listener
+	 */
+	public EventListener getListener()
+	{
+		return this._plugin.getListener();
+	}
+
+	/**
+	 * Get the fake server
+	 * @return Fake server
+	 */
+	public FakeServer getServer()
+	{
+		return this._server;
+	}
+
+	/**
+	 * Get the world everyone is in
+	 * @return World
+	 */
+	public World getWorld()
+	{
+		return this._world;
+	}
+
+	/**
+	 * Get the players who are online
+	 * @return Online players
+	 */
+	public ArrayList<FakePlayer> getPlayers()
+	{
+		return this._players;
+	}
+
+	/**
+	 * Get the data folder
+	 * @return Data folder
+	 */
+	public File getFolder()
+	{
+		return this._folder;
+	}
+}
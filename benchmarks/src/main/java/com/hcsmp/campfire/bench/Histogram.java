@@ -0,0 +1,143 @@
+package com.hcsmp.campfire.bench;
+
+import java.util.Arrays;
+
+/**
+ * Fixed bucket latency histogram
+ * Buckets are powers of two split into 16 steps, so values are kept to within about 6% without
+ * allocating anything while recording
+ * @author bitdagger
+ *
+ */
+public class Histogram
+{
+	/**
+	 * Steps per power of two, as a number of bits
+	 */
+	private static final int SUB_BITS = 4;
+
+	/**
+	 * Bucket counts
+	 */
+	private final long[] _counts;
+
+	/**
+	 * Number of values recorded
+	 */
+	private long _total;
+
+	/**
+	 * Sum of the values recorded
+	 */
+	private long _sum;
+
+	/**
+	 * Largest value recorded
+	 */
+	private long _max;
+
+	/**
+	 * Constructor
+	 */
+	public Histogram()
+	{
+		this._counts = new long[64 << SUB_BITS];
+	}
+
+	/**
+	 * Record a value
+	 * @param value Value, negative values count as 0
+	 */
+	public void record( long value )
+	{
+		if ( value < 0 ) value = 0;
+		this._counts[Histogram.bucket( value )]++;
+		this._total++;
+		this._sum += value;
+		if ( value > this._max ) this._max = value;
+	}
+
+	/**
+	 * Forget everything recorded
+	 */
+	public void reset()
+	{
+		Arrays.fill( this._counts, 0 );
+		this._total = 0;
+		this._sum = 0;
+		this._max = 0;
+	}
+
+	/**
+	 * Get the number of values recorded
+	 * @return Count
+	 */
+	public long getCount()
+	{
+		return this._total;
+	}
+
+	/**
+	 * Get the mean of the values recorded
+	 * @return Mean, 0 if nothing was recorded
+	 */
+	public double getMean()
+	{
+		return this._total == 0 ? 0 : (double) this._sum / this._total;
+	}
+
+	/**
+	 * Get the largest value recorded
+	 * @return Largest value
+	 */
+	public long getMax()
+	{
+		return this._max;
+	}
+
+	/**
+	 * Get a percentile
+	 * @param percent Percentile, 0 to 100
+	 * @return Upper bound of the bucket holding the percentile, never more than the largest value
+	 */
+	public long getPercentile( double percent )
+	{
+		if ( this._total == 0 ) return 0;
+		long rank = (long) Math.ceil( this._total * percent / 100.0 );
+		if ( rank < 1 ) rank = 1;
+		long seen = 0;
+		for ( int i = 0; i < this._counts.length; i++ )
+		{
+			seen += this._counts[i];
+			if ( seen >= rank ) return Math.min( Histogram.upper( i ), this._max );
+		}
+		return this._max;
+	}
+
+	/**
+	 * Get the bucket of a value
+	 * @param value Value, not negative
+	 * @return Bucket
+	 */
+	private static int bucket( long value )
+	{
+		if ( value < ( 1 << SUB_BITS ) ) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros( value ); // At least SUB_BITS
+		int step = (int) ( value >>> ( exponent - SUB_BITS ) ) & ( ( 1 << SUB_BITS ) - 1 );
+		return ( ( exponent - SUB_BITS + 1 ) << SUB_BITS ) + step;
+	}
+
+	/**
+	 * Get the largest value in a bucket
+	 * @param bucket Bucket
+	 * @return Largest value
+	 */
+	private static long upper( int bucket )
+	{
+		if ( bucket < ( 1 << SUB_BITS ) ) return bucket;
+		int exponent = ( bucket >>> SUB_BITS ) + SUB_BITS - 1;
+		long step = bucket & ( ( 1 << SUB_BITS ) - 1 );
+		long lower = ( 1L << exponent ) + ( step << ( exponent - SUB_BITS ) );
+		return lower + ( 1L << ( exponent - SUB_BITS ) ) - 1;
+	}
+}
@@ -0,0 +1,121 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hcsmp.campfire.CampfireDataException;
+import com.hcsmp.campfire.EventListener;
+
+/**
+ * onPlayerInteract with a lava bucket, where the FireRadius check has to look for protected players nearby
+ * Players stand on a grid, so the number online sets how crowded the area around the check is
+ * @author bitdagger
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class InteractBenchmark
+{
+	/**
+	 * Players online
+	 */
+	@Param( { "100", "1000", "10000" } )
+	public int players;
+
+	/**
+	 * Blocks between neighbouring players
+	 */
+	@Param( { "3", "20" } )
+	public double spacing;
+
+	/**
+	 * Running plugin
+	 */
+	private Harness _harness;
+
+	/**
+	 * Listener under test
+	 */
+	private EventListener _listener;
+
+	/**
+	 * Vulnerable player in the middle of the crowd placing lava
+	 */
+	private PlayerInteractEvent _vulnerable;
+
+	/**
+	 * Protected player trying to place lava
+	 */
+	private PlayerInteractEvent _protected;
+
+	@Setup
+	public void setup() throws IOException, CampfireDataException
+	{
+		HashMap<String,Object> options = new HashMap<String,Object>();
+		options.put( "FireRadius", 5 );
+		this._harness = new Harness( options );
+		this._harness.joinAll( this.players, this.spacing );
+		this._listener = this._harness.getListener();
+
+		FakePlayer arsonist = this._harness.getPlayers().get( this.players / 2 );
+		this._harness.getManager().terminate( arsonist.getName() );
+		arsonist.setItemInHand( Material.LAVA_BUCKET );
+		this._vulnerable = new PlayerInteractEvent( arsonist.getPlayer(), Action.RIGHT_CLICK_BLOCK, arsonist.getPlayer().getItemInHand(), null, BlockFace.UP );
+
+		FakePlayer guarded = this._harness.getPlayers().get( 0 );
+		guarded.setItemInHand( Material.LAVA_BUCKET );
+		this._protected = new PlayerInteractEvent( guarded.getPlayer(), Action.RIGHT_CLICK_BLOCK, guarded.getPlayer().getItemInHand(), null, BlockFace.UP );
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this._harness.close();
+	}
+
+	@Benchmark
+	public boolean vulnerableWithLava()
+	{
+		return this.interact( this._vulnerable );
+	}
+
+	@Benchmark
+	public boolean protectedWithLava()
+	{
+		return this.interact( this._protected );
+	}
+
+	/**
+	 * Run the handler on a fresh event
+	 * @param e Event to reuse
+	 * @return True if the interaction was cancelled
+	 */
+	private boolean interact( PlayerInteractEvent e )
+	{
+		e.setCancelled( false );
+		this._listener.onPlayerInteract( e );
+		return e.isCancelled();
+	}
+}
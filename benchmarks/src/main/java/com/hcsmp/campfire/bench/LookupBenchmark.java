@@ -0,0 +1,136 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hcsmp.campfire.CampfireDataException;
+import com.hcsmp.campfire.DataManager;
+
+/**
+ * Protection lookups by name and by online player, for players who are known and who aren't
+ * @author bitdagger
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class LookupBenchmark
+{
+	/**
+	 * Size of the name tables, a power of two
+	 */
+	private static final int NAMES = 1024;
+
+	/**
+	 * Players online
+	 */
+	@Param( { "1000", "10000" } )
+	public int players;
+
+	/**
+	 * Running plugin
+	 */
+	private Harness _harness;
+
+	/**
+	 * Data manager under test
+	 */
+	private DataManager _manager;
+
+	/**
+	 * Names of known players, in mixed case like commands get them
+	 */
+	private String[] _known;
+
+	/**
+	 * Names nobody has
+	 */
+	private String[] _unknown;
+
+	/**
+	 * Online players
+	 */
+	private Player[] _online;
+
+	/**
+	 * Players the plugin has never seen
+	 */
+	private Player[] _strangers;
+
+	/**
+	 * Position in the tables
+	 */
+	private int _next;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		this._harness = new Harness( null );
+		this._harness.joinAll( this.players, 4 );
+		this._manager = this._harness.getManager();
+		this._known = new String[NAMES];
+		this._unknown = new String[NAMES];
+		this._online = new Player[NAMES];
+		this._strangers = new Player[NAMES];
+		for ( int i = 0; i < NAMES; i++ )
+		{
+			FakePlayer player = this._harness.getPlayers().get( ( i * 7919 ) % this.players );
+			this._known[i] = player.getName().toUpperCase();
+			this._unknown[i] = "nobody" + i;
+			this._online[i] = player.getPlayer();
+			this._strangers[i] = new FakePlayer( "stranger" + i, new Location( this._harness.getWorld(), 0, 64, 0 ) ).getPlayer();
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this._harness.close();
+	}
+
+	@Benchmark
+	public boolean playerProtectedHit() throws CampfireDataException
+	{
+		return this._manager.playerProtected( this._known[this._next++ & ( NAMES - 1 )] );
+	}
+
+	@Benchmark
+	public boolean playerProtectedMiss()
+	{
+		try {
+			return this._manager.playerProtected( this._unknown[this._next++ & ( NAMES - 1 )] );
+		} catch ( CampfireDataException e ) {
+			return false;
+		}
+	}
+
+	@Benchmark
+	public int protectionStatusHit()
+	{
+		return this._manager.protectionStatus( this._online[this._next++ & ( NAMES - 1 )] );
+	}
+
+	@Benchmark
+	public int protectionStatusMiss()
+	{
+		return this._manager.protectionStatus( this._strangers[this._next++ & ( NAMES - 1 )] );
+	}
+}
@@ -0,0 +1,562 @@
+package com.hcsmp.campfire.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.block.BlockFace;
+import org.bukkit.event.block.Action;
+import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.EntityDamageEvent.DamageCause;
+import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+
+import com.hcsmp.campfire.CampfireDataException;
+import com.hcsmp.campfire.EventListener;
+
+/**
+ * Load simulation - Thousands of fake players joining, walking, fighting, using items and quitting
+ * Events go through the real listener and data manager while the scheduler ticks 20 times a second,
+ * and the run reports tick times, allocation rate and the latency of each handler
+ *
+ *     java -cp target/benchmarks.jar com.hcsmp.campfire.bench.Simulator players=2000 seconds=120 FireRadius=5
+ *
+ * Options are name=value pairs, anything that isn't a simulator option is written to config.yml
+ * @author bitdagger
+ *
+ */
+public class Simulator
+{
+	/**
+	 * Length of a tick in nanoseconds
+	 */
+	private static final long TICK = 50000000L;
+
+	/**
+	 * Items in hand when interacting - Mostly harmless, sometimes restricted
+	 */
+	private static final Material[] ITEMS = { Material.AIR, Material.AIR, Material.AIR, Material.STONE, Material.DIRT,
+		Material.WOOD_SWORD, Material.BREAD, Material.LAVA_BUCKET, Material.FLINT_AND_STEEL, Material.TNT };
+
+	//-- Simulator options
+
+	/**
+	 * Players online once everyone has joined
+	 */
+	private int _target = 2000;
+
+	/**
+	 * Seconds to simulate, after warmup
+	 */
+	private int _seconds = 120;
+
+	/**
+	 * Seconds simulated before measuring starts
+	 */
+	private int _warmup = 20;
+
+	/**
+	 * Seconds taken to fill the server
+	 */
+	private int _ramp = 10;
+
+	/**
+	 * Average minutes a player stays online
+	 */
+	private double _session = 20;
+
+	/**
+	 * Chance that a joining player was online before
+	 */
+	private double _returning = 0.7;
+
+	/**
+	 * Chance that a new player terminates their protection straight away
+	 */
+	private double _vulnerable = 0.3;
+
+	/**
+	 * Chance per tick that a player moves
+	 */
+	private double _move = 0.5;
+
+	/**
+	 * Chance per tick that a player hits someone
+	 */
+	private double _attack = 0.005;
+
+	/**
+	 * Chance per tick that a player right clicks a block
+	 */
+	private double _interact = 0.02;
+
+	/**
+	 * Whether ticks are spaced 50ms apart like a real server, rather than run back to back
+	 */
+	private boolean _paced = true;
+
+	/**
+	 * Random seed
+	 */
+	private long _seed = 1;
+
+	/**
+	 * Config options for the plugin
+	 */
+	private final HashMap<String,Object> _options = new HashMap<String,Object>();
+
+	//-- State
+
+	/**
+	 * Random source
+	 */
+	private Random _random;
+
+	/**
+	 * Running plugin
+	 */
+	private Harness _harness;
+
+	/**
+	 * Listener under test
+	 */
+	private EventListener _listener;
+
+	/**
+	 * Players who are online
+	 */
+	private final ArrayList<Walker> _online = new ArrayList<Walker>();
+
+	/**
+	 * Names of players who were online and left
+	 */
+	private final ArrayList<String> _offline = new ArrayList<String>();
+
+	/**
+	 * Number of the next new player
+	 */
+	private int _nextPlayer;
+
+	/**
+	 * Source of per thread allocation counts, null if the JVM doesn't have one
+	 */
+	private com.sun.management.ThreadMXBean _allocations;
+
+	//-- Measurements
+
+	/**
+	 * Whole ticks - Events plus scheduled tasks
+	 */
+	private final Histogram _ticks = new Histogram();
+
+	/**
+	 * Scheduled tasks each tick
+	 */
+	private final Histogram _tasks = new Histogram();
+
+	/**
+	 * Handler latencies
+	 */
+	private final Histogram _preLogin = new Histogram(), _join = new Histogram(), _quit = new Histogram(), _moves = new Histogram(),
+		_damage = new Histogram(), _interacts = new Histogram();
+
+	/**
+	 * When measuring started, from System.nanoTime()
+	 */
+	private long _started;
+
+	/**
+	 * Ticks over 50ms
+	 */
+	private long _overruns;
+
+	/**
+	 * Bytes allocated by measured ticks
+	 */
+	private long _allocated;
+
+	/**
+	 * Cancelled hits and interactions
+	 */
+	private long _blockedHits, _blockedInteracts;
+
+	/**
+	 * Entry point
+	 * @param args name=value options
+	 * @throws Exception
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		Simulator simulator = new Simulator();
+		for ( String arg : args ) simulator.option( arg );
+		simulator.run();
+	}
+
+	/**
+	 * Apply a name=value option
+	 * @param arg Option
+	 */
+	private void option( String arg )
+	{
+		int equals = arg.indexOf( '=' );
+		if ( equals < 1 ) throw new IllegalArgumentException( "Expected name=value, got " + arg );
+		String name = arg.substring( 0, equals );
+		String value = arg.substring( equals + 1 );
+		if ( name.equals( "players" ) ) this._target = Integer.parseInt( value );
+		else if ( name.equals( "seconds" ) ) this._seconds = Integer.parseInt( value );
+		else if ( name.equals( "warmup" ) ) this._warmup = Integer.parseInt( value );
+		else if ( name.equals( "ramp" ) ) this._ramp = Integer.parseInt( value );
+		else if ( name.equals( "session" ) ) this._session = Double.parseDouble( value );
+		else if ( name.equals( "returning" ) ) this._returning = Double.parseDouble( value );
+		else if ( name.equals( "vulnerable" ) ) this._vulnerable = Double.parseDouble( value );
+		else if ( name.equals( "move" ) ) this._move = Double.parseDouble( value );
+		else if ( name.equals( "attack" ) ) this._attack = Double.parseDouble( value );
+		else if ( name.equals( "interact" ) ) this._interact = Double.parseDouble( value );
+		else if ( name.equals( "paced" ) ) this._paced = Boolean.parseBoolean( value );
+		else if ( name.equals( "seed" ) ) this._seed = Long.parseLong( value );
+		else this._options.put( name, Simulator.parse( value ) );
+	}
+
+	/**
+	 * Turn a config value into the type YAML would have given it
+	 * @param value Value
+	 * @return Boolean, integer, double or the string itself
+	 */
+	private static Object parse( String value )
+	{
+		if ( value.equalsIgnoreCase( "true" ) || value.equalsIgnoreCase( "false" ) ) return Boolean.valueOf( value );
+		try {
+			return Integer.valueOf( value );
+		} catch ( NumberFormatException e ) {}
+		try {
+			return Double.valueOf( value );
+		} catch ( NumberFormatException e ) {}
+		return value;
+	}
+
+	/**
+	 * Run the simulation and print the report
+	 * @throws Exception
+	 */
+	private void run() throws Exception
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if ( threads instanceof com.sun.management.ThreadMXBean && ( (com.sun.management.ThreadMXBean) threads ).isThreadAllocatedMemorySupported() )
+		{
+			this._allocations = (com.sun.management.ThreadMXBean) threads;
+			this._allocations.setThreadAllocatedMemoryEnabled( true );
+		}
+
+		this._random = new Random( this._seed );
+		this._harness = new Harness( this._options );
+		this._listener = this._harness.getListener();
+		System.out.println( "[Campfire] Simulating " + this._target + " players for " + this._seconds + "s after " + this._warmup + "s of warmup" + ( this._paced ? "" : ", unpaced" ) );
+
+		try {
+			long warmupTicks = this._warmup * 20L;
+			long totalTicks = warmupTicks + this._seconds * 20L;
+			long gcStart = 0;
+			long next = System.nanoTime();
+			for ( long tick = 0; tick < totalTicks; tick++ )
+			{
+				if ( tick == warmupTicks )
+				{
+					gcStart = Simulator.gcMillis();
+					this._started = System.nanoTime();
+				}
+				boolean measured = tick >= warmupTicks;
+
+				//-- One tick of player activity followed by Campfire's scheduled tasks
+				long allocated = this.allocated();
+				long began = System.nanoTime();
+				this.tick( measured );
+				long ticked = System.nanoTime();
+				this._harness.tick();
+				long ended = System.nanoTime();
+				allocated = this.allocated() - allocated;
+
+				if ( measured )
+				{
+					this._ticks.record( ended - began );
+					this._tasks.record( ended - ticked );
+					if ( ended - began > TICK ) this._overruns++;
+					this._allocated += allocated;
+					if ( ( tick - warmupTicks + 1 ) % 200 == 0 ) this.progress( ( tick - warmupTicks + 1 ) / 20 );
+				}
+
+				//-- Wait for the next tick like a server would
+				next += TICK;
+				if ( !this._paced ) continue;
+				long wait = next - System.nanoTime();
+				if ( wait > 0 ) Thread.sleep( wait / 1000000L, (int) ( wait % 1000000L ) );
+				else next = System.nanoTime(); // Running behind, so don't try to catch up
+			}
+			this.report( System.nanoTime() - this._started, Simulator.gcMillis() - gcStart );
+		} finally {
+			this._harness.close();
+		}
+	}
+
+	/**
+	 * Simulate one tick of player activity
+	 * @param measured Whether to record handler latencies
+	 * @throws CampfireDataException
+	 */
+	private void tick( boolean measured ) throws CampfireDataException
+	{
+		//-- Quit a few players and fill the server back up, quickly while ramping up
+		int online = this._online.size();
+		double quitChance = 1.0 / ( this._session * 60 * 20 );
+		for ( int i = online - 1; i >= 0; i-- )
+		{
+			if ( this._random.nextDouble() < quitChance ) this.quit( i, measured );
+		}
+		int joins = Math.max( 1, this._target / Math.max( 1, this._ramp * 20 ) );
+		for ( int i = 0; i < joins && this._online.size() < this._target; i++ ) this.join( measured );
+
+		//-- Everyone else does whatever they're doing
+		for ( int i = 0; i < this._online.size(); i++ )
+		{
+			Walker walker = this._online.get( i );
+			if ( this._random.nextDouble() < this._move ) this.move( walker, measured );
+			if ( this._random.nextDouble() < this._attack ) this.attack( walker, measured );
+			if ( this._random.nextDouble() < this._interact ) this.interact( walker, measured );
+		}
+	}
+
+	/**
+	 * Bring a player online, either someone who was here before or a new player
+	 * New players spawn near the middle, returning players wherever
+	 * @param measured Whether to record latency
+	 * @throws CampfireDataException
+	 */
+	private void join( boolean measured ) throws CampfireDataException
+	{
+		String name;
+		boolean returning = !this._offline.isEmpty() && this._random.nextDouble() < this._returning;
+		if ( returning )
+		{
+			int index = this._random.nextInt( this._offline.size() );
+			name = this._offline.get( index );
+			this._offline.set( index, this._offline.get( this._offline.size() - 1 ) );
+			this._offline.remove( this._offline.size() - 1 );
+		} else {
+			name = "player" + this._nextPlayer++;
+		}
+		double spread = returning ? 2000 : 100;
+		double x = ( this._random.nextDouble() - 0.5 ) * spread;
+		double z = ( this._random.nextDouble() - 0.5 ) * spread;
+
+		//-- Logging in happens off the main thread, so it is measured apart from the join
+		long began = System.nanoTime();
+		this._harness.preLogin( name );
+		if ( measured ) this._preLogin.record( System.nanoTime() - began );
+
+		began = System.nanoTime();
+		FakePlayer player = this._harness.join( name, x, z );
+		if ( measured ) this._join.record( System.nanoTime() - began );
+
+		//-- Some new players end their protection as soon as they're in
+		if ( !returning && this._random.nextDouble() < this._vulnerable ) this._harness.getManager().terminate( name );
+		this._online.add( new Walker( player, this._random.nextDouble() * Math.PI * 2 ) );
+	}
+
+	/**
+	 * Take a player offline
+	 * @param index Index of the player in the online list
+	 * @param measured Whether to record latency
+	 */
+	private void quit( int index, boolean measured )
+	{
+		Walker walker = this._online.get( index );
+		this._online.set( index, this._online.get( this._online.size() - 1 ) );
+		this._online.remove( this._online.size() - 1 );
+
+		long began = System.nanoTime();
+		this._harness.quit( walker.player );
+		if ( measured ) this._quit.record( System.nanoTime() - began );
+		this._offline.add( walker.player.getName() );
+	}
+
+	/**
+	 * Walk a player a step, turning a little each time
+	 * @param walker Player
+	 * @param measured Whether to record latency
+	 */
+	private void move( Walker walker, boolean measured )
+	{
+		walker.heading += ( this._random.nextDouble() - 0.5 ) * 0.5;
+		Location from = walker.player.getLocation();
+		Location to = new Location( from.getWorld(), from.getX() + Math.cos( walker.heading ) * 0.4, from.getY(), from.getZ() + Math.sin( walker.heading ) * 0.4 );
+		PlayerMoveEvent e = new PlayerMoveEvent( walker.player.getPlayer(), from, to );
+
+		long began = System.nanoTime();
+		this._listener.onMove( e );
+		if ( measured ) this._moves.record( System.nanoTime() - began );
+		if ( !e.isCancelled() ) walker.player.setLocation( to );
+	}
+
+	/**
+	 * Hit another player - Usually a neighbour in the online list, which is as good as anyone at random
+	 * @param walker Attacker
+	 * @param measured Whether to record latency
+	 */
+	private void attack( Walker walker, boolean measured )
+	{
+		if ( this._online.size() < 2 ) return;
+		Walker victim;
+		do {
+			victim = this._online.get( this._random.nextInt( this._online.size() ) );
+		} while ( victim == walker );
+		EntityDamageByEntityEvent e = new EntityDamageByEntityEvent( walker.player.getPlayer(), victim.player.getPlayer(), DamageCause.ENTITY_ATTACK, 1 );
+
+		long began = System.nanoTime();
+		this._listener.onEntityDamageByEntity( e );
+		if ( measured )
+		{
+			this._damage.record( System.nanoTime() - began );
+			if ( e.isCancelled() ) this._blockedHits++;
+		}
+	}
+
+	/**
+	 * Right click the ground with a random item
+	 * @param walker Player
+	 * @param measured Whether to record latency
+	 */
+	private void interact( Walker walker, boolean measured )
+	{
+		walker.player.setItemInHand( ITEMS[this._random.nextInt( ITEMS.length )] );
+		PlayerInteractEvent e = new PlayerInteractEvent( walker.player.getPlayer(), Action.RIGHT_CLICK_BLOCK, walker.player.getPlayer().getItemInHand(), null, BlockFace.UP );
+
+		long began = System.nanoTime();
+		this._listener.onPlayerInteract( e );
+		if ( measured )
+		{
+			this._interacts.record( System.nanoTime() - began );
+			if ( e.isCancelled() ) this._blockedInteracts++;
+		}
+	}
+
+	/**
+	 * Get the bytes allocated by this thread so far
+	 * @return Bytes, 0 if unknown
+	 */
+	private long allocated()
+	{
+		if ( this._allocations == null ) return 0;
+		return this._allocations.getThreadAllocatedBytes( Thread.currentThread().getId() );
+	}
+
+	/**
+	 * Get the time spent collecting garbage so far
+	 * @return Milliseconds over all collectors
+	 */
+	private static long gcMillis()
+	{
+		long total = 0;
+		for ( GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans() ) total += Math.max( 0, gc.getCollectionTime() );
+		return total;
+	}
+
+	/**
+	 * Print a line of progress
+	 * @param seconds Seconds measured so far
+	 */
+	private void progress( long seconds )
+	{
+		System.out.println( String.format( "[Campfire] %4ds  %5d online  tick p50 %s p99 %s max %s  %s",
+			seconds, this._online.size(), Simulator.ms( this._ticks.getPercentile( 50 ) ), Simulator.ms( this._ticks.getPercentile( 99 ) ),
+			Simulator.ms( this._ticks.getMax() ), this.rate( System.nanoTime() - this._started ) ) );
+	}
+
+	/**
+	 * Print the final report
+	 * @param nanos Wall time measured
+	 * @param gc Milliseconds spent collecting garbage while measuring
+	 */
+	private void report( long nanos, long gc )
+	{
+		System.out.println();
+		System.out.println( "[Campfire] " + this._ticks.getCount() + " ticks, " + this._online.size() + " online at the end, " + this._overruns + " ticks over 50ms" );
+		System.out.println( "[Campfire] Allocation " + this.rate( nanos ) + ", " + ( this._allocations == null ? "unknown" : ( this._allocated / Math.max( 1, this._ticks.getCount() ) ) + " bytes" ) + " per tick, GC " + gc + "ms" );
+		System.out.println( "[Campfire] Blocked " + this._blockedHits + " of " + this._damage.getCount() + " hits and " + this._blockedInteracts + " of " + this._interacts.getCount() + " interactions" );
+		System.out.println();
+		System.out.println( String.format( "%-14s %10s %10s %10s %10s %10s %10s %10s", "", "count", "mean", "p50", "p90", "p99", "p99.9", "max" ) );
+		Simulator.row( "tick", this._ticks );
+		Simulator.row( "  tasks", this._tasks );
+		Simulator.row( "pre-login", this._preLogin );
+		Simulator.row( "join", this._join );
+		Simulator.row( "quit", this._quit );
+		Simulator.row( "move", this._moves );
+		Simulator.row( "damage", this._damage );
+		Simulator.row( "interact", this._interacts );
+		System.out.println( "Tick times are in milliseconds, handler times in microseconds. Pre-login runs off the main thread on a real server. Allocation includes the simulated events themselves." );
+	}
+
+	/**
+	 * Print one row of the latency table
+	 * @param name Row name
+	 * @param histogram Latencies in nanoseconds
+	 */
+	private static void row( String name, Histogram histogram )
+	{
+		double unit = name.trim().equals( "tick" ) || name.trim().equals( "tasks" ) ? 1000000.0 : 1000.0;
+		System.out.println( String.format( "%-14s %10d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f", name, histogram.getCount(),
+			histogram.getMean() / unit, histogram.getPercentile( 50 ) / unit, histogram.getPercentile( 90 ) / unit,
+			histogram.getPercentile( 99 ) / unit, histogram.getPercentile( 99.9 ) / unit, histogram.getMax() / unit ) );
+	}
+
+	/**
+	 * Format nanoseconds as milliseconds
+	 * @param nanos Nanoseconds
+	 * @return Milliseconds with two decimals
+	 */
+	private static String ms( long nanos )
+	{
+		return String.format( "%.2fms", nanos / 1000000.0 );
+	}
+
+	/**
+	 * Format the allocation rate so far
+	 * @param nanos Time the allocations were made over
+	 * @return MB per second, or unknown
+	 */
+	private String rate( long nanos )
+	{
+		if ( this._allocations == null ) return "allocation unknown";
+		return String.format( "%.1f MB/s", this._allocated / 1048576.0 / Math.max( 1e-9, nanos / 1e9 ) );
+	}
+
+	/**
+	 * An online player and the direction they're walking
+	 */
+	private static class Walker
+	{
+		/**
+		 * Player
+		 */
+		final FakePlayer player;
+
+		/**
+		 * Walking direction in radians
+		 */
+		double heading;
+
+		/**
+		 * Constructor
+		 * @param player Player
+		 * @param heading Walking direction in radians
+		 */
+		Walker( FakePlayer player, double heading )
+		{
+			this.player = player;
+			this.heading = heading;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hcsmp.campfire.FileStore;
+import com.hcsmp.campfire.PlayerData;
+import com.hcsmp.campfire.PlayerIndex;
+import com.hcsmp.campfire.PlayerRecord;
+
+/**
+ * Saving and loading player data through the file store
+ * Saving journals every record and folds the journal into the shards, as a shutdown does. Saving changes journals
+ * the players who joined most recently and folds them, which only rewrites the newest shards.
+ * Loading reads the index of every shard and archives the expired players, as enabling the plugin does
+ * @author bitdagger
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class StorageBenchmark
+{
+	/**
+	 * Players changed by saveChanges
+	 */
+	private static final int CHANGES = 1000;
+
+	/**
+	 * Known players
+	 */
+	@Param( { "10000", "100000", "1000000" } )
+	public int records;
+
+	/**
+	 * Journal records for the most recent players
+	 */
+	private byte[] _changes;
+
+	/**
+	 * Folder holding the stores
+	 */
+	private File _folder;
+
+	/**
+	 * A journal record for every player
+	 */
+	private byte[] _journal;
+
+	@Setup( Level.Trial )
+	public void setup() throws IOException
+	{
+		this._folder = Files.createTempDirectory( "campfire-storage" ).toFile();
+		ByteBuffer buf = ByteBuffer.allocate( this.records * PlayerRecord.SIZE );
+		for ( int i = 0; i < this.records; i++ )
+		{
+			PlayerData data = new PlayerData( ( i * 37L ) % 3600000L, i % 3 != 0, false );
+			data.setSlot( i );
+			PlayerRecord.put( buf, "player" + i, data );
+		}
+		this._journal = buf.array();
+		int changed = Math.min( this.records, CHANGES );
+		this._changes = Arrays.copyOfRange( this._journal, ( this.records - changed ) * PlayerRecord.SIZE, this.records * PlayerRecord.SIZE );
+
+		// Shards for loading
+		FileStore store = this.store( "load" );
+		store.open( new HashMap<String,PlayerData>(), new HashMap<String,Integer>(), new HashMap<String,Integer>() );
+		store.close( this._journal );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		StorageBenchmark.delete( this._folder );
+	}
+
+	@Benchmark
+	public void savePlayerData( EmptyStore empty )
+	{
+		empty.store.close( this._journal );
+	}
+
+	@Benchmark
+	public void saveChanges( FullStore full )
+	{
+		full.store.close( this._changes );
+	}
+
+	@Benchmark
+	public PlayerIndex loadPlayerData( LoadedStore loaded ) throws IOException
+	{
+		HashMap<String,Integer> index = new HashMap<String,Integer>();
+		HashMap<String,Integer> expired = new HashMap<String,Integer>();
+		loaded.store = this.store( "load" );
+		loaded.store.open( new HashMap<String,PlayerData>(), index, expired );
+		return new PlayerIndex( index, expired );
+	}
+
+	/**
+	 * A freshly opened store with no players, for each save
+	 */
+	@State( Scope.Thread )
+	public static class EmptyStore
+	{
+		/**
+		 * Store
+		 */
+		FileStore store;
+
+		@Setup( Level.Invocation )
+		public void open( StorageBenchmark bench ) throws IOException
+		{
+			StorageBenchmark.delete( new File( bench._folder, "save" ) );
+			this.store = bench.store( "save" );
+			this.store.open( new HashMap<String,PlayerData>(), new HashMap<String,Integer>(), new HashMap<String,Integer>() );
+		}
+	}
+
+	/**
+	 * The store with every player opened, for each save of a few changes
+	 */
+	@State( Scope.Thread )
+	public static class FullStore
+	{
+		/**
+		 * Store
+		 */
+		FileStore store;
+
+		@Setup( Level.Invocation )
+		public void open( StorageBenchmark bench ) throws IOException
+		{
+			this.store = bench.store( "load" );
+			this.store.open( new HashMap<String,PlayerData>(), new HashMap<String,Integer>(), new HashMap<String,Integer>() );
+		}
+	}
+
+	/**
+	 * The store each load opened, closed again outside the measurement
+	 */
+	@State( Scope.Thread )
+	public static class LoadedStore
+	{
+		/**
+		 * Store
+		 */
+		FileStore store;
+
+		@TearDown( Level.Invocation )
+		public void close()
+		{
+			if ( this.store != null ) this.store.close( new byte[0] );
+			this.store = null;
+		}
+	}
+
+	/**
+	 * Create a store in a subfolder
+	 * @param name Subfolder
+	 * @return Store, not opened yet
+	 */
+	private FileStore store( String name )
+	{
+		File folder = new File( this._folder, name );
+		folder.mkdirs();
+		return new FileStore( new File( folder, "players.dat" ), new File( folder, "players" ), new File( folder, "players.journal" ), Long.MAX_VALUE, 2, false );
+	}
+
+	/**
+	 * Delete a file or folder
+	 * @param file File
+	 */
+	private static void delete( File file )
+	{
+		File[] children = file.listFiles();
+		if ( children != null ) for ( File child : children ) StorageBenchmark.delete( child );
+		file.delete();
+	}
+}
@@ -0,0 +1,432 @@
+package com.hcsmp.campfire.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.hcsmp.campfire.CampfireDataException;
+import com.hcsmp.campfire.DataManager;
+import com.hcsmp.campfire.LatencyHistogram;
+
+/**
+ * Stress tests for DataManager's thread safety - Worker threads look players up, terminate, reset and remove them
+ * while the calling thread plays the server's main thread, ticking, saving and letting players come and go
+ *
+ *     java -cp target/benchmarks.jar com.hcsmp.campfire.bench.StressTest threads=8 players=2000 seconds=10
+ *
+ * Exits with status 1 if any check fails. RaceTest runs the same scenarios, smaller, as part of the build
+ * @author bitdagger
+ *
+ */
+public class StressTest
+{
+	/**
+	 * Worker threads
+	 */
+	private int _threads = 8;
+
+	/**
+	 * Players per test
+	 */
+	private int _players = 2000;
+
+	/**
+	 * Seconds the churn test runs for
+	 */
+	private int _seconds = 10;
+
+	/**
+	 * Failed checks
+	 */
+	private int _failures;
+
+	/**
+	 * Constructor - Defaults for running from the command line
+	 */
+	StressTest()
+	{
+	}
+
+	/**
+	 * Constructor
+	 * @param threads Worker threads
+	 * @param players Players per test
+	 * @param seconds Seconds the churn test runs for
+	 */
+	StressTest( int threads, int players, int seconds )
+	{
+		this._threads = threads;
+		this._players = players;
+		this._seconds = seconds;
+	}
+
+	/**
+	 * Get the number of failed checks so far
+	 * @return Failed checks
+	 */
+	int getFailures()
+	{
+		return this._failures;
+	}
+
+	/**
+	 * Entry point
+	 * @param args name=value options: threads, players, seconds
+	 * @throws Exception
+	 */
+	public static void main( String[] args ) throws Exception
+	{
+		StressTest test = new StressTest();
+		for ( String arg : args )
+		{
+			String[] option = arg.split( "=", 2 );
+			if ( option.length != 2 ) throw new IllegalArgumentException( "Expected name=value, got " + arg );
+			if ( option[0].equals( "threads" ) ) test._threads = Integer.parseInt( option[1] );
+			else if ( option[0].equals( "players" ) ) test._players = Integer.parseInt( option[1] );
+			else if ( option[0].equals( "seconds" ) ) test._seconds = Integer.parseInt( option[1] );
+			else throw new IllegalArgumentException( "Unknown option " + option[0] );
+		}
+		test.terminateRace();
+		test.loadRace();
+		test.churn();
+		System.out.println( "[Campfire] " + ( test._failures == 0 ? "All stress tests passed" : test._failures + " checks failed" ) );
+		System.exit( test._failures == 0 ? 0 : 1 );
+	}
+
+	/**
+	 * Every thread terminates every player at once - Each player must be terminated exactly once,
+	 * and once the follow up work has run on the main thread nobody is left in the FireRadius grid
+	 * @throws Exception
+	 */
+	void terminateRace() throws Exception
+	{
+		HashMap<String,Object> options = new HashMap<String,Object>();
+		options.put( "FireRadius", 5 );
+		final Harness harness = new Harness( options );
+		try {
+			harness.joinAll( this._players, 3 );
+			final DataManager manager = harness.getManager();
+			final List<FakePlayer> players = harness.getPlayers();
+			final AtomicIntegerArray wins = new AtomicIntegerArray( players.size() );
+			this.race( "terminateRace", harness, new Work()
+			{
+				public void run( int thread, Random random ) throws Exception
+				{
+					for ( int i : StressTest.shuffled( players.size(), random ) )
+					{
+						if ( manager.terminate( players.get( i ).getName() ) ) wins.incrementAndGet( i );
+					}
+				}
+			} );
+			harness.tick(); // Follow up work from the workers runs here
+
+			for ( int i = 0; i < players.size(); i++ )
+			{
+				FakePlayer player = players.get( i );
+				this.check( wins.get( i ) == 1, "terminateRace: " + player.getName() + " terminated " + wins.get( i ) + " times" );
+				this.check( manager.protectionStatus( player.getPlayer() ) == DataManager.UNPROTECTED, "terminateRace: " + player.getName() + " is still protected" );
+				this.check( manager.findProtectedNear( player.getLocation(), 1, null ) == null, "terminateRace: " + player.getName() + " is still in the grid" );
+			}
+		} finally {
+			harness.close();
+		}
+		System.out.println( "[Campfire] terminateRace done" );
+	}
+
+	/**
+	 * Every thread looks up every evicted player at once - Each player must be loaded from the store exactly once
+	 * @throws Exception
+	 */
+	void loadRace() throws Exception
+	{
+		HashMap<String,Object> options = new HashMap<String,Object>();
+		options.put( "EvictAfter", 0 );
+		options.put( "SaveInterval", 100000 ); // Only evict when told to
+		final Harness harness = new Harness( options );
+		try {
+			harness.joinAll( this._players, 3 );
+			final ArrayList<String> names = new ArrayList<String>();
+			for ( FakePlayer player : new ArrayList<FakePlayer>( harness.getPlayers() ) )
+			{
+				names.add( player.getName() );
+				harness.quit( player );
+			}
+
+			//-- Wait for the writer to persist everyone so they can be evicted
+			final DataManager manager = harness.getManager();
+			long deadline = System.currentTimeMillis() + 10000;
+			do {
+				manager.flush();
+				manager.update();
+				Thread.sleep( 10 );
+			} while ( harness.getPlugin().getMetrics().getSizes().get( "loaded" ) > 0 && System.currentTimeMillis() < deadline );
+			this.check( harness.getPlugin().getMetrics().getSizes().get( "loaded" ) == 0, "loadRace: players were never evicted" );
+
+			harness.getPlugin().getMetrics().reset();
+			this.race( "loadRace", harness, new Work()
+			{
+				public void run( int thread, Random random ) throws Exception
+				{
+					for ( int i : StressTest.shuffled( names.size(), random ) )
+					{
+						if ( !manager.playerProtected( names.get( i ) ) ) throw new IllegalStateException( names.get( i ) + " lost their protection" );
+					}
+				}
+			} );
+			LatencyHistogram loads = harness.getPlugin().getMetrics().getLatencies().get( "storeLoad" );
+			this.check( loads.getCount() == names.size(), "loadRace: " + loads.getCount() + " store loads for " + names.size() + " players" );
+		} finally {
+			harness.close();
+		}
+		System.out.println( "[Campfire] loadRace done" );
+	}
+
+	/**
+	 * Writers terminate, reset and remove random players while readers look them up and the main thread ticks,
+	 * saves and lets players come and go - Afterwards memory, the online index and a restart must all agree
+	 * Only players who stay offline are removed, since joining again would give them a new record
+	 * @throws Exception
+	 */
+	void churn() throws Exception
+	{
+		final Harness harness = new Harness( null );
+		try {
+			//-- Half the players are online, the other half only known
+			harness.joinAll( this._players, 3 );
+			final ArrayList<String> names = new ArrayList<String>();
+			ArrayList<FakePlayer> offline = new ArrayList<FakePlayer>();
+			for ( FakePlayer player : harness.getPlayers() ) names.add( player.getName() );
+			for ( int i = 0; i < this._players; i += 2 ) offline.add( harness.getPlayers().get( i ) );
+			for ( FakePlayer player : offline ) harness.quit( player );
+
+			final DataManager manager = harness.getManager();
+			final long duration = harness.getPlugin().getSettings().getDuration();
+			final long end = System.currentTimeMillis() + this._seconds * 1000L;
+			final AtomicIntegerArray removals = new AtomicIntegerArray( names.size() );
+			this.race( "churn", harness, new Work()
+			{
+				public void run( int thread, Random random ) throws Exception
+				{
+					boolean writer = thread % 2 == 0;
+					while ( System.currentTimeMillis() < end )
+					{
+						int i = random.nextInt( names.size() );
+						String name = names.get( i );
+						try {
+							if ( !writer )
+							{
+								int left = manager.getPlayerTimeLeft( name );
+								if ( left < 0 || left > duration ) throw new IllegalStateException( name + " has " + left + "s left" );
+								continue;
+							}
+							int op = random.nextInt( 100 );
+							if ( op < 45 ) manager.terminate( name );
+							else if ( op < 90 ) manager.resetPlayer( name );
+							else if ( op < 91 && i % 2 == 0 ) // Only offline players, who don't join again and get a new record
+							{
+								manager.removePlayer( name );
+								removals.incrementAndGet( i );
+							}
+							else manager.playerProtected( name );
+						} catch ( CampfireDataException e ) {
+							// Removed, which is fine
+						}
+					}
+				}
+			}, new Runnable()
+			{
+				int turn;
+
+				public void run()
+				{
+					// Bring someone offline online and send someone online away now and again
+					if ( ++this.turn % 10 != 0 ) return;
+					List<FakePlayer> online = harness.getPlayers();
+					if ( online.isEmpty() ) return;
+					FakePlayer leaving = online.get( this.turn / 10 % online.size() );
+					harness.quit( leaving );
+					harness.join( leaving.getName(), leaving.getLocation().getX(), leaving.getLocation().getZ() );
+					manager.flush();
+				}
+			} );
+			for ( int i = 0; i < 5; i++ ) harness.tick();
+
+			//-- Memory and the online index agree, and removal sticks
+			HashMap<String,Boolean> before = StressTest.states( manager, names );
+			for ( int i = 0; i < names.size(); i++ )
+			{
+				String name = names.get( i );
+				Boolean state = before.get( name );
+				this.check( removals.get( i ) <= 1, "churn: " + name + " removed " + removals.get( i ) + " times" );
+				this.check( ( removals.get( i ) == 1 ) == ( state == null ), "churn: " + name + " removed " + removals.get( i ) + " times but is " + ( state == null ? "unknown" : "known" ) );
+			}
+			for ( FakePlayer player : harness.getPlayers() )
+			{
+				int status = manager.protectionStatus( player.getPlayer() );
+				Boolean state = before.get( player.getName() );
+				int expected = state == null ? DataManager.UNKNOWN : state ? DataManager.PROTECTED : DataManager.UNPROTECTED;
+				this.check( status == expected, "churn: " + player.getName() + " is " + status + " online but " + expected + " by name" );
+			}
+
+			//-- Everything journaled in the right order, so a restart loads the same state
+			harness.restart();
+			HashMap<String,Boolean> after = StressTest.states( harness.getManager(), names );
+			for ( String name : names )
+			{
+				Boolean state = after.get( name );
+				Boolean expected = before.get( name );
+				this.check( expected == null ? state == null : expected.equals( state ), "churn: " + name + " was " + before.get( name ) + " before the restart and " + state + " after" );
+			}
+		} finally {
+			harness.close();
+		}
+		System.out.println( "[Campfire] churn done" );
+	}
+
+	/**
+	 * Get a player's protection by name
+	 * @param manager Data manager
+	 * @param name Player name
+	 * @return Whether they are protected, null if they are unknown
+	 */
+	private static Boolean state( DataManager manager, String name )
+	{
+		try {
+			return manager.playerProtected( name );
+		} catch ( CampfireDataException e ) {
+			return null;
+		}
+	}
+
+	/**
+	 * Get everyone's protection by name, looked up on another thread since the main thread doesn't wait for players
+	 * who aren't in memory
+	 * @param manager Data manager
+	 * @param names Player names
+	 * @return Whether each player is protected, null for unknown players
+	 * @throws InterruptedException
+	 */
+	private static HashMap<String,Boolean> states( final DataManager manager, final List<String> names ) throws InterruptedException
+	{
+		final HashMap<String,Boolean> states = new HashMap<String,Boolean>();
+		Thread thread = new Thread( new Runnable()
+		{
+			public void run()
+			{
+				for ( String name : names ) states.put( name, StressTest.state( manager, name ) );
+			}
+		}, "Campfire Stress Lookups" );
+		thread.start();
+		thread.join();
+		return states;
+	}
+
+	/**
+	 * Run work on every worker thread at once, ticking the harness on this thread until they are all done
+	 * @param test Test name for errors
+	 * @param harness Running plugin
+	 * @param work Work for each thread
+	 * @throws InterruptedException
+	 */
+	private void race( String test, Harness harness, Work work ) throws InterruptedException
+	{
+		this.race( test, harness, work, null );
+	}
+
+	/**
+	 * Run work on every worker thread at once, ticking the harness on this thread until they are all done
+	 * @param test Test name for errors
+	 * @param harness Running plugin
+	 * @param work Work for each thread
+	 * @param main Extra main thread work for each tick, may be null
+	 * @throws InterruptedException
+	 */
+	private void race( final String test, Harness harness, final Work work, Runnable main ) throws InterruptedException
+	{
+		final CountDownLatch start = new CountDownLatch( 1 );
+		final CountDownLatch done = new CountDownLatch( this._threads );
+		final List<Throwable> errors = Collections.synchronizedList( new ArrayList<Throwable>() );
+		for ( int t = 0; t < this._threads; t++ )
+		{
+			final int thread = t;
+			Thread worker = new Thread( new Runnable()
+			{
+				public void run()
+				{
+					try {
+						start.await();
+						work.run( thread, new Random( thread ) );
+					} catch ( Throwable e ) {
+						errors.add( e );
+					} finally {
+						done.countDown();
+					}
+				}
+			}, "Campfire Stress " + t );
+			worker.setDaemon( true );
+			worker.start();
+		}
+		start.countDown();
+		while ( done.getCount() > 0 )
+		{
+			harness.tick();
+			if ( main != null ) main.run();
+			Thread.sleep( 1 );
+		}
+		for ( Throwable e : errors )
+		{
+			this.check( false, test + ": " + e );
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Record a check
+	 * @param ok Whether it passed
+	 * @param message What went wrong
+	 */
+	private void check( boolean ok, String message )
+	{
+		if ( ok ) return;
+		this._failures++;
+		if ( this._failures <= 50 ) System.out.println( "[Campfire] FAILED " + message );
+	}
+
+	/**
+	 * Numbers 0 to count - 1 in random order
+	 * @param count How many numbers
+	 * @param random Random source
+	 * @return Shuffled numbers
+	 */
+	private static int[] shuffled( int count, Random random )
+	{
+		int[] order = new int[count];
+		for ( int i = 0; i < count; i++ ) order[i] = i;
+		for ( int i = count - 1; i > 0; i-- )
+		{
+			int j = random.nextInt( i + 1 );
+			int swap = order[i];
+			order[i] = order[j];
+			order[j] = swap;
+		}
+		return order;
+	}
+
+	/**
+	 * Work for one worker thread
+	 */
+	private interface Work
+	{
+		/**
+		 * Do the work
+		 * @param thread Worker number
+		 * @param random Random source for this worker
+		 * @throws Exception
+		 */
+		void run( int thread, Random random ) throws Exception;
+	}
+}
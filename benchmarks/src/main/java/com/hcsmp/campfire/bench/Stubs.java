@@ -0,0 +1,86 @@
+package com.hcsmp.campfire.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.bukkit.World;
+
+/**
+ * Helpers for standing in for Bukkit interfaces with dynamic proxies
+ * Anything a stub doesn't handle returns zero, false or null
+ * @author bitdagger
+ *
+ */
+public final class Stubs
+{
+	/**
+	 * Only static helpers
+	 */
+	private Stubs()
+	{
+	}
+
+	/**
+	 * Create a proxy for an interface
+	 * @param type Interface
+	 * @param handler Handler for its methods
+	 * @return Proxy
+	 */
+	public static <T> T proxy( Class<T> type, InvocationHandler handler )
+	{
+		return type.cast( Proxy.newProxyInstance( type.getClassLoader(), new Class<?>[] { type }, handler ) );
+	}
+
+	/**
+	 * Answer the methods every object has, by identity
+	 * @param proxy Proxy
+	 * @param method Method called
+	 * @param args Arguments
+	 * @param name Name for toString()
+	 * @return Result, or the method's default value if it isn't one of them
+	 */
+	public static Object object( Object proxy, Method method, Object[] args, String name )
+	{
+		String m = method.getName();
+		if ( m.equals( "equals" ) && args != null && args.length == 1 ) return proxy == args[0];
+		if ( m.equals( "hashCode" ) && args == null ) return System.identityHashCode( proxy );
+		if ( m.equals( "toString" ) && args == null ) return name;
+		return Stubs.defaultValue( method.getReturnType() );
+	}
+
+	/**
+	 * Get the value a stub returns for a method it doesn't handle
+	 * @param type Return type
+	 * @return Zero, false or null
+	 */
+	public static Object defaultValue( Class<?> type )
+	{
+		if ( !type.isPrimitive() || type == void.class ) return null;
+		if ( type == boolean.class ) return false;
+		if ( type == char.class ) return (char) 0;
+		if ( type == byte.class ) return (byte) 0;
+		if ( type == short.class ) return (short) 0;
+		if ( type == int.class ) return 0;
+		if ( type == long.class ) return 0L;
+		if ( type == float.class ) return 0f;
+		return 0d;
+	}
+
+	/**
+	 * Create a world that only knows its name
+	 * @param name World name
+	 * @return World
+	 */
+	public static World world( final String name )
+	{
+		return Stubs.proxy( World.class, new InvocationHandler()
+		{
+			public Object invoke( Object proxy, Method method, Object[] args )
+			{
+				if ( method.getName().equals( "getName" ) ) return name;
+				return Stubs.object( proxy, method, args, "World{" + name + "}" );
+			}
+		} );
+	}
+}
@@ -0,0 +1,71 @@
+package com.hcsmp.campfire.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.hcsmp.campfire.DataManager;
+
+/**
+ * Cost of the once a second DataManager.update() with everyone online and protected
+ * The clock is real, so this is mostly the per call overhead plus the amortized immunity refresh,
+ * the simulator covers timers coming due at a realistic rate
+ * @author bitdagger
+ *
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class UpdateBenchmark
+{
+	/**
+	 * Players online
+	 */
+	@Param( { "100", "1000", "10000" } )
+	public int players;
+
+	/**
+	 * Running plugin
+	 */
+	private Harness _harness;
+
+	/**
+	 * Data manager under test
+	 */
+	private DataManager _manager;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		this._harness = new Harness( null );
+		this._harness.joinAll( this.players, 4 );
+		this._manager = this._harness.getManager();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		this._harness.close();
+	}
+
+	@Benchmark
+	public void update()
+	{
+		this._manager.update();
+	}
+}
@@ -0,0 +1,65 @@
+package com.hcsmp.campfire.bench;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Runs StressTest's races on every build, with fewer threads and players than its defaults
+ * Failed checks are printed by StressTest as they happen
+ * @author bitdagger
+ *
+ */
+public class RaceTest
+{
+	/**
+	 * Worker threads
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * Players per race
+	 */
+	private static final int PLAYERS = 500;
+
+	/**
+	 * Seconds the churn race runs for
+	 */
+	private static final int SECONDS = 3;
+
+	/**
+	 * Every player is terminated exactly once, and nobody is left in the FireRadius grid
+	 * @throws Exception
+	 */
+	@Test
+	public void terminateRace() throws Exception
+	{
+		StressTest test = new StressTest( THREADS, PLAYERS, SECONDS );
+		test.terminateRace();
+		assertEquals( "failed checks", 0, test.getFailures() );
+	}
+
+	/**
+	 * Every evicted player is loaded from the store exactly once
+	 * @throws Exception
+	 */
+	@Test
+	public void loadRace() throws Exception
+	{
+		StressTest test = new StressTest( THREADS, PLAYERS, SECONDS );
+		test.loadRace();
+		assertEquals( "failed checks", 0, test.getFailures() );
+	}
+
+	/**
+	 * Memory, the online index and a restart agree after players are changed from every side at once
+	 * @throws Exception
+	 */
+	@Test
+	public void churn() throws Exception
+	{
+		StressTest test = new StressTest( THREADS, PLAYERS, SECONDS );
+		test.churn();
+		assertEquals( "failed checks", 0, test.getFailures() );
+	}
+}
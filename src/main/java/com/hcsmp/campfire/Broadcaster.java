@@ -0,0 +1,137 @@
+package com.hcsmp.campfire;
+
+import java.util.ArrayList;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Collects expiry and termination announcements and sends them once per tick
+ * However many players expire or terminate together, each recipient gets one combined announcement
+ * @author bitdagger
+ *
+ */
+public class Broadcaster implements Runnable
+{
+	/**
+	 * Permission needed to receive announcements
+	 */
+	public static final String PERMISSION = "campfire.broadcasts";
+
+	/**
+	 * Most names listed in one announcement before it switches to a count
+	 */
+	private static final int MAX_NAMES = 5;
+
+	/**
+	 * Reference to the parent plugin
+	 */
+	private final Campfire _plugin;
+
+	/**
+	 * Players whose protection expired since the last announcement
+	 */
+	private final ArrayList<String> _expired;
+
+	/**
+	 * Players who terminated their protection since the last announcement
+	 */
+	private final ArrayList<String> _terminated;
+
+	/**
+	 * Whether an announcement is scheduled for the next tick
+	 */
+	private boolean _scheduled;
+
+	/**
+	 * Constructor
+	 * @param plugin Parent plugin
+	 */
+	public Broadcaster( Campfire plugin )
+	{
+		this._plugin = plugin;
+		this._expired = new ArrayList<String>();
+		this._terminated = new ArrayList<String>();
+	}
+
+	/**
+	 * Announce that a player's protection expired
+	 * @param name Player name
+	 */
+	public void expired( String name )
+	{
+		this.queue( this._expired, name );
+	}
+
+	/**
+	 * Announce that a player terminated their protection
+	 * @param name Player name
+	 */
+	public void terminated( String name )
+	{
+		this.queue( this._terminated, name );
+	}
+
+	/**
+	 * Scheduled announcement
+	 */
+	public void run()
+	{
+		this._scheduled = false;
+		this.flush();
+	}
+
+	/**
+	 * Send everything collected so far
+	 */
+	public void flush()
+	{
+		if ( this._expired.isEmpty() && this._terminated.isEmpty() ) return;
+
+		//-- Render the combined announcement once for everyone
+		Messages messages = this._plugin.getMessages();
+		String[] expired = Broadcaster.render( messages, Message.EXPIRED_BROADCAST, Message.EXPIRED_BROADCAST_MANY, this._expired );
+		String[] terminated = Broadcaster.render( messages, Message.TERMINATED_BROADCAST, Message.TERMINATED_BROADCAST_MANY, this._terminated );
+		String[] lines = new String[expired.length + terminated.length];
+		System.arraycopy( expired, 0, lines, 0, expired.length );
+		System.arraycopy( terminated, 0, lines, expired.length, terminated.length );
+		this._expired.clear();
+		this._terminated.clear();
+
+		//-- Send it
+		for ( Player player : this._plugin.getServer().getOnlinePlayers() )
+		{
+			if ( player.hasPermission( PERMISSION ) ) player.sendMessage( lines );
+		}
+	}
+
+	/**
+	 * Add a name to an announcement, scheduling it if it's the first
+	 * @param names Names of the announcement
+	 * @param name Player name
+	 */
+	private void queue( ArrayList<String> names, String name )
+	{
+		if ( !this._plugin.getSettings().getBroadcasts() ) return;
+		names.add( name );
+		if ( this._scheduled ) return;
+		this._scheduled = this._plugin.getServer().getScheduler().scheduleSyncDelayedTask( this._plugin, this ) != -1;
+		if ( !this._scheduled ) this.flush(); // Plugin is disabling, so send it straight away
+	}
+
+	/**
+	 * Render one part of the announcement
+	 * @param messages Message catalog
+	 * @param listed Message listing the names
+	 * @param counted Message giving how many there are
+	 * @param names Names
+	 * @return Lines, none if there are no names
+	 */
+	private static String[] render( Messages messages, Message listed, Message counted, ArrayList<String> names )
+	{
+		if ( names.isEmpty() ) return new String[0];
+		if ( names.size() > MAX_NAMES ) return messages.get( counted, names.size() );
+		StringBuilder list = new StringBuilder( names.get( 0 ) );
+		for ( int i = 1; i < names.size(); i++ ) list.append( ", " ).append( names.get( i ) );
+		return messages.get( listed, list.toString() );
+	}
+}
@@ -17,28 +17,71 @@ import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
  */
 public class Campfire extends JavaPlugin
 {
+	/**
+	 * Current config snapshot, replaced as a whole on reload
+	 */
+	private volatile Settings _settings;
+	
+	/**
+	 * Message catalog for the configured locale, replaced along with the settings
+	 */
+	private volatile Messages _messages;
+	
+	/**
+	 * Collects announcements to send once per tick
+	 */
+	private Broadcaster _broadcaster;
+	
+	/**
+	 * Rate limits blocked action messages
+	 */
+	private MessageThrottle _throttle;
+	
+	/**
+	 * Hot path metrics, kept across reloads
+	 */
+	private Metrics _metrics;
+	
 	/**
 	 * Data management class
 	 */
 	private DataManager _manager;
 	
+	/**
+	 * Event listener
+	 */
+	private EventListener _listener;
+	
 	/**
 	 * Holds the worker thread for updating player data
 	 */
 	private int _task;
 	
+	/**
+	 * Holds the task that hands player data to the background writer
+	 */
+	private int _saveTask;
+	
 	/**
 	 * Register events and command executor, load the data manager and prepare the plugin for use.
 	 */
 	public void onEnable()
 	{	
+		//-- Read the config and messages
+		this._settings = this.loadSettings();
+		this._messages = new Messages( this, this._settings.getLocale() );
+		this._broadcaster = new Broadcaster( this );
+		this._throttle = new MessageThrottle( this );
+		this._metrics = new Metrics( this._settings.getMetrics() );
+		this._metrics.register();
+		
 		//-- Create the data manager and load data from disk
-		this._manager = new DataManager( this );
+		this._manager = new DataManager( this, this._settings );
 		this._manager.loadPlayerData();
 				
 		//-- Check for WorldGuard if we need to use it
 		WorldGuardPlugin plugin = null;
-		if ( this.getConfig().getBoolean( "WorldGuardPause" ) )
+		if ( this._settings.getWorldGuardPause() )
 		{
 			Plugin p = this.getServer().getPluginManager().getPlugin( "WorldGuard" );
 			if ( p != null && p instanceof WorldGuardPlugin )
@@ -48,8 +91,9 @@ public class Campfire extends JavaPlugin
 			}
 		}
 		
-		//-- Register events and command executor
-		this.getServer().getPluginManager().registerEvents( new EventListener( this, plugin ), this );
+		//-- Register events and command executor, each handler is timed while metrics are on
+		this._listener = new EventListener( this, plugin );
+		this._metrics.registerEvents( this._listener, this );
 		this.getCommand("campfire").setExecutor( new CommandParser( this ) );
 		
 		//-- Start the task to update player data
@@ -58,6 +102,7 @@ public class Campfire extends JavaPlugin
         {
             public void run() { manager.update(); }
         }, 20L, 20L ); // Update every second if the clock is perfect
+        this.scheduleSave();
 	}
 
 	
@@ -66,11 +111,16 @@ public class Campfire extends JavaPlugin
 	 */
 	public void onDisable()
 	{
-		//-- Kill the update task
+		//-- Kill the update and save tasks
 		this.getServer().getScheduler().cancelTask( this._task );
+		this.getServer().getScheduler().cancelTask( this._saveTask );
 
-		//-- Save the existing player data
-		this._manager.savePlayerData();
+		//-- Send anything still waiting to be announced
+		this._broadcaster.flush();
+		
+		//-- Save the existing player data, waiting for it to hit the disk
+		this._manager.shutdown();
+		this._metrics.unregister();
 	}
 	
 	/**
@@ -78,23 +128,89 @@ public class Campfire extends JavaPlugin
 	 */
 	public void reload()
 	{
-		//-- Kill the update task
-		this.getServer().getScheduler().cancelTask( this._task );
-		
-		//-- Reload config
+		//-- Reload config, the new snapshot is only published once it is complete
 		this.reloadConfig();
+		Settings settings = this.loadSettings();
+		Messages messages = new Messages( this, settings.getLocale() );
+		this._settings = settings;
+		this._messages = messages;
+		this._metrics.setEnabled( settings.getMetrics() );
 		
-		//-- Reload the manager
-		this._manager.savePlayerData();
-		this._manager = new DataManager( this );
-		this._manager.loadPlayerData();
+		//-- Apply it around the data already in memory, nothing is saved or loaded
+		this._manager.reconfigure( settings );
+		this._listener.reconfigure( settings );
 		
-		//-- Start the task back up again
-        final DataManager manager = this._manager;
-        this._task = this.getServer().getScheduler().scheduleSyncRepeatingTask( this, new Runnable()
-        {
-            public void run() { manager.update(); }
-        }, 20L, 20L ); // Update every second if the clock is perfect
+		//-- Restart the save task in case its interval changed
+		this.getServer().getScheduler().cancelTask( this._saveTask );
+		this.scheduleSave();
+	}
+	
+	/**
+	 * Start the task that hands changed player data to the background writer
+	 */
+	private void scheduleSave()
+	{
+		long interval = this._settings.getSaveInterval() * 20L;
+		final DataManager manager = this._manager;
+		this._saveTask = this.getServer().getScheduler().scheduleSyncRepeatingTask( this, new Runnable()
+		{
+			public void run() { manager.flush(); }
+		}, interval, interval );
+	}
+	
+	/**
+	 * Fill in missing options and read the config into a new snapshot
+	 * @return Config snapshot
+	 */
+	private Settings loadSettings()
+	{
+		if ( Settings.addDefaults( this.getConfig() ) ) this.saveConfig();
+		return new Settings( this.getConfig() );
+	}
+	
+	/**
+	 * Get the current config snapshot
+	 * @return Config snapshot
+	 */
+	public Settings getSettings()
+	{
+		return this._settings;
+	}
+	
+	/**
+	 * Get the current message catalog
+	 * @return Message catalog
+	 */
+	public Messages getMessages()
+	{
+		return this._messages;
+	}
+	
+	/**
+	 * Get the announcement collector
+	 * @return Broadcaster
+	 */
+	public Broadcaster getBroadcaster()
+	{
+		return this._broadcaster;
+	}
+	
+	/**
+	 * Get the blocked action message throttle
+	 * @return Message throttle
+	 */
+	public MessageThrottle getThrottle()
+	{
+		return this._throttle;
+	}
+	
+	/**
+	 * Get the hot path metrics
+	 * @return Metrics
+	 */
+	public Metrics getMetrics()
+	{
+		return this._metrics;
 	}
 	
 	/**
@@ -105,4 +221,13 @@ public class Campfire extends JavaPlugin
 	{
 		return this._manager;
 	}
+	
+	/**
+	 * Get the reference to the event listener
+	 * @return Event listener
+	 */
+	public EventListener getListener()
+	{
+		return this._listener;
+	}
 }
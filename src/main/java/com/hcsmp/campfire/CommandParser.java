@@ -1,12 +1,11 @@
 package com.hcsmp.campfire;
 
 import java.util.ArrayList;
+import java.util.Map;
 
-import org.bukkit.ChatColor;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
-import org.bukkit.configuration.file.FileConfiguration;
 import org.bukkit.entity.Player;
 
 /**
@@ -56,6 +55,8 @@ public class CommandParser implements CommandExecutor
 		if ( args[0].equalsIgnoreCase( "terminate" ) ) return this.processTerminate( sender, args );
 		if ( args[0].equalsIgnoreCase( "confirm" ) ) return this.processConfirm( sender, args );
 		if ( args[0].equalsIgnoreCase( "timeleft" ) ) return this.processTimeleft( sender, args );
+		if ( args[0].equalsIgnoreCase( "regions" ) ) return this.processRegions( sender, args );
+		if ( args[0].equalsIgnoreCase( "stats" ) ) return this.processStats( sender, args );
 		
 		//-- Default to usage
 		return this.commandHelp( sender );
@@ -70,12 +71,10 @@ public class CommandParser implements CommandExecutor
 	private boolean about( CommandSender sender, String[] args )
 	{
 		//-- Send message
-		FileConfiguration config = this._plugin.getConfig();
-		sender.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "]" );
-		sender.sendMessage( "Campfire is a PvP protection plugin designed to help new players get on their feet. Players under protection " +
-				" cannot engage in PvP, open chests, or use items such as TNT and lava buckets. " +
-				"Protection lasts for " + ( config.getInt("Duration")/60 ) + "min" + ( config.getBoolean( "WorldGuardPause" ) ? " and pauses while in WorldGuard protected areas" : "" ) + ". " +
-				"You can end your protection early by using the 'campfire terminate' command, and you can check anyone's protection status using the 'campfire timeleft' command." );
+		Settings settings = this._plugin.getSettings();
+		Messages messages = this._plugin.getMessages();
+		String pause = settings.getWorldGuardPause() ? messages.get( Message.ABOUT_PAUSE )[0] : "";
+		messages.send( sender, Message.ABOUT, pause, settings.getDuration() / 60 );
 		return true;
 	}
 	
@@ -90,7 +89,7 @@ public class CommandParser implements CommandExecutor
 		//-- Check their permissions
 		if ( !sender.hasPermission( "campfire.reload" ) )
 		{
-			sender.sendMessage( ChatColor.RED + "You don't have permission to do that!" );
+			this._plugin.getMessages().send( sender, Message.NO_PERMISSION );
 			return true;
 		}
 		
@@ -98,7 +97,7 @@ public class CommandParser implements CommandExecutor
 		this._plugin.reload();
 		
 		//-- Send message
-		sender.sendMessage( "Reloaded!" );
+		this._plugin.getMessages().send( sender, Message.RELOADED );
 		return true;
 	}
 	
@@ -113,16 +112,14 @@ public class CommandParser implements CommandExecutor
 		//-- Check their permissions
 		if ( !sender.hasPermission( "campfire.reset" ) )
 		{
-			sender.sendMessage( ChatColor.RED + "You don't have permission to do that!" );
+			this._plugin.getMessages().send( sender, Message.NO_PERMISSION );
 			return true;
 		}
 		
 		//-- Check for additional variables
 		if ( args.length < 2 )
 		{
-			sender.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Usage: " );
-			sender.sendMessage( ChatColor.WHITE + "/campfire reset <player>" );
-			sender.sendMessage( ChatColor.GRAY + "Resets a player's protection" );
+			this._plugin.getMessages().send( sender, Message.RESET_USAGE );
 			return true;
 		}
 		
@@ -134,28 +131,46 @@ public class CommandParser implements CommandExecutor
 				if ( player.isOp() || player.hasPermission( "campfire.immune" ) )
 				{
 					this._plugin.getDataManager().removePlayer( args[1] );
-					sender.sendMessage( "Protection reset for " + args[1] + "!" );
+					this._plugin.getMessages().send( sender, Message.RESET_DONE, args[1] );
 					return true;
 				}
 			} catch( CampfireDataException ex ) {
-				sender.sendMessage( ChatColor.RED + "Failed to reset protection with exception: " + ex.getMessage() );
+				this._plugin.getMessages().send( sender, Message.RESET_FAILED, ex.getMessage() );
 				return true;
 			}
 		}
 		
-		//-- Reset target
+		//-- Reset target once their data is in memory, replying when it's done
+		final CommandSender admin = sender;
+		final String name = args[1];
+		this._plugin.getDataManager().whenLoaded( name, new Runnable()
+		{
+			public void run()
+			{
+				CommandParser.this.reset( admin, name );
+			}
+		} );
+		return true;
+	}
+	
+	/**
+	 * Reset a player and tell the sender and the player
+	 * @param sender Command sender
+	 * @param name Player to reset
+	 */
+	private void reset( CommandSender sender, String name )
+	{
 		try {
-			this._plugin.getDataManager().resetPlayer( args[1] );
-			sender.sendMessage( "Protection reset for " + args[1] + "!" );
+			this._plugin.getDataManager().resetPlayer( name );
+			this._plugin.getMessages().send( sender, Message.RESET_DONE, name );
 		} catch( CampfireDataException e ) {
-            sender.sendMessage( ChatColor.RED + "Failed to reset protection with exception: " + e.getMessage() );
-			return true;
+			this._plugin.getMessages().send( sender, Message.RESET_FAILED, e.getMessage() );
+			return;
 		}
 		
 		//-- Send the user a message if they are online
-		Player target = this._plugin.getServer().getPlayer( args[1] );
-		if ( target != null ) target.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + "Protection reset by an admin!" );
-		return true;
+		Player target = this._plugin.getServer().getPlayer( name );
+		if ( target != null ) this._plugin.getMessages().send( target, Message.RESET_NOTICE );
 	}
 	
 	/**
@@ -169,7 +184,7 @@ public class CommandParser implements CommandExecutor
 		//-- Check if the sender is a player
 		if ( !( sender instanceof Player ) )
 		{
-			sender.sendMessage( ChatColor.RED + "This command is only for in-game players!" );
+			this._plugin.getMessages().send( sender, Message.PLAYERS_ONLY );
 			return true;
 		}
 		
@@ -183,7 +198,7 @@ public class CommandParser implements CommandExecutor
 		try {
 			if ( !manager.playerProtected( name ) )
 			{
-				sender.sendMessage( ChatColor.RED + "Your protection has already expired!" );
+				this._plugin.getMessages().send( sender, Message.ALREADY_EXPIRED );
 				return true;
 			}
 		} catch( CampfireDataException ex ) {
@@ -192,8 +207,7 @@ public class CommandParser implements CommandExecutor
 		}
 		
 		//-- Show them the warning
-		sender.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + "You will be vulnerable to PvP if you " +
-		"end your protection. If you understand the risk, use '/campfire confirm' to proceed..." );
+		this._plugin.getMessages().send( sender, Message.TERMINATE_WARNING );
 		
 		//-- Flag them as having read the termination text
 		this._terminated.add( name );
@@ -211,7 +225,7 @@ public class CommandParser implements CommandExecutor
 		//-- Check if the sender is a player
 		if ( !( sender instanceof Player ) )
 		{
-			sender.sendMessage( ChatColor.RED + "This command is only for in-game players!" );
+			this._plugin.getMessages().send( sender, Message.PLAYERS_ONLY );
 			return true;
 		}
 		
@@ -225,17 +239,19 @@ public class CommandParser implements CommandExecutor
 		if ( !this._terminated.contains( name ) ) return true;
 		this._terminated.remove( name );
 		
-		//-- Terminate it and let everyone know
+		//-- Terminate it and let everyone know, unless it ran out since they were warned
 		try {
-			manager.terminate( name );
+			if ( !manager.terminate( name ) )
+			{
+				this._plugin.getMessages().send( sender, Message.ALREADY_EXPIRED );
+				return true;
+			}
 		} catch ( CampfireDataException ex ) {
 			ex.printStackTrace();
+			return true;
 		}
-		for ( Player player : this._plugin.getServer().getOnlinePlayers() )
-		{
-			player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + name + " terminated their protection!" );
-		}
-		sender.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] You are now vulnerable!" );
+		this._plugin.getBroadcaster().terminated( name );
+		this._plugin.getMessages().send( sender, Message.NOW_VULNERABLE );
 		return true;
 		
 	}
@@ -253,45 +269,131 @@ public class CommandParser implements CommandExecutor
 		if ( args.length < 2 ) target = sender.getName();
 		else target = args[1];
 		
-		// Get the time left for that player
+		// Get the time left for that player once their data is in memory
+		final CommandSender admin = sender;
+		final String name = target;
+		this._plugin.getDataManager().whenLoaded( name, new Runnable()
+		{
+			public void run()
+			{
+				CommandParser.this.timeleft( admin, name );
+			}
+		} );
+		return true;
+	}
+	
+	/**
+	 * Tell the sender how much protection time a player has left
+	 * @param sender Command sender
+	 * @param target Player to look up
+	 */
+	private void timeleft( CommandSender sender, String target )
+	{
 		try {
 			int timeleft = this._plugin.getDataManager().getPlayerTimeLeft( target );
 			if ( timeleft == 0 )
 			{
-				sender.sendMessage( target + ": Protection expired!" );
-				return true;
+				this._plugin.getMessages().send( sender, Message.TIMELEFT_EXPIRED, target );
+				return;
 			}
-			sender.sendMessage( target + ": " + String.format("%02d", Math.round(timeleft/60.0)) + " min of protection left!" );
+			this._plugin.getMessages().send( sender, Message.TIMELEFT, target, Math.round( timeleft / 60.0 ) );
 		} catch ( CampfireDataException e ) {
-			sender.sendMessage( ChatColor.RED + e.getMessage() );
+			this._plugin.getMessages().send( sender, Message.ERROR, e.getMessage() );
+		}
+	}
+	
+	/**
+	 * Process the regions command
+	 * @param sender Command sender
+	 * @param args Arguments
+	 * @return
+	 */
+	private boolean processRegions( CommandSender sender, String[] args )
+	{
+		//-- Check their permissions
+		if ( !sender.hasPermission( "campfire.reload" ) )
+		{
+			this._plugin.getMessages().send( sender, Message.NO_PERMISSION );
+			return true;
 		}
-		return true;
 		
+		//-- Show how well each world's chunk map is doing
+		Messages messages = this._plugin.getMessages();
+		messages.send( sender, Message.REGIONS_HEADER );
+		Map<String,RegionMap> maps = this._plugin.getListener().getRegionMaps();
+		if ( maps.isEmpty() ) messages.send( sender, Message.REGIONS_NONE );
+		for ( Map.Entry<String,RegionMap> entry : maps.entrySet() )
+		{
+			RegionMap map = entry.getValue();
+			long lookups = map.getHits() + map.getResolves() + map.getMisses();
+			sender.sendMessage( messages.getAll( Message.REGIONS_WORLD, entry.getKey(), String.valueOf( map.getUniformChunks() ), String.valueOf( map.getMixedChunks() ),
+					String.valueOf( lookups ), String.format( "%.1f", lookups == 0 ? 0.0 : 100.0 * map.getHits() / lookups ), String.valueOf( map.getResolves() ),
+					String.valueOf( map.getMisses() ), map.isBuilding() ? messages.get( Message.REGIONS_BUILDING )[0] : "" ) );
+		}
+		return true;
 	}
 	
 	/**
-	 * Send the default command usage to the sender
+	 * Process the stats command
 	 * @param sender Command sender
+	 * @param args Arguments
+	 * @return
 	 */
-	private boolean commandHelp( CommandSender sender )
+	private boolean processStats( CommandSender sender, String[] args )
 	{
-		sender.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Usage: " );
-		sender.sendMessage( ChatColor.WHITE + "/campfire about" );
-		sender.sendMessage( ChatColor.GRAY + "About this plugin" );
-		sender.sendMessage( ChatColor.WHITE + "/campfire terminate" );
-		sender.sendMessage( ChatColor.GRAY + "Removes your protection early" );
-		sender.sendMessage( ChatColor.WHITE + "/campfire timeleft [player]" );
-		sender.sendMessage( ChatColor.GRAY + "Gives the duration left for a player's protection" );
-		if ( sender.hasPermission( "campfire.reset" ) )
+		//-- Check their permissions
+		if ( !sender.hasPermission( "campfire.reload" ) )
 		{
-			sender.sendMessage( ChatColor.WHITE + "/campfire reset <player> " );
-			sender.sendMessage( ChatColor.GRAY + "Resets a player's protection status" );
+			this._plugin.getMessages().send( sender, Message.NO_PERMISSION );
+			return true;
 		}
-		if ( sender.hasPermission( "campfire.reload" ) )
+		
+		//-- Start from scratch if asked to
+		Messages messages = this._plugin.getMessages();
+		Metrics metrics = this._plugin.getMetrics();
+		if ( args.length > 1 && args[1].equalsIgnoreCase( "reset" ) )
 		{
-			sender.sendMessage( ChatColor.WHITE + "/campfire reload" );
-			sender.sendMessage( ChatColor.GRAY + "Clean reload of the plugin" );
+			metrics.reset();
+			messages.send( sender, Message.STATS_RESET );
+			return true;
 		}
+		
+		//-- Show every latency that has something recorded, then the caches and player sets
+		messages.send( sender, Message.STATS_HEADER );
+		if ( !metrics.isEnabled() ) messages.send( sender, Message.STATS_DISABLED );
+		for ( LatencyHistogram latency : metrics.getLatencies().values() )
+		{
+			long count = latency.getCount();
+			if ( count == 0 ) continue;
+			sender.sendMessage( messages.getAll( Message.STATS_LATENCY, latency.getName(), String.valueOf( count ), String.format( "%.1f", latency.getMean() ),
+					String.format( "%.1f", latency.getP50() ), String.format( "%.1f", latency.getP99() ), String.format( "%.1f", latency.getMax() ) ) );
+		}
+		Map<String,Long> counters = metrics.getCounters();
+		for ( String cache : new String[] { "immunity", "playerdata", "regions" } )
+		{
+			Long hits = counters.get( cache + ".hits" );
+			Long misses = counters.get( cache + ".misses" );
+			if ( hits == null || misses == null || hits + misses == 0 ) continue;
+			sender.sendMessage( messages.getAll( Message.STATS_CACHE, cache, String.valueOf( hits ), String.valueOf( misses ),
+					String.format( "%.1f", 100.0 * hits / ( hits + misses ) ) ) );
+		}
+		Map<String,Long> sizes = metrics.getSizes();
+		sender.sendMessage( messages.getAll( Message.STATS_SIZES, String.valueOf( sizes.get( "known" ) ), String.valueOf( sizes.get( "archived" ) ),
+				String.valueOf( sizes.get( "loaded" ) ),
+				String.valueOf( sizes.get( "tracked" ) ), String.valueOf( sizes.get( "protected" ) ) ) );
+		return true;
+	}
+	
+	/**
+	 * Send the default command usage to the sender
+	 * @param sender Command sender
+	 */
+	private boolean commandHelp( CommandSender sender )
+	{
+		Messages messages = this._plugin.getMessages();
+		messages.send( sender, Message.HELP );
+		if ( sender.hasPermission( "campfire.reset" ) ) messages.send( sender, Message.HELP_RESET );
+		if ( sender.hasPermission( "campfire.reload" ) ) messages.send( sender, Message.HELP_RELOAD );
 		return true;
 	}
 }
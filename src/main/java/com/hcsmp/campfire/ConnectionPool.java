@@ -0,0 +1,125 @@
+package com.hcsmp.campfire;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Small fixed-size JDBC connection pool
+ * Connections are opened as they are needed, up to the pool size, and reused after that
+ * @author bitdagger
+ *
+ */
+public class ConnectionPool
+{
+	/**
+	 * JDBC url
+	 */
+	private final String _url;
+
+	/**
+	 * Database user
+	 */
+	private final String _user;
+
+	/**
+	 * Database password
+	 */
+	private final String _password;
+
+	/**
+	 * Idle connections
+	 */
+	private final ArrayBlockingQueue<Connection> _idle;
+
+	/**
+	 * Permits for borrowing a connection, one per pooled connection
+	 */
+	private final Semaphore _permits;
+
+	/**
+	 * Constructor
+	 * @param url JDBC url
+	 * @param user Database user
+	 * @param password Database password
+	 * @param size Maximum number of open connections
+	 */
+	public ConnectionPool( String url, String user, String password, int size )
+	{
+		this._url = url;
+		this._user = user;
+		this._password = password;
+		this._idle = new ArrayBlockingQueue<Connection>( Math.max( 1, size ) );
+		this._permits = new Semaphore( Math.max( 1, size ) );
+	}
+
+	/**
+	 * Borrow a connection, waiting for one to be released if they are all in use
+	 * @param timeout Time in milliseconds to wait
+	 * @return Open connection, which must be handed back with release()
+	 * @throws SQLException
+	 */
+	public Connection borrow( long timeout ) throws SQLException
+	{
+		try {
+			if ( !this._permits.tryAcquire( timeout, TimeUnit.MILLISECONDS ) ) throw new SQLException( "Timed out waiting for a database connection" );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new SQLException( "Interrupted waiting for a database connection" );
+		}
+
+		try {
+			Connection connection;
+			while ( ( connection = this._idle.poll() ) != null )
+			{
+				if ( !connection.isClosed() ) return connection;
+			}
+			return DriverManager.getConnection( this._url, this._user, this._password );
+		} catch ( SQLException e ) {
+			this._permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Hand a borrowed connection back to the pool
+	 * @param connection Connection to release
+	 */
+	public void release( Connection connection )
+	{
+		if ( connection == null ) return;
+		try {
+			if ( !connection.getAutoCommit() ) connection.rollback(); // Don't hand out half finished transactions
+			connection.setAutoCommit( true );
+			if ( !this._idle.offer( connection ) ) connection.close();
+		} catch ( SQLException e ) { // Broken, don't reuse it
+			ConnectionPool.closeQuietly( connection );
+		} finally {
+			this._permits.release();
+		}
+	}
+
+	/**
+	 * Close every idle connection
+	 */
+	public void close()
+	{
+		Connection connection;
+		while ( ( connection = this._idle.poll() ) != null ) ConnectionPool.closeQuietly( connection );
+	}
+
+	/**
+	 * Close a connection, ignoring errors
+	 * @param connection Connection to close
+	 */
+	private static void closeQuietly( Connection connection )
+	{
+		try {
+			connection.close();
+		} catch ( SQLException e ) {
+		}
+	}
+}
@@ -0,0 +1,411 @@
+package com.hcsmp.campfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Player data snapshot file
+ * A versioned header followed by fixed-width PlayerRecords, read and written through NIO channels. Every player
+ * keeps the same record number (slot) for as long as they exist, so single records can be read on demand.
+ * A file can hold a range of slots starting anywhere, as the shards of a DataShards do.
+ * Files written by older versions with Java serialization are still read, and are converted on load.
+ * @author bitdagger
+ *
+ */
+public class DataFile
+{
+	/**
+	 * Snapshot file identifier, "CFPD"
+	 */
+	private static final int MAGIC = 0x43465044;
+
+	/**
+	 * Snapshot format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the file header in bytes: magic, version, slot count, reserved
+	 */
+	private static final int HEADER_SIZE = 16;
+
+	/**
+	 * Offset of the slot count in the header
+	 */
+	private static final int COUNT_OFFSET = 8;
+
+	/**
+	 * First two bytes of a Java serialization stream
+	 */
+	private static final short SERIALIZED_MAGIC = (short) 0xACED;
+
+	/**
+	 * Size of the buffer used for reading and writing records
+	 */
+	private static final int BUFFER_SIZE = PlayerRecord.SIZE * 2048;
+
+	/**
+	 * Open file, null if there is no snapshot yet
+	 */
+	private final FileInputStream _in;
+
+	/**
+	 * Whole file mapped into memory, null when not memory-mapping
+	 */
+	private final ByteBuffer _map;
+
+	/**
+	 * Scratch buffer for reading a single record
+	 */
+	private final ByteBuffer _record;
+
+	/**
+	 * Open a snapshot for reading single records
+	 * @param file Snapshot file
+	 * @param map Memory-map the file instead of reading records through a buffer
+	 * @throws IOException
+	 */
+	public DataFile( File file, boolean map ) throws IOException
+	{
+		FileInputStream in = null;
+		try {
+			in = new FileInputStream( file );
+		} catch ( FileNotFoundException e ) { // No snapshot yet, every lookup misses
+		}
+		this._in = in;
+		this._map = ( in != null && map ) ? in.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, in.getChannel().size() ) : null;
+		this._record = ByteBuffer.allocate( PlayerRecord.SIZE );
+	}
+
+	/**
+	 * Read a single player's data
+	 * @param slot Record number
+	 * @return Player data, null if the record is missing or unused
+	 * @throws IOException
+	 */
+	public PlayerData read( int slot ) throws IOException
+	{
+		if ( this._in == null ) return null;
+		long offset = HEADER_SIZE + (long) slot * PlayerRecord.SIZE;
+		ByteBuffer buf;
+		if ( this._map != null )
+		{
+			if ( offset + PlayerRecord.SIZE > this._map.limit() ) return null;
+			buf = this._map.duplicate();
+			buf.position( (int) offset );
+		} else {
+			buf = this._record;
+			buf.clear();
+			FileChannel channel = this._in.getChannel();
+			while ( buf.hasRemaining() )
+			{
+				if ( channel.read( buf, offset + buf.position() ) < 0 ) return null;
+			}
+			buf.flip();
+		}
+		if ( PlayerRecord.readOp( buf ) != PlayerRecord.PUT ) return null;
+		return PlayerRecord.read( buf );
+	}
+
+	/**
+	 * Close the snapshot
+	 */
+	public void close()
+	{
+		if ( this._in == null ) return;
+		try {
+			this._in.close();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Read the name and record number of every player in a snapshot, without loading their data
+	 * @param file File to read from
+	 * @param first Slot of the first record in the file
+	 * @param index Filled with record numbers keyed by lowercase name, left alone if there is no snapshot yet
+	 * @param expired Filled instead of the index for players whose protection is over
+	 * @throws IOException
+	 */
+	public static void readIndex( File file, int first, Map<String,Integer> index, Map<String,Integer> expired ) throws IOException
+	{
+		FileInputStream in;
+		try {
+			in = new FileInputStream( file );
+		} catch ( FileNotFoundException e ) { // Ignore it, just means we haven't saved yet
+			return;
+		}
+
+		try {
+			FileChannel channel = in.getChannel();
+			DataFile.readHeader( channel );
+
+			ByteBuffer buf = ByteBuffer.allocateDirect( BUFFER_SIZE );
+			byte[] name = new byte[PlayerRecord.NAME_SIZE];
+			int slot = first;
+			while ( channel.read( buf ) >= 0 || buf.position() > 0 )
+			{
+				buf.flip();
+				if ( buf.remaining() < PlayerRecord.SIZE ) break;
+				while ( buf.remaining() >= PlayerRecord.SIZE )
+				{
+					if ( PlayerRecord.readOp( buf ) == PlayerRecord.PUT )
+					{
+						boolean isProtected = ( buf.get( buf.position() + 1 ) & PlayerRecord.FLAG_PROTECTED ) != 0;
+						( isProtected ? index : expired ).put( PlayerRecord.readName( buf, name ), slot );
+					}
+					buf.position( buf.position() + PlayerRecord.SIZE );
+					slot++;
+				}
+				buf.compact();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Check whether a file was written with Java serialization by an older version
+	 * @param file File to check
+	 * @return True if the file is a Java serialization stream
+	 * @throws IOException
+	 */
+	public static boolean isSerialized( File file ) throws IOException
+	{
+		FileInputStream in;
+		try {
+			in = new FileInputStream( file );
+		} catch ( FileNotFoundException e ) {
+			return false;
+		}
+		try {
+			int b0 = in.read();
+			int b1 = in.read();
+			return ( short ) ( ( b0 << 8 ) | b1 ) == SERIALIZED_MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read a snapshot written with Java serialization by older versions
+	 * @param file File to read from
+	 * @return Player data
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static HashMap<String,PlayerData> readSerialized( File file ) throws IOException
+	{
+		ObjectInputStream ois = new ObjectInputStream( new FileInputStream( file ) );
+		try {
+			return ( HashMap<String,PlayerData> ) ois.readObject();
+		} catch ( ClassNotFoundException e ) {
+			throw new IOException( "Unreadable player data: " + e.getMessage() );
+		} finally {
+			ois.close();
+		}
+	}
+
+	/**
+	 * Write a complete snapshot to disk, numbering the records in iteration order
+	 * Data goes to a temporary file first so a failed write never leaves a truncated file behind
+	 * @param file File to write to
+	 * @param data Player data, each entry's slot is updated to its record number
+	 * @throws IOException
+	 */
+	public static void write( File file, HashMap<String,PlayerData> data ) throws IOException
+	{
+		File temp = new File( file.getPath() + ".tmp" );
+		FileOutputStream out = new FileOutputStream( temp );
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect( BUFFER_SIZE );
+
+			//-- Header, the slot count is filled in once we know how many fit
+			buf.putInt( MAGIC ).putInt( VERSION ).putInt( 0 ).putInt( 0 );
+
+			//-- Records
+			int count = 0;
+			for ( Map.Entry<String,PlayerData> entry : data.entrySet() )
+			{
+				if ( buf.remaining() < PlayerRecord.SIZE ) DataFile.drain( channel, buf );
+				entry.getValue().setSlot( count );
+				if ( PlayerRecord.put( buf, entry.getKey(), entry.getValue() ) ) count++;
+				else System.out.println( "[Campfire] Name too long to save: " + entry.getKey() );
+			}
+			DataFile.drain( channel, buf );
+
+			//-- Go back and fill in the slot count
+			buf.putInt( count ).flip();
+			channel.write( buf, COUNT_OFFSET );
+			channel.force( false );
+		} finally {
+			out.close();
+		}
+		DataFile.replace( temp, file );
+	}
+
+	/**
+	 * Fold journaled records into a snapshot
+	 * The snapshot is copied and every record in its range is written over its slot in the copy, so records that
+	 * didn't change are never decoded
+	 * @param file Snapshot file
+	 * @param records Journaled records, the buffer itself is left alone
+	 * @param first Slot of the first record in the file
+	 * @param count Number of slots the file holds, records outside them are skipped
+	 * @throws IOException
+	 */
+	public static void fold( File file, ByteBuffer records, int first, int count ) throws IOException
+	{
+		File temp = new File( file.getPath() + ".tmp" );
+		RandomAccessFile out = new RandomAccessFile( temp, "rw" );
+		try {
+			FileChannel channel = out.getChannel();
+			channel.truncate( 0 );
+
+			//-- Start from a copy of the current snapshot
+			int slots = 0;
+			if ( file.exists() )
+			{
+				FileInputStream in = new FileInputStream( file );
+				try {
+					FileChannel source = in.getChannel();
+					slots = DataFile.readHeader( source );
+					long size = source.size();
+					long copied = 0;
+					while ( copied < size ) copied += source.transferTo( copied, size - copied, channel );
+				} finally {
+					in.close();
+				}
+			} else {
+				ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+				header.putInt( MAGIC ).putInt( VERSION ).putInt( 0 ).putInt( 0 ).flip();
+				while ( header.hasRemaining() ) channel.write( header );
+			}
+
+			//-- Write every journaled record in range over its slot, removals leave an unused slot
+			ByteBuffer buf = records.duplicate();
+			byte[] empty = new byte[PlayerRecord.SIZE];
+			while ( buf.remaining() >= PlayerRecord.SIZE )
+			{
+				int slot = buf.getInt( buf.position() + PlayerRecord.SLOT_OFFSET ) - first;
+				if ( slot >= 0 && slot < count )
+				{
+					ByteBuffer record = ( PlayerRecord.readOp( buf ) == PlayerRecord.PUT ) ? buf.slice() : ByteBuffer.wrap( empty );
+					record.limit( PlayerRecord.SIZE );
+					long offset = HEADER_SIZE + (long) slot * PlayerRecord.SIZE;
+					while ( record.hasRemaining() ) channel.write( record, offset + record.position() );
+					if ( slot >= slots ) slots = slot + 1;
+				}
+				buf.position( buf.position() + PlayerRecord.SIZE );
+			}
+
+			//-- Update the slot count
+			ByteBuffer header = ByteBuffer.allocate( 4 );
+			header.putInt( slots ).flip();
+			channel.write( header, COUNT_OFFSET );
+			channel.force( false );
+		} finally {
+			out.close();
+		}
+		DataFile.replace( temp, file );
+	}
+
+	/**
+	 * Copy a range of records out of a snapshot into a snapshot of their own
+	 * The records keep their slots, so the new file starts at the first slot copied
+	 * @param file Snapshot file to copy from
+	 * @param first Slot of the first record to copy
+	 * @param count Most records to copy
+	 * @param to File to write, nothing is written if the snapshot has no records from the first slot on
+	 * @return Number of records copied
+	 * @throws IOException
+	 */
+	public static int extract( File file, int first, int count, File to ) throws IOException
+	{
+		FileInputStream in = new FileInputStream( file );
+		try {
+			FileChannel source = in.getChannel();
+			DataFile.readHeader( source );
+			long start = HEADER_SIZE + (long) first * PlayerRecord.SIZE;
+			int records = (int) Math.min( count, Math.max( 0, ( source.size() - start ) / PlayerRecord.SIZE ) );
+			if ( records == 0 ) return 0;
+
+			File temp = new File( to.getPath() + ".tmp" );
+			FileOutputStream out = new FileOutputStream( temp );
+			try {
+				FileChannel channel = out.getChannel();
+				ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+				header.putInt( MAGIC ).putInt( VERSION ).putInt( records ).putInt( 0 ).flip();
+				while ( header.hasRemaining() ) channel.write( header );
+				long size = (long) records * PlayerRecord.SIZE;
+				long copied = 0;
+				while ( copied < size ) copied += source.transferTo( start + copied, size - copied, channel );
+				channel.force( false );
+			} finally {
+				out.close();
+			}
+			DataFile.replace( temp, to );
+			return records;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Check a snapshot's header
+	 * Leaves the channel positioned after the header
+	 * @param channel Channel to read from
+	 * @return Number of slots in the snapshot
+	 * @throws IOException
+	 */
+	private static int readHeader( FileChannel channel ) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		channel.position( 0 );
+		while ( header.hasRemaining() && channel.read( header ) >= 0 );
+		header.flip();
+		if ( header.remaining() < HEADER_SIZE || header.getInt() != MAGIC ) throw new IOException( "Not a Campfire data file" );
+		int version = header.getInt();
+		if ( version != VERSION ) throw new IOException( "Unsupported data file version " + version );
+		return header.getInt();
+	}
+
+	/**
+	 * Swap a freshly written file in
+	 * @param temp Newly written file
+	 * @param file File to replace
+	 * @throws IOException
+	 */
+	private static void replace( File temp, File file ) throws IOException
+	{
+		if ( !temp.renameTo( file ) )
+		{
+			file.delete();
+			if ( !temp.renameTo( file ) ) throw new IOException( "Unable to replace " + file.getPath() );
+		}
+	}
+
+	/**
+	 * Write out everything in a buffer and clear it
+	 * @param channel Channel to write to
+	 * @param buf Buffer to drain
+	 * @throws IOException
+	 */
+	private static void drain( FileChannel channel, ByteBuffer buf ) throws IOException
+	{
+		buf.flip();
+		while ( buf.hasRemaining() ) channel.write( buf );
+		buf.clear();
+	}
+}
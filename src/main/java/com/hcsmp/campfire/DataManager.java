@@ -1,179 +1,883 @@
 package com.hcsmp.campfire;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.bukkit.ChatColor;
-import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.Location;
 import org.bukkit.entity.Player;
 
 /**
  * Data manager 
+ * Lookups by name, terminate, reset and remove are safe from any thread: the name keyed maps are concurrent,
+ * each player's clock is changed by compare and set, and loading, creating, resetting and removing a player
+ * hold one of a set of locks striped by name. The UUID keyed maps, the timer wheel and the FireRadius grid
+ * belong to the main thread, so work on them from other threads is handed to the scheduler
  * @author bitdagger
  *
  */
 public class DataManager
 {
+	/**
+	 * Protection status of a player who isn't in the data set
+	 */
+	public static final int UNKNOWN = 0;
+	
+	/**
+	 * Protection status of a player whose protection has expired or been terminated
+	 */
+	public static final int UNPROTECTED = 1;
+	
+	/**
+	 * Protection status of a player under protection
+	 */
+	public static final int PROTECTED = 2;
+	
+	/**
+	 * Number of locks player names are striped over, a power of two
+	 */
+	private static final int LOCKS = 64;
+	
+	/**
+	 * Fewest retired players worth rebuilding the archive for
+	 */
+	private static final int ARCHIVE_MIN = 256;
+	
 	/**
 	 * Reference to the parent plugin
 	 */
 	private Campfire _plugin;
 	
 	/**
-	 * Actual player data - Keyed by lowercase first name
-	 * Saved to disk
+	 * Config snapshot in use, replaced on reload
+	 */
+	private volatile Settings _settings;
+	
+	/**
+	 * Player data currently held in memory - Keyed by lowercase first name
+	 * Everyone else is loaded from disk when they are looked up
+	 */
+	private ConcurrentHashMap<String,PlayerData> _playerData; 
+	
+	/**
+	 * Data of online players who are being tracked - Keyed by UUID
+	 * Event handlers look players up here, the name keyed maps are for commands and offline players
+	 */
+	private UuidMap<PlayerData> _online;
+	
+	/**
+	 * Protected, living players being tracked, for the FireRadius check - Only kept when FireRadius is on
 	 */
-	private HashMap<String,PlayerData> _playerData; 
+	private PlayerGrid _grid;
+	
+	/**
+	 * Resolved immunity of online players - Keyed by UUID
+	 * OP status or the campfire.immune permission, filled on join and refreshed when it may have changed
+	 */
+	private UuidMap<Boolean> _immune;
+	
+	/**
+	 * Number of updates between immunity refreshes for everyone online
+	 */
+	private int _immunityRefresh;
+	
+	/**
+	 * Updates left until the next immunity refresh
+	 */
+	private int _untilRefresh;
+	
+	/**
+	 * Record number in the data file of every known player - Keyed by lowercase first name
+	 * Players whose protection is over are archived compactly
+	 */
+	private PlayerIndex _index;
+	
+	/**
+	 * Is the index archiving retired players right now
+	 */
+	private AtomicBoolean _archiving;
+	
+	/**
+	 * Players whose data is being loaded off the main thread
+	 */
+	private ConcurrentHashMap<String,Boolean> _loading;
+	
+	/**
+	 * Players who joined before their data was in memory, tracked once it is loaded - Main thread only
+	 */
+	private HashMap<String,Player> _joining;
+	
+	/**
+	 * Record number the next new player gets
+	 */
+	private AtomicInteger _nextSlot;
+	
+	/**
+	 * Locks for loading, creating, resetting and removing a player - Picked by name
+	 */
+	private Object[] _locks;
+	
+	/**
+	 * Thread the plugin was enabled on, the only one that may touch the main thread structures
+	 */
+	private Thread _mainThread;
+	
+	/**
+	 * Storage backend for the player data
+	 */
+	private PlayerStore _store;
+	
+	/**
+	 * Journal records that haven't been handed to the store yet
+	 * Also the lock for the batch number and the record buffer
+	 */
+	private ByteArrayOutputStream _pending;
+	
+	/**
+	 * Number of the batch the pending journal records will be handed over in
+	 */
+	private long _batch;
+	
+	/**
+	 * Scratch buffer for encoding a single journal record
+	 */
+	private ByteBuffer _record;
+	
+	/**
+	 * Time in milliseconds an offline player's data stays in memory after it was last looked up
+	 */
+	private long _evictAfter;
+	
+	/**
+	 * Notifications and expiries, only online players with their timer running are scheduled
+	 */
+	private TimingWheel<Player> _wheel;
+	
+	/**
+	 * Scratch list of players whose timer is due
+	 */
+	private ArrayList<Player> _due;
+	
+	/**
+	 * Number of tracked online players who are protected, for the stats - Main thread only
+	 */
+	private int _protectedOnline;
+	
+	/**
+	 * Hot path metrics
+	 */
+	private Metrics _metrics;
+	
+	/**
+	 * Latencies of update(), flush(), shutdown(), loadPlayerData() and loading a single player from the store
+	 */
+	private LatencyHistogram _updateLatency, _flushLatency, _shutdownLatency, _loadLatency, _storeLoadLatency;
+	
+	/**
+	 * Immunity lookups answered from the cache, and ones that had to ask the permission system
+	 */
+	private StripedCounter _immunityHits, _immunityMisses;
+	
+	/**
+	 * Player data lookups answered from memory, and ones that had to load from the store
+	 */
+	private StripedCounter _dataHits, _dataMisses;
 
 	/**
 	 * Constructor
-	 * Register the reference to the parent plugin and do a quick integrity check on the config file
+	 * Register the reference to the parent plugin and the config it runs with
 	 * @param plugin Parent plugin
+	 * @param settings Config snapshot
 	 */
-	public DataManager( Campfire plugin )
+	public DataManager( Campfire plugin, Settings settings )
 	{
-		//-- Config check
-	    FileConfiguration config = plugin.getConfig();
-		if ( !config.contains( "Duration" ) ) config.set( "Duration", 60 * 60 );
-		if ( !config.contains( "ResetOnDeath" ) ) config.set( "ResetOnDeath", true );
-		if ( !config.contains( "WorldGuardPause" ) ) config.set( "WorldGuardPause", true );
-		if ( !config.contains( "FireRadius" ) ) config.set( "FireRadius", 5 );
-		plugin.saveConfig();
-		
-		//-- Save reference 
+		//-- Save references 
 		this._plugin = plugin;
+		this._settings = settings;
+		
+		//-- Create the storage backend, it is opened once the data is loaded
+		if ( settings.useJdbc() )
+		{
+			this._store = new JdbcStore( settings.getDatabaseUrl(), settings.getDatabaseUser(), settings.getDatabasePassword(),
+					settings.getDatabasePoolSize(), settings.getSaveQueueSize() );
+		} else {
+			File folder = plugin.getDataFolder();
+			this._store = new FileStore( new File( folder, "players.dat" ), new File( folder, "players" ), new File( folder, "players.journal" ), settings.getJournalLimit(),
+					settings.getSaveQueueSize(), settings.getMemoryMapData() );
+		}
+		this._pending = new ByteArrayOutputStream();
+		this._batch = 1;
+		this._record = ByteBuffer.allocate( PlayerRecord.SIZE );
+		this._evictAfter = settings.getEvictAfter();
+		this._wheel = new TimingWheel<Player>( 1000, System.currentTimeMillis() );
+		this._due = new ArrayList<Player>();
+		this._immunityRefresh = settings.getImmunityRefresh();
+		this._untilRefresh = this._immunityRefresh;
+		this._nextSlot = new AtomicInteger();
+		this._archiving = new AtomicBoolean();
+		this._loading = new ConcurrentHashMap<String,Boolean>();
+		this._joining = new HashMap<String,Player>();
+		this._locks = new Object[LOCKS];
+		for ( int i = 0; i < LOCKS; i++ ) this._locks[i] = new Object();
+		this._mainThread = Thread.currentThread();
+		
+		//-- Look up everything that is recorded once, so recording is cheap
+		Metrics metrics = plugin.getMetrics();
+		this._metrics = metrics;
+		this._updateLatency = metrics.latency( "update" );
+		this._flushLatency = metrics.latency( "flush" );
+		this._shutdownLatency = metrics.latency( "shutdown" );
+		this._loadLatency = metrics.latency( "loadPlayerData" );
+		this._storeLoadLatency = metrics.latency( "storeLoad" );
+		this._immunityHits = metrics.counter( "immunity.hits" );
+		this._immunityMisses = metrics.counter( "immunity.misses" );
+		this._dataHits = metrics.counter( "playerdata.hits" );
+		this._dataMisses = metrics.counter( "playerdata.misses" );
 	}
 	
 	/**
-	 * Load player data from disk
+	 * Load the player index from the store
+	 * Player data itself is only loaded when a player is looked up
 	 */
-	@SuppressWarnings("unchecked")
 	public void loadPlayerData()
 	{
-		//-- Create the object
-		this._playerData = new HashMap<String,PlayerData>();
+		long started = this._metrics.start();
+		
+		//-- Create the objects
+		this._playerData = new ConcurrentHashMap<String,PlayerData>();
+		this._online = new UuidMap<PlayerData>();
+		this._immune = new UuidMap<Boolean>();
+		this._grid = this._settings.getFireRadius() > 0 ? new PlayerGrid() : null;
 		
-		//-- Try to load from disk
+		//-- Read the index, anything the store hasn't persisted yet stays in memory until it has
+		HashMap<String,PlayerData> loaded = new HashMap<String,PlayerData>();
+		HashMap<String,Integer> index = new HashMap<String,Integer>();
+		HashMap<String,Integer> expired = new HashMap<String,Integer>();
 		try {
-			ObjectInputStream ois = new ObjectInputStream( new FileInputStream( this._plugin.getDataFolder() + "/players.dat" ) );
-			this._playerData = ( HashMap<String,PlayerData> ) ois.readObject();
-			ois.close();
-		} catch ( FileNotFoundException e ) { // Ignore it, just means we haven't saved yet
-		} catch ( Exception e ) {
+			this._store.open( loaded, index, expired );
+		} catch ( IOException e ) {
 			e.printStackTrace();
 		}
+		for ( PlayerData data : loaded.values() ) data.setBatch( this._batch );
+		int nextSlot = 0;
+		for ( Integer slot : index.values() )
+		{
+			if ( slot >= nextSlot ) nextSlot = slot + 1;
+		}
+		for ( Integer slot : expired.values() )
+		{
+			if ( slot >= nextSlot ) nextSlot = slot + 1;
+		}
+		this._playerData.putAll( loaded );
+		this._index = new PlayerIndex( index, expired );
+		this._nextSlot.set( nextSlot );
+		
+		//-- Players held back in memory whose protection is over are archived once they are persisted
+		for ( Map.Entry<String,PlayerData> entry : loaded.entrySet() )
+		{
+			if ( !entry.getValue().isProtected() ) this._index.retire( entry.getKey() );
+		}
 		
 		//-- Add everyone who's online right now, in case the plugin was enabled after boot
 		for( Player player : this._plugin.getServer().getOnlinePlayers() )
 		{
 			// Ignore OPs and players who have the campfire immunity flag
-			if ( player.isOp() ) continue;
-			if ( player.hasPermission( "campfire.immune" ) ) continue;
+			if ( this.checkImmunity( player ) ) continue;
 			
 			// Add them
-			this.addPlayer( player.getName() );
+			this.addPlayer( player );
 		}
+		this._metrics.stop( this._loadLatency, started );
 	}
 	
 	/**
-	 * Save player data to disk
+	 * Switch to a new config snapshot, keeping everyone's data and timers
+	 * The store is only created once, so changes to the storage options wait for a restart
+	 * @param settings New config snapshot
 	 */
-	public void savePlayerData()
+	public void reconfigure( Settings settings )
 	{
-		try {
-			ObjectOutputStream oos = new ObjectOutputStream( new FileOutputStream( this._plugin.getDataFolder() + "/players.dat" ) );
-			oos.writeObject( this._playerData );
-			oos.flush();
-			oos.close();
-		} catch ( Exception e) {
-			e.printStackTrace();
+		Settings old = this._settings;
+		this._settings = settings;
+		this._evictAfter = settings.getEvictAfter();
+		this._immunityRefresh = settings.getImmunityRefresh();
+		this._untilRefresh = Math.min( this._untilRefresh, this._immunityRefresh );
+		if ( !old.sameStorage( settings ) ) System.out.println( "[Campfire] Storage settings changed, restart the server to use them" );
+		
+		//-- Start or drop the FireRadius grid
+		boolean regrid = ( old.getFireRadius() > 0 ) != ( settings.getFireRadius() > 0 );
+		if ( regrid ) this._grid = settings.getFireRadius() > 0 ? new PlayerGrid() : null;
+		
+		//-- Bring everyone online up to date
+		long now = System.currentTimeMillis();
+		for ( Player player : this._plugin.getServer().getOnlinePlayers() )
+		{
+			PlayerData data = this._online.get( player.getUniqueId() );
+			if ( data == null ) continue; // Immune
+			
+			// Zones no longer pause the timer
+			if ( data.isWG() && !settings.getWorldGuardPause() ) this.setPlayerWGProtected( false, player );
+			
+			// Notifications and expiry depend on the duration
+			else if ( data.isRunning() && old.getDuration() != settings.getDuration() ) this.schedule( player, data, now );
+			
+			if ( regrid ) this.place( player, data, player.getLocation() );
 		}
 	}
 	
 	/**
-	 * Update player data
+	 * Look up a player's data, loading it from the store if it isn't in memory
+	 * Safe from any thread, a player is only ever loaded once. The main thread never waits for the store, a player
+	 * who isn't in memory is loaded in the background instead.
+	 * @param name Lowercase player name
+	 * @return Player data, null if the player is unknown
+	 * @throws CampfireDataException If this is the main thread and the player is being loaded
 	 */
-	public void update()
+	private PlayerData find( String name ) throws CampfireDataException
 	{
-		//-- Loop through everyone who's online
-		for( Player player : this._plugin.getServer().getOnlinePlayers() )
+		PlayerData data = this._playerData.get( name );
+		if ( data == null )
 		{
-			// Ignore OPs and players who have the campfire immunity flag
-			if ( player.isOp() ) continue;
-			if ( player.hasPermission( "campfire.immune" ) ) continue;
-			if ( player.isDead() ) continue;	// Ignore dead people too
-			
-			// Check for protection status
-			String name = player.getName().toLowerCase();
-			if ( !this._playerData.containsKey( name ) )
+			if ( this._index.get( name ) < 0 ) return null;
+			this._metrics.count( this._dataMisses );
+			if ( Thread.currentThread() == this._mainThread )
 			{
-				// They aren't on our list... Weird. Add them!
-				this.addPlayer( name );
-				continue;
+				this.loadLater( name );
+				throw new CampfireDataException( "Loading player data, try again in a moment" );
 			}
+			data = this.load( name );
+			if ( data == null ) return null;
+		} else {
+			this._metrics.count( this._dataHits );
+		}
+		data.touch( System.currentTimeMillis() );
+		return data;
+	}
+	
+	/**
+	 * Load a player's data from the store
+	 * Never called on the main thread, the store may be busy writing or waiting on the database
+	 * @param name Lowercase player name
+	 * @return Player data, null if the player is unknown or couldn't be loaded
+	 */
+	private PlayerData load( String name )
+	{
+		synchronized ( this.lock( name ) )
+		{
+			// Someone else may have loaded or removed them while we waited
 			PlayerData data = this._playerData.get( name );
-			if ( !data.isProtected() ) continue;	// No need to update
-			
-			// Update the player data
-			data.update();
-			
-			// Check for expiration
-			long secondsLeft = this._plugin.getConfig().getLong("Duration") - ( data.getElapsed() / 1000 );
-			if ( secondsLeft <= 0 )
+			if ( data != null ) return data;
+			int slot = this._index.get( name );
+			if ( slot < 0 ) return null;
+			long started = this._metrics.start();
+			try {
+				data = this._store.load( name, slot ); // Stores take care of their own concurrency
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+			this._metrics.stop( this._storeLoadLatency, started );
+			if ( data == null ) return null;
+			data.touch( System.currentTimeMillis() ); // Not evicted before whoever wanted it gets to it
+			this._playerData.put( name, data );
+			return data;
+		}
+	}
+	
+	/**
+	 * Load a player's data off the main thread, then start tracking them if they joined in the meantime
+	 * @param name Lowercase player name
+	 */
+	private void loadLater( final String name )
+	{
+		if ( this._loading.putIfAbsent( name, Boolean.TRUE ) != null ) return; // Already on its way
+		this._plugin.getServer().getScheduler().scheduleAsyncDelayedTask( this._plugin, new Runnable()
+		{
+			public void run()
 			{
-				// Protection has expired, so unprotect them and announce to the server they are unprotected
-				data.unprotect();
-				player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] You are now vulnerable!" );
-				for ( Player other : this._plugin.getServer().getOnlinePlayers() )
+				final DataManager manager = DataManager.this;
+				try {
+					manager.load( name );
+				} finally {
+					manager._loading.remove( name );
+				}
+				manager.onMain( new Runnable()
 				{
-					other.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Protection for " + name + " has expired!" );
+					public void run()
+					{
+						manager.joined( name );
+					}
+				} );
+			}
+		} );
+	}
+	
+	/**
+	 * Run work about a player once their data is in memory, for commands that shouldn't fail while it loads
+	 * Straight away if they are in memory, unknown or this isn't the main thread, otherwise their data is loaded in
+	 * the background and the work runs on the main thread afterwards
+	 * @param name Player name
+	 * @param task Work to run
+	 */
+	public void whenLoaded( String name, final Runnable task )
+	{
+		final String key = name.toLowerCase();
+		if ( Thread.currentThread() != this._mainThread || this._playerData.containsKey( key ) || this._index.get( key ) < 0 )
+		{
+			task.run();
+			return;
+		}
+		this._plugin.getServer().getScheduler().scheduleAsyncDelayedTask( this._plugin, new Runnable()
+		{
+			public void run()
+			{
+				DataManager.this.load( key ); // Touched, so it is still in memory when the work runs
+				DataManager.this.onMain( task );
+			}
+		} );
+	}
+
+	/**
+	 * Start tracking a player whose join waited for their data, and tell them where they stand
+	 * Main thread only
+	 * @param name Lowercase player name
+	 */
+	private void joined( String name )
+	{
+		Player player = this._joining.remove( name );
+		if ( player == null || !player.isOnline() || this._online.get( player.getUniqueId() ) != null ) return;
+		
+		//-- Start them over if their data couldn't be loaded after all
+		boolean created = false;
+		synchronized ( this.lock( name ) )
+		{
+			if ( !this._playerData.containsKey( name ) )
+			{
+				this.create( name );
+				created = true;
+			}
+		}
+		if ( this.addPlayer( player ) || created )
+		{
+			this._plugin.getMessages().send( player, Message.STARTING );
+			return;
+		}
+		PlayerData data = this._online.get( player.getUniqueId() );
+		if ( data == null || !data.isProtected() ) return; // Expired, stay silent
+		this._plugin.getMessages().send( player, Message.TIME_LEFT, Math.round( this.timeLeft( data ) / 60.0 ) );
+	}
+	
+	/**
+	 * Stop tracking a player who is leaving and journal their current state, so time elapsed so far survives a restart
+	 * @param player Player to save
+	 */
+	public void savePlayer( Player player )
+	{
+		this._immune.remove( player.getUniqueId() );
+		this._joining.remove( player.getName().toLowerCase() );
+		this.untrack( player );
+	}
+	
+	/**
+	 * Stop tracking an online player and journal their current state
+	 * @param player Player to stop tracking
+	 */
+	private void untrack( Player player )
+	{
+		String name = player.getName().toLowerCase();
+		PlayerData tracked = this._online.remove( player.getUniqueId() );
+		if ( tracked != null )
+		{
+			tracked.setTracked( false );
+			this.recount( tracked );
+		}
+		if ( this._grid != null ) this._grid.remove( player );
+		PlayerData data = this._playerData.get( name );
+		if ( data == null ) return;
+		this.pause( data, System.currentTimeMillis() );
+		this.journalPut( name, data );
+	}
+	
+	/**
+	 * Hand the journal records collected so far to the store, then drop offline players from memory
+	 */
+	public void flush()
+	{
+		long started = this._metrics.start();
+		synchronized ( this._pending )
+		{
+			if ( this._pending.size() > 0 && this._store.offer( this._pending.toByteArray() ) ) // Otherwise the store is behind, try again next time
+			{
+				this._pending.reset();
+				this._batch++;
+			}
+		}
+		this.evict();
+		this.archive();
+		this._metrics.stop( this._flushLatency, started );
+	}
+	
+	/**
+	 * Archive players whose protection ended since the last time, once there are enough of them
+	 * The archive is rebuilt in one go, so it waits until the players waiting make up a good part of it, and
+	 * it is built off the main thread
+	 */
+	private void archive()
+	{
+		final PlayerIndex index = this._index;
+		if ( index.getRetired() < Math.max( ARCHIVE_MIN, index.getArchive().size() / 16 ) ) return;
+		if ( !this._archiving.compareAndSet( false, true ) ) return; // Still building the last one
+		this._plugin.getServer().getScheduler().scheduleAsyncDelayedTask( this._plugin, new Runnable()
+		{
+			public void run()
+			{
+				try {
+					index.archive();
+				} finally {
+					DataManager.this._archiving.set( false );
 				}
-				continue;
 			}
-			
-			// Send notification about the time left
-			long minutes = Math.round(secondsLeft / 60.0);
-			if ( minutes > 10 && minutes % 5 == 0 && secondsLeft % 60 == 0 )
+		} );
+	}
+	
+	/**
+	 * Drop offline players who haven't been looked up in a while, once the store can load their latest change
+	 */
+	private void evict()
+	{
+		long cutoff = System.currentTimeMillis() - this._evictAfter;
+		long persisted = this._store.getPersisted();
+		Iterator<Map.Entry<String,PlayerData>> it = this._playerData.entrySet().iterator();
+		while ( it.hasNext() )
+		{
+			Map.Entry<String,PlayerData> entry = it.next();
+			PlayerData data = entry.getValue();
+			if ( data.getLastAccess() > cutoff ) continue;
+			if ( data.getBatch() > persisted ) continue; // The store would load an older copy
+			if ( data.isTracked() ) continue; // Online
+			synchronized ( this.lock( entry.getKey() ) )
 			{
-				// Before the last 10 minutes, send messages every 5 minutes on the minute
-				player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + String.format( "] Expires in %d minute%s", minutes, ( minutes != 1 ? "s" : "" ) ) + "!" );
-			} else if ( minutes <= 10 && secondsLeft % 60 == 0 ) {
-				// During the last 10 minutes, send messages every minute on the minute
-				player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + String.format( "] Expires in %d minute%s", minutes, ( minutes != 1 ? "s" : "" ) ) + "!" );
+				// Unless it was looked up or changed by another thread in the meantime
+				if ( data.getLastAccess() <= cutoff && data.getBatch() <= persisted ) this._playerData.remove( entry.getKey(), data );
 			}
 		}
 	}
 	
 	/**
-	 * Reset a player's data
+	 * Persist everything and close the store, blocking until it's done
+	 */
+	public void shutdown()
+	{
+		//-- Stop everyone who's still counting, so the time up to now is saved
+		long started = this._metrics.start();
+		long now = System.currentTimeMillis();
+		for ( Map.Entry<String,PlayerData> entry : this._playerData.entrySet() )
+		{
+			PlayerData data = entry.getValue();
+			if ( !data.isRunning() ) continue;
+			this.pause( data, now );
+			this.journalPut( entry.getKey(), data );
+		}
+		synchronized ( this._pending )
+		{
+			this._store.close( this._pending.toByteArray() );
+			this._pending.reset();
+		}
+		this._metrics.stop( this._shutdownLatency, started );
+	}
+	
+	/**
+	 * Journal a player's current state
+	 * @param name Lowercase player name
+	 * @param data Player data
+	 */
+	private void journalPut( String name, PlayerData data )
+	{
+		synchronized ( this._pending )
+		{
+			this._record.clear();
+			if ( !PlayerRecord.put( this._record, name, data ) )
+			{
+				System.out.println( "[Campfire] Name too long to journal: " + name );
+				return;
+			}
+			this._pending.write( this._record.array(), 0, PlayerRecord.SIZE );
+			data.setBatch( this._batch );
+		}
+	}
+	
+	/**
+	 * Journal a player's removal
+	 * @param name Lowercase player name
+	 * @param slot Record number the player had
+	 */
+	private void journalRemove( String name, int slot )
+	{
+		synchronized ( this._pending )
+		{
+			this._record.clear();
+			if ( !PlayerRecord.remove( this._record, slot, name ) )
+			{
+				System.out.println( "[Campfire] Name too long to journal: " + name );
+				return;
+			}
+			this._pending.write( this._record.array(), 0, PlayerRecord.SIZE );
+		}
+	}
+	
+	/**
+	 * Update player data
+	 * Only players with a notification or expiry due right now are looked at
+	 */
+	public void update()
+	{
+		long started = this._metrics.start();
+		this._wheel.advance( System.currentTimeMillis(), this._due );
+		for ( Player player : this._due ) this.fire( player );
+		this._due.clear();
+		
+		//-- Permission plugins don't announce changes, so check everyone once in a while
+		if ( --this._untilRefresh <= 0 )
+		{
+			this._untilRefresh = this._immunityRefresh;
+			for ( Player player : this._plugin.getServer().getOnlinePlayers() ) this.checkImmunity( player );
+		}
+		this._metrics.stop( this._updateLatency, started );
+		
+		//-- Keep the set sizes current for the stats, outside the timing since it's only done for them
+		if ( !this._metrics.isEnabled() ) return;
+		this._metrics.setSizes( this._index.size(), this._index.getArchive().size(), this._playerData.size(), this._online.size(), this._protectedOnline );
+	}
+	
+	/**
+	 * Is the player immune to Campfire, OP or has the campfire.immune permission
+	 * Online players are answered from the cache, anyone else is resolved on the spot
+	 * @param player Player to check
+	 * @return True if immune
+	 */
+	public boolean isImmune( Player player )
+	{
+		Boolean immune = this._immune.get( player.getUniqueId() );
+		if ( immune != null )
+		{
+			this._metrics.count( this._immunityHits );
+			return immune;
+		}
+		this._metrics.count( this._immunityMisses );
+		return player.isOp() || player.hasPermission( "campfire.immune" );
+	}
+	
+	/**
+	 * Resolve a player's immunity again and cache it
+	 * Players who became immune stop being tracked, and players who lost it start being tracked
+	 * @param player Online player
+	 * @return True if immune
+	 */
+	public boolean checkImmunity( Player player )
+	{
+		boolean immune = player.isOp() || player.hasPermission( "campfire.immune" );
+		Boolean old = this._immune.put( player.getUniqueId(), immune );
+		if ( old == null || old == immune ) return immune;
+		if ( immune )
+		{
+			this.untrack( player );
+		} else {
+			this.addPlayer( player );
+		}
+		return immune;
+	}
+	
+	/**
+	 * Handle a player's timer coming due
+	 * @param player Player the timer belongs to
+	 */
+	private void fire( Player player )
+	{
+		//-- Quitting cancels the timer, so they should still be tracked
+		PlayerData data = this._online.get( player.getUniqueId() );
+		if ( data == null ) return;
+		String name = player.getName().toLowerCase();
+		
+		// Terminated or reset from another thread since it was scheduled
+		if ( !data.isRunning() ) return;
+		
+		// Stop counting for OPs and players who have the campfire immunity flag
+		long now = System.currentTimeMillis();
+		if ( this.isImmune( player ) )
+		{
+			this.pause( data, now );
+			return;
+		}
+		
+		// Ignore dead people too, check again in a second
+		if ( player.isDead() )
+		{
+			this._wheel.schedule( data.getTimer(), now + 1000 );
+			return;
+		}
+		
+		// Check for expiration
+		long secondsLeft = this._settings.getDuration() - ( data.getElapsed( now ) / 1000 );
+		if ( secondsLeft <= 0 )
+		{
+			// Protection has expired, so unprotect them and announce to the server they are unprotected
+			synchronized ( this.lock( name ) )
+			{
+				if ( !data.unprotect( now ) ) return; // Terminated at the same moment
+				this.journalPut( name, data );
+				this._index.retire( name );
+			}
+			this.recount( data );
+			if ( this._grid != null ) this._grid.remove( player );
+			this._plugin.getMessages().send( player, Message.NOW_VULNERABLE );
+			this._plugin.getBroadcaster().expired( player.getName() );
+			return;
+		}
+		
+		// Send notification about the time left
+		if ( secondsLeft <= data.getMark() )
+		{
+			long minutes = data.getMark() / 60;
+			if ( minutes == 1 ) this._plugin.getMessages().send( player, Message.EXPIRES_IN_ONE );
+			else this._plugin.getMessages().send( player, Message.EXPIRES_IN, minutes );
+		}
+		this.schedule( player, data, now );
+	}
+	
+	/**
+	 * Start a player's clock and schedule their next notification or expiry
+	 * Nothing is scheduled if protection is over or paused by a WG zone
+	 * @param player Online player
+	 * @param data Player data
+	 * @param now Current timestamp in milliseconds
+	 */
+	private void resume( Player player, PlayerData data, long now )
+	{
+		if ( data.start( now ) ) this.schedule( player, data, now );
+	}
+	
+	/**
+	 * Stop a player's clock and cancel their next notification or expiry
+	 * @param data Player data
+	 * @param now Current timestamp in milliseconds
+	 */
+	private void pause( PlayerData data, long now )
+	{
+		data.stop( now );
+		if ( data.getTimer() != null ) this._wheel.cancel( data.getTimer() );
+	}
+	
+	/**
+	 * Schedule a running player's next notification or expiry
+	 * The timer carries the player, so firing it doesn't have to look them up by name
+	 * @param player Online player
+	 * @param data Player data
+	 * @param now Current timestamp in milliseconds
+	 */
+	private void schedule( Player player, PlayerData data, long now )
+	{
+		TimingWheel.Timer<Player> timer = data.getTimer();
+		if ( timer == null || timer.getPayload() != player ) // Every login is a new Player object
+		{
+			if ( timer != null ) this._wheel.cancel( timer );
+			data.setTimer( new TimingWheel.Timer<Player>( player ) );
+		}
+		
+		//-- Before the last 10 minutes, send messages every 5 minutes on the minute
+		//-- During the last 10 minutes, send messages every minute on the minute
+		long duration = this._settings.getDuration();
+		long elapsed = data.getElapsed( now );
+		long secondsLeft = duration - ( elapsed / 1000 );
+		long minutes = secondsLeft > 0 ? ( secondsLeft - 1 ) / 60 : 0;
+		if ( minutes > 10 ) minutes -= minutes % 5;
+		data.setMark( minutes * 60 );
+		
+		//-- Due once elapsed time reaches the mark
+		this._wheel.schedule( data.getTimer(), now + ( duration - data.getMark() ) * 1000 - elapsed );
+	}
+	
+	/**
+	 * Reset a player's data, if they are known
+	 * Safe from any thread, the reset is atomic with respect to other resets, removal and termination
 	 * @param name Player to reset
 	 * @throws CampfireDataException 
 	 */
 	public void resetPlayer( String name ) throws CampfireDataException
 	{
-		name = name.toLowerCase();
-		if ( !this._playerData.containsKey( name ) ) throw new CampfireDataException( "Player not found!" );
-		this._playerData.put( name, new PlayerData() );
+		final String key = name.toLowerCase();
+		final PlayerData data;
+		synchronized ( this.lock( key ) )
+		{
+			data = this.find( key );
+			if ( data == null ) throw new CampfireDataException( "Player not found!" );
+			data.reset();
+			this.journalPut( key, data );
+			this._index.put( key, data.getSlot() ); // Out of the archive, they can change again
+		}
+		
+		//-- Online players being tracked start counting again straight away
+		this.onMain( new Runnable()
+		{
+			public void run()
+			{
+				DataManager manager = DataManager.this;
+				if ( data.getTimer() != null ) manager._wheel.cancel( data.getTimer() );
+				manager.recount( data );
+				Player player = manager._plugin.getServer().getPlayerExact( key );
+				if ( player == null || manager._online.get( player.getUniqueId() ) != data ) return;
+				manager.place( player, data, player.getLocation() );
+				manager.resume( player, data, System.currentTimeMillis() );
+			}
+		} );
 	}
 	
 	/**
 	 * Remove a player from the protection list
+	 * Safe from any thread
 	 * @param name Player to remove
 	 * @throws CampfireDataException 
 	 */
 	public void removePlayer( String name ) throws CampfireDataException
 	{
-		name = name.toLowerCase();
-		if ( !this._playerData.containsKey( name ) ) throw new CampfireDataException( "Player not found!" );
-		this._playerData.remove( name );
+		final String key = name.toLowerCase();
+		final PlayerData data;
+		synchronized ( this.lock( key ) )
+		{
+			int slot = this._index.remove( key );
+			if ( slot < 0 ) throw new CampfireDataException( "Player not found!" );
+			data = this._playerData.remove( key );
+			if ( data != null ) data.stop( System.currentTimeMillis() );
+			this.journalRemove( key, slot );
+		}
+		
+		//-- Stop tracking them if they are online
+		if ( data == null ) return; // Not in memory, so not online either
+		this.onMain( new Runnable()
+		{
+			public void run()
+			{
+				DataManager manager = DataManager.this;
+				if ( data.getTimer() != null ) manager._wheel.cancel( data.getTimer() );
+				Player player = manager._plugin.getServer().getPlayerExact( key );
+				if ( player == null || manager._online.get( player.getUniqueId() ) != data ) return;
+				manager._online.remove( player.getUniqueId() );
+				data.setTracked( false );
+				manager.recount( data );
+				if ( manager._grid != null ) manager._grid.remove( player );
+			}
+		} );
 	}
 
 	/**
 	 * Get the remaining protection time for a given player in seconds
+	 * Safe from any thread
 	 * @param name Player to look up
 	 * @return Remaining time in seconds
 	 * @throws CampfireDataException
@@ -181,50 +885,104 @@ public class DataManager
 	public int getPlayerTimeLeft( String name ) throws CampfireDataException
 	{
 		name = name.toLowerCase();
-		if ( !this._playerData.containsKey( name ) ) throw new CampfireDataException( "Player not found!" );
-		PlayerData data = this._playerData.get( name );
+		PlayerData data = this.find( name );
+		if ( data == null ) throw new CampfireDataException( "Player not found!" );
+		return this.timeLeft( data );
+	}
+	
+	/**
+	 * Get the remaining protection time in seconds
+	 * @param data Player data
+	 * @return Remaining time in seconds
+	 */
+	private int timeLeft( PlayerData data )
+	{
 		if ( !data.isProtected() ) return 0; // Protection has expired or terminated, 0 seconds remain
-		long elapsed = data.getElapsed();
-		return this._plugin.getConfig().getInt("Duration") - (((int)elapsed)/1000);
+		return (int) this._settings.getDuration() - (int) ( data.getElapsed() / 1000 );
 	}
 
 	/**
 	 * Update the current WorldGuard protection state for a player
 	 * @param isProtected Current protection status
-	 * @param name Player to update
-	 * @return True if the value changed from its previous value
-	 * @throws CampfireDataException
+	 * @param player Player to update
+	 * @return True if the value changed from its previous value, false if it didn't or the player isn't being tracked
 	 */
-	public boolean setPlayerWGProtected( boolean isProtected, String name ) throws CampfireDataException
+	public boolean setPlayerWGProtected( boolean isProtected, Player player )
 	{
-		name = name.toLowerCase();
-		if ( !this._playerData.containsKey( name ) ) throw new CampfireDataException( "Player not found!" );
-		PlayerData data = this._playerData.get( name );
+		PlayerData data = this._online.get( player.getUniqueId() );
+		if ( data == null ) return false;
 		if ( data.isWG() == isProtected ) return false;
-		data.setWG( isProtected );
+		String name = player.getName().toLowerCase();
+		long now = System.currentTimeMillis();
+		if ( isProtected ) this.pause( data, now );
+		data.setWG( isProtected, now );
+		this.journalPut( name, data );
+		if ( !isProtected ) this.resume( player, data, now );
 		return true;
 	}
 
 	/**
-	 * Add a new user to the data set
-	 * @param name Player's name to add
+	 * Add a player who just came online to the data set and start tracking them
+	 * Known players are normally in memory already, the pre-login prefetch loaded them. Anyone who isn't is loaded
+	 * in the background and tracked once that's done, protectionStatus() is UNKNOWN until then.
+	 * Main thread only
+	 * @param player Player to add
 	 * @return True if they weren't already in the DB
 	 */
-	public boolean addPlayer( String name )
+	public boolean addPlayer( Player player )
 	{
-		name = name.toLowerCase();
-		if ( this._playerData.containsKey( name ) )
+		String name = player.getName().toLowerCase();
+		PlayerData data;
+		boolean created = false;
+		synchronized ( this.lock( name ) )
 		{
-			// Player already exists, reset their last update time
-			this._playerData.get( name ).setLastUpdated();
-			return false;
+			try {
+				data = this.find( name );
+			} catch ( CampfireDataException e ) { // Being loaded, joined() takes it from there
+				this._joining.put( name, player );
+				return false;
+			}
+			if ( data == null )
+			{
+				data = this.create( name );
+				created = true;
+			}
 		}
-		this._playerData.put( name, new PlayerData() );
-		return true;
+		
+		//-- Start their clock, again if they were here before
+		PlayerData old = this._online.put( player.getUniqueId(), data );
+		if ( old != null )
+		{
+			old.setTracked( false );
+			this.recount( old );
+		}
+		data.setTracked( true );
+		this.recount( data );
+		this.place( player, data, player.getLocation() );
+		this.resume( player, data, System.currentTimeMillis() );
+		return created;
+	}
+
+	/**
+	 * Create data for a player who is new, or starts over
+	 * The caller must hold the player's lock
+	 * @param name Lowercase player name
+	 * @return New player data
+	 */
+	private PlayerData create( String name )
+	{
+		PlayerData data = new PlayerData();
+		data.setSlot( this._nextSlot.getAndIncrement() );
+		data.touch( System.currentTimeMillis() );
+		this._playerData.put( name, data );
+		this._index.put( name, data.getSlot() );
+		this.journalPut( name, data );
+		return data;
 	}
 
 	/**
 	 * Is the given player currently under protection?
+	 * Safe from any thread
 	 * @param name Player to check
 	 * @return True if currently under protection
 	 * @throws CampfireDataException
@@ -232,20 +990,163 @@ public class DataManager
 	public boolean playerProtected( String name ) throws CampfireDataException
 	{
 		name = name.toLowerCase();
-		if ( !this._playerData.containsKey( name ) ) throw new CampfireDataException( "Player not found!" );
-		return this._playerData.get( name ).isProtected();
+		PlayerData data = this.find( name );
+		if ( data == null ) throw new CampfireDataException( "Player not found!" );
+		return data.isProtected();
+	}
+	
+	/**
+	 * Load a player's data ahead of their join, so the join itself only finds it in memory
+	 * Meant for the async pre-login thread, safe from any thread. Data that goes unused for EvictAfter is dropped again
+	 * @param name Player who is logging in
+	 * @return True if the player is known and in memory
+	 */
+	public boolean prefetch( String name )
+	{
+		try {
+			return this.find( name.toLowerCase() ) != null;
+		} catch ( CampfireDataException e ) { // Main thread, loading in the background
+			return false;
+		}
+	}
+	
+	/**
+	 * Get an online player's protection status without throwing for unknown players
+	 * Meant for event handlers, which see fake players from other plugins and players who just joined
+	 * Main thread only, other threads use playerProtected()
+	 * @param player Player to check
+	 * @return UNKNOWN, UNPROTECTED or PROTECTED
+	 */
+	public int protectionStatus( Player player )
+	{
+		PlayerData data = this._online.get( player.getUniqueId() );
+		if ( data == null ) return UNKNOWN;
+		return data.isProtected() ? PROTECTED : UNPROTECTED;
 	}
 	
 	/**
 	 * Manually terminate the player's protection
+	 * Safe from any thread, if several callers race only one of them ends it
 	 * @param name Player name
+	 * @return True if this call ended the protection, false if it was already over
 	 * @throws CampfireDataException 
 	 */
-	public void terminate( String name ) throws CampfireDataException
+	public boolean terminate( String name ) throws CampfireDataException
 	{
-		name = name.toLowerCase();
-		if ( !this._playerData.containsKey( name ) ) throw new CampfireDataException( "Player not found!" );
-		this._playerData.get( name ).unprotect();
+		final String key = name.toLowerCase();
+		final PlayerData data;
+		synchronized ( this.lock( key ) )
+		{
+			data = this.find( key );
+			if ( data == null ) throw new CampfireDataException( "Player not found!" );
+			if ( !data.unprotect( System.currentTimeMillis() ) ) return false;
+			this.journalPut( key, data );
+			this._index.retire( key );
+		}
+		
+		//-- Their timer and place in the grid are no longer needed
+		this.onMain( new Runnable()
+		{
+			public void run()
+			{
+				DataManager manager = DataManager.this;
+				if ( data.getTimer() != null ) manager._wheel.cancel( data.getTimer() );
+				manager.recount( data );
+				Player player = manager._plugin.getServer().getPlayerExact( key );
+				if ( player != null && manager._grid != null && manager._online.get( player.getUniqueId() ) == data ) manager._grid.remove( player );
+			}
+		} );
+		return true;
+	}
+	
+	/**
+	 * Keep the FireRadius grid up to date as a player moves, teleports or respawns
+	 * @param player Player
+	 * @param to Player's new position
+	 */
+	public void playerMoved( Player player, Location to )
+	{
+		if ( this._grid == null ) return;
+		PlayerData data = this._online.get( player.getUniqueId() );
+		if ( data != null && data.isProtected() ) this._grid.update( player, to );
+	}
+	
+	/**
+	 * Take a player out of the FireRadius grid when they die
+	 * @param player Player
+	 */
+	public void playerDied( Player player )
+	{
+		if ( this._grid != null ) this._grid.remove( player );
+	}
+	
+	/**
+	 * Find a protected player near a location, for the FireRadius check
+	 * Only living players who are being tracked are found
+	 * @param center Center of the search
+	 * @param radius Distance in blocks along each axis
+	 * @param exclude Player to leave out, may be null
+	 * @return A protected player, null if there is none
+	 */
+	public Player findProtectedNear( Location center, double radius, Player exclude )
+	{
+		if ( this._grid == null ) return null;
+		return this._grid.findNear( center, radius, exclude );
+	}
+	
+	/**
+	 * Bring the count of protected online players up to date after a player's protection or tracking changed
+	 * Main thread only
+	 * @param data Player data
+	 */
+	private void recount( PlayerData data )
+	{
+		boolean counted = data.isTracked() && data.isProtected();
+		if ( counted == data.isCounted() ) return;
+		data.setCounted( counted );
+		this._protectedOnline += counted ? 1 : -1;
+	}
+	
+	/**
+	 * Get the lock for loading, creating, resetting and removing a player
+	 * @param name Lowercase player name
+	 * @return Lock
+	 */
+	private Object lock( String name )
+	{
+		int h = name.hashCode();
+		return this._locks[( h ^ ( h >>> 16 ) ) & ( LOCKS - 1 )];
+	}
+	
+	/**
+	 * Run work on the main thread structures, straight away on the main thread and on the next tick otherwise
+	 * @param task Work to run
+	 */
+	private void onMain( Runnable task )
+	{
+		if ( Thread.currentThread() == this._mainThread )
+		{
+			task.run();
+			return;
+		}
+		this._plugin.getServer().getScheduler().scheduleSyncDelayedTask( this._plugin, task ); // Dropped once disabled, shutdown() saved the data
+	}
+	
+	/**
+	 * Put a tracked player in the FireRadius grid if they are protected and alive, or take them out
+	 * @param player Player
+	 * @param data Player data
+	 * @param loc Player's position
+	 */
+	private void place( Player player, PlayerData data, Location loc )
+	{
+		if ( this._grid == null ) return;
+		if ( data.isProtected() && !player.isDead() )
+		{
+			this._grid.update( player, loc );
+		} else {
+			this._grid.remove( player );
+		}
 	}
 
 }
@@ -0,0 +1,219 @@
+package com.hcsmp.campfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Player data snapshot split across shard files in a folder, each one a DataFile holding SHARD_SIZE slots
+ * Slots are handed out in the order players first join, so the players whose data still changes are mostly
+ * in the newest shards. Folding the journal only rewrites the shards it has records for.
+ * @author bitdagger
+ *
+ */
+public class DataShards
+{
+	/**
+	 * Number of slots in each shard, 256 KB of records
+	 */
+	public static final int SHARD_SIZE = 8192;
+
+	/**
+	 * Folder holding the shard files
+	 */
+	private final File _folder;
+
+	/**
+	 * Memory-map shards for lookups
+	 */
+	private final boolean _map;
+
+	/**
+	 * Shards opened for looking up players, by shard number - Guarded by this
+	 */
+	private DataFile[] _readers;
+
+	/**
+	 * Constructor
+	 * @param folder Folder holding the shard files
+	 * @param map Memory-map shards for lookups
+	 */
+	public DataShards( File folder, boolean map )
+	{
+		this._folder = folder;
+		this._map = map;
+		this._readers = new DataFile[0];
+	}
+
+	/**
+	 * Get the file a shard is kept in
+	 * @param shard Shard number
+	 * @return Shard file
+	 */
+	public File getFile( int shard )
+	{
+		return new File( this._folder, shard + ".dat" );
+	}
+
+	/**
+	 * Read a single player's data, opening the shard holding it if needed
+	 * Safe from any thread, lookups take turns with each other and with closing the shards
+	 * @param slot Record number
+	 * @return Player data, null if the record is missing or unused
+	 * @throws IOException
+	 */
+	public synchronized PlayerData read( int slot ) throws IOException
+	{
+		int shard = slot / SHARD_SIZE;
+		if ( shard >= this._readers.length )
+		{
+			DataFile[] readers = new DataFile[shard + 1];
+			System.arraycopy( this._readers, 0, readers, 0, this._readers.length );
+			this._readers = readers;
+		}
+		if ( this._readers[shard] == null ) this._readers[shard] = new DataFile( this.getFile( shard ), this._map );
+		return this._readers[shard].read( slot - shard * SHARD_SIZE );
+	}
+
+	/**
+	 * Close every shard opened for lookups, so the next lookups see shards that were rewritten since
+	 */
+	public synchronized void closeReaders()
+	{
+		for ( int i = 0; i < this._readers.length; i++ )
+		{
+			if ( this._readers[i] == null ) continue;
+			this._readers[i].close();
+			this._readers[i] = null;
+		}
+	}
+
+	/**
+	 * Read the name and record number of every player, without loading their data
+	 * Shards are read in parallel, one thread per core
+	 * @param index Filled with record numbers keyed by lowercase name
+	 * @param expired Filled instead of the index for players whose protection is over
+	 * @throws IOException
+	 */
+	public void readIndex( HashMap<String,Integer> index, HashMap<String,Integer> expired ) throws IOException
+	{
+		ArrayList<Integer> shards = this.list();
+		if ( shards.isEmpty() ) return; // Nothing saved yet
+
+		int threads = Math.min( shards.size(), Runtime.getRuntime().availableProcessors() );
+		ExecutorService pool = Executors.newFixedThreadPool( threads, new ThreadFactory()
+		{
+			public Thread newThread( Runnable runnable )
+			{
+				Thread thread = new Thread( runnable, "Campfire Data Loader" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		try {
+			//-- Each shard fills maps of its own, merged here as they finish
+			ArrayList<Future<HashMap<String,Integer>>> parts = new ArrayList<Future<HashMap<String,Integer>>>( shards.size() );
+			final ArrayList<HashMap<String,Integer>> expiredParts = new ArrayList<HashMap<String,Integer>>( shards.size() );
+			for ( final Integer shard : shards )
+			{
+				final HashMap<String,Integer> expiredPart = new HashMap<String,Integer>();
+				expiredParts.add( expiredPart );
+				parts.add( pool.submit( new Callable<HashMap<String,Integer>>()
+				{
+					public HashMap<String,Integer> call() throws IOException
+					{
+						HashMap<String,Integer> part = new HashMap<String,Integer>();
+						DataFile.readIndex( DataShards.this.getFile( shard ), shard * SHARD_SIZE, part, expiredPart );
+						return part;
+					}
+				} ) );
+			}
+			for ( int i = 0; i < parts.size(); i++ )
+			{
+				index.putAll( parts.get( i ).get() );
+				expired.putAll( expiredParts.get( i ) ); // Complete once its shard's future is
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( "Interrupted while reading player data" );
+		} catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof IOException ) throw (IOException) e.getCause();
+			throw new IOException( "Unreadable player data: " + e.getCause() );
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fold a journal into the shards it has records for, leaving the others untouched
+	 * If this is interrupted the journal is still there, and folding it again is harmless
+	 * @param journal Journal file
+	 * @return Number of shards rewritten
+	 * @throws IOException
+	 */
+	public int fold( File journal ) throws IOException
+	{
+		ByteBuffer records = Journal.readAll( journal );
+
+		//-- Mark the shards the journal touches
+		BitSet dirty = new BitSet();
+		for ( int pos = records.position(); pos + PlayerRecord.SIZE <= records.limit(); pos += PlayerRecord.SIZE )
+		{
+			dirty.set( records.getInt( pos + PlayerRecord.SLOT_OFFSET ) / SHARD_SIZE );
+		}
+
+		//-- Rewrite just those
+		this._folder.mkdirs();
+		int rewritten = 0;
+		for ( int shard = dirty.nextSetBit( 0 ); shard >= 0; shard = dirty.nextSetBit( shard + 1 ) )
+		{
+			DataFile.fold( this.getFile( shard ), records, shard * SHARD_SIZE, SHARD_SIZE );
+			rewritten++;
+		}
+		return rewritten;
+	}
+
+	/**
+	 * Split a single snapshot file, as older versions kept, into shards
+	 * Shards already there are overwritten, so splitting again after an interruption is harmless
+	 * @param file Snapshot file
+	 * @return Number of shards written
+	 * @throws IOException
+	 */
+	public int split( File file ) throws IOException
+	{
+		this._folder.mkdirs();
+		int shard = 0;
+		while ( DataFile.extract( file, shard * SHARD_SIZE, SHARD_SIZE, this.getFile( shard ) ) > 0 ) shard++;
+		return shard;
+	}
+
+	/**
+	 * List the shards on disk
+	 * @return Shard numbers, in no particular order
+	 */
+	private ArrayList<Integer> list()
+	{
+		ArrayList<Integer> shards = new ArrayList<Integer>();
+		String[] names = this._folder.list();
+		if ( names == null ) return shards;
+		for ( String name : names )
+		{
+			if ( !name.endsWith( ".dat" ) ) continue; // Temporary files from an interrupted fold
+			try {
+				shards.add( Integer.parseInt( name.substring( 0, name.length() - 4 ) ) );
+			} catch ( NumberFormatException e ) { // Not a shard
+			}
+		}
+		return shards;
+	}
+}
@@ -0,0 +1,211 @@
+package com.hcsmp.campfire;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background writer for player data
+ * The main thread hands over batches of encoded records, and this thread collects whatever is waiting and
+ * passes it to the store in one go
+ * @author bitdagger
+ *
+ */
+public abstract class DataWriter implements Runnable
+{
+	/**
+	 * Time in milliseconds to wait before trying a failed write again
+	 */
+	private static final long RETRY_DELAY = 1000;
+
+	/**
+	 * Record batches waiting to be written
+	 */
+	private final ArrayBlockingQueue<byte[]> _queue;
+
+	/**
+	 * Maximum number of record batches waiting to be written
+	 */
+	private final int _capacity;
+
+	/**
+	 * Record batches taken off the queue and not stored yet, kept until a write succeeds
+	 */
+	private final ArrayList<byte[]> _pending;
+
+	/**
+	 * Number of record batches stored so far
+	 */
+	private long _written;
+
+	/**
+	 * Number of record batches the store can read back
+	 */
+	private volatile long _persisted;
+
+	/**
+	 * Worker thread
+	 */
+	private Thread _thread;
+
+	/**
+	 * Is the worker thread still accepting records
+	 */
+	private volatile boolean _running;
+
+	/**
+	 * Constructor
+	 * @param capacity Maximum number of record batches waiting to be written
+	 */
+	protected DataWriter( int capacity )
+	{
+		this._capacity = Math.max( 1, capacity );
+		this._queue = new ArrayBlockingQueue<byte[]>( this._capacity );
+		this._pending = new ArrayList<byte[]>();
+	}
+
+	/**
+	 * Write batches of records
+	 * Called on the worker thread, or on the closing thread once the worker has stopped. If this throws, the same
+	 * batches are handed over again, along with any that came in since.
+	 * @param batches Batches in the order they were handed over
+	 * @throws IOException
+	 */
+	protected abstract void write( ArrayList<byte[]> batches ) throws IOException;
+
+	/**
+	 * Persist everything written so far and release the store
+	 * Called on the closing thread once the worker has stopped
+	 * @throws IOException
+	 */
+	protected abstract void finish() throws IOException;
+
+	/**
+	 * Start the worker thread
+	 */
+	protected void start()
+	{
+		this._running = true;
+		this._thread = new Thread( this, "Campfire Data Writer" );
+		this._thread.setDaemon( true );
+		this._thread.start();
+	}
+
+	/**
+	 * Hand a batch of encoded records over to the worker thread
+	 * @param records Encoded records, must not be modified afterwards
+	 * @return False if the queue is full and the records were not accepted
+	 */
+	public boolean offer( byte[] records )
+	{
+		if ( !this._running ) return false;
+		return this._queue.offer( records );
+	}
+
+	/**
+	 * Get the number of batches the store can read back
+	 * @return Number of batches
+	 */
+	public long getPersisted()
+	{
+		return this._persisted;
+	}
+
+	/**
+	 * Get the number of batches stored so far, not counting the ones write() is working on
+	 * @return Number of batches
+	 */
+	protected long getWritten()
+	{
+		return this._written;
+	}
+
+	/**
+	 * Mark batches as readable from the store
+	 * @param batches Number of batches
+	 */
+	protected void setPersisted( long batches )
+	{
+		this._persisted = batches;
+	}
+
+	/**
+	 * Stop the worker thread, write the last records and finish up
+	 * Blocks until everything is stored
+	 * @param records Encoded records that were never handed over
+	 */
+	public void close( byte[] records )
+	{
+		this._running = false;
+		if ( this._thread != null )
+		{
+			try {
+				this._thread.join();
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+			this._thread = null;
+		}
+
+		//-- The worker is gone, so the store is ours now
+		this._pending.add( records );
+		this._queue.drainTo( this._pending ); // Offered as the worker stopped
+		if ( !this.writePending() ) System.out.println( "[Campfire] Lost " + this._pending.size() + " batches of player changes that couldn't be stored" );
+		try {
+			this.finish();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Write records as they come in
+	 * Batches that fail to write are kept and tried again, and once that many are waiting the queue fills up
+	 */
+	public void run()
+	{
+		while ( this._running || !this._queue.isEmpty() )
+		{
+			// Wait for something to write
+			try {
+				if ( this._pending.size() < this._capacity )
+				{
+					byte[] records = this._queue.poll( 1, TimeUnit.SECONDS );
+					if ( records != null ) this._pending.add( records );
+				} else {
+					Thread.sleep( RETRY_DELAY );
+				}
+			} catch ( InterruptedException e ) {
+				continue;
+			}
+			if ( this._pending.isEmpty() ) continue;
+
+			// Write everything that's waiting in one go
+			this._queue.drainTo( this._pending, this._capacity - this._pending.size() );
+			if ( this.writePending() ) continue;
+			if ( !this._running ) break; // Left for close()
+			try {
+				Thread.sleep( RETRY_DELAY );
+			} catch ( InterruptedException e ) {
+			}
+		}
+	}
+
+	/**
+	 * Write the pending batches, and count them as stored if that worked
+	 * @return False if the write failed and the batches are still pending
+	 */
+	private boolean writePending()
+	{
+		try {
+			this.write( this._pending );
+		} catch ( IOException e ) {
+			e.printStackTrace();
+			return false;
+		}
+		this._written += this._pending.size();
+		this._pending.clear();
+		return true;
+	}
+}
@@ -1,9 +1,10 @@
 package com.hcsmp.campfire;
 
-import java.util.Iterator;
+import java.util.HashMap;
 
-import org.bukkit.ChatColor;
+import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
@@ -16,19 +17,26 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.entity.EntityDamageByEntityEvent;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerCommandPreprocessEvent;
 import org.bukkit.event.player.PlayerInteractEntityEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 import org.bukkit.event.server.PluginDisableEvent;
 import org.bukkit.event.server.PluginEnableEvent;
+import org.bukkit.event.server.ServerCommandEvent;
 import org.bukkit.event.vehicle.VehicleDamageEvent;
 import org.bukkit.plugin.Plugin;
 import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
 import com.sk89q.worldguard.protection.ApplicableRegionSet;
 import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.managers.RegionManager;
 
 /**
  * Event listener
@@ -47,6 +55,21 @@ public class EventListener implements Listener
 	 */
 	private WorldGuardPlugin _worldguard;
 	
+	/**
+	 * Chunk maps of where the timer pauses - Keyed by world name
+	 */
+	private HashMap<String,RegionMap> _regionMaps;
+	
+	/**
+	 * Cached WorldGuard results for chunks the maps can't answer for - Keyed by world name
+	 */
+	private HashMap<String,RegionCache> _regionCaches;
+	
+	/**
+	 * Region lookups answered by the chunk maps or block caches, and ones that had to ask WorldGuard
+	 */
+	private StripedCounter _regionHits, _regionMisses;
+	
 	/**
 	 * Constructor
 	 * Register the references to the parent plugin and WorldGuard plugin
@@ -57,9 +80,33 @@ public class EventListener implements Listener
 	{
 		this._plugin = plugin;
 		this._worldguard = wg;
+		this._regionMaps = new HashMap<String,RegionMap>();
+		this._regionCaches = new HashMap<String,RegionCache>();
+		this._regionHits = plugin.getMetrics().counter( "regions.hits" );
+		this._regionMisses = plugin.getMetrics().counter( "regions.misses" );
 	}
 	
 	
+	/**
+	 * Switch to a new config snapshot
+	 * Looks for WorldGuard if it is wanted now, and drops the block caches since their size may have changed
+	 * @param settings New config snapshot
+	 */
+	public void reconfigure( Settings settings )
+	{
+		if ( settings.getWorldGuardPause() && this._worldguard == null )
+		{
+			Plugin p = this._plugin.getServer().getPluginManager().getPlugin( "WorldGuard" );
+			if ( p != null && p instanceof WorldGuardPlugin && p.isEnabled() )
+			{
+				System.out.println( "[Campfire] Found WorldGuard" );
+				this._worldguard = ( WorldGuardPlugin ) p;
+				this._regionMaps.clear();
+			}
+		}
+		this._regionCaches.clear();
+	}
+	
 	/**
 	 * Search for the WorldGuard plugin if we want it and mark the reference to it
 	 * @param e
@@ -68,7 +115,7 @@ public class EventListener implements Listener
 	public void onPluginLoad( PluginEnableEvent e )
 	{
 		//-- If we're not going to be using WorldGuard, don't bother looking for it
-		if ( !this._plugin.getConfig().getBoolean( "WorldGuardPause" ) ) return;
+		if ( !this._plugin.getSettings().getWorldGuardPause() ) return;
 		
 		//-- If we already have a reference, great, we're done
 		if ( this._worldguard != null ) return;
@@ -79,6 +126,8 @@ public class EventListener implements Listener
 		if ( !( p instanceof WorldGuardPlugin ) ) return;
 		System.out.println( "[Campfire] Found WorldGuard!" );
 		this._worldguard = ( WorldGuardPlugin ) p; 
+		this._regionMaps.clear();
+		this._regionCaches.clear();
 	}
 	
 	/**
@@ -97,6 +146,8 @@ public class EventListener implements Listener
 		if ( !( p instanceof WorldGuardPlugin ) ) return;
 		System.out.println( "[Campfire] WorldGuard disabled!" );
 		this._worldguard = null; 
+		this._regionMaps.clear();
+		this._regionCaches.clear();
 	}	
 	
 	/**
@@ -106,50 +157,146 @@ public class EventListener implements Listener
 	@EventHandler( priority = EventPriority.LOW )
 	public void onMove( PlayerMoveEvent e )
 	{
-		//-- Check that we are using WorldGuard areas, we have a valid reference, and the event wasn't cancelled
-		if ( !this._plugin.getConfig().getBoolean( "WorldGuardPause" ) ) return;
-		if ( this._worldguard == null ) return;
+		//-- Ignore cancelled moves
 		if ( e.isCancelled() ) return;
 		
-		//-- Ignore OPs and players who have the campfire immunity flag
+		//-- Regions only change from block to block, so ignore looking around and moving within a block
+		Location from = e.getFrom();
+		Location to = e.getTo();
+		if ( from.getBlockX() == to.getBlockX() && from.getBlockY() == to.getBlockY() && from.getBlockZ() == to.getBlockZ() && from.getWorld() == to.getWorld() ) return;
+		
+		//-- Keep the FireRadius grid up to date
 		Player player = e.getPlayer();
-		if ( player.isOp() ) return;
-		if ( player.hasPermission( "campfire.immune" ) ) return;
+		DataManager manager = this._plugin.getDataManager();
+		manager.playerMoved( player, to );
+		
+		//-- Check that we are using WorldGuard areas and we have a valid reference
+		if ( !this._plugin.getSettings().getWorldGuardPause() ) return;
+		if ( this._worldguard == null ) return;
+		
+		//-- Ignore OPs and players who have the campfire immunity flag
+		if ( manager.isImmune( player ) ) return;
 		
 		//-- Ignore players not under protection
-		DataManager manager = this._plugin.getDataManager();
-		String playerName = player.getName();
-		try {
-			if ( !manager.playerProtected( playerName ) ) return;
-		} catch ( CampfireDataException ex ) {
-			ex.printStackTrace();
-			return;
-		}
+		if ( manager.protectionStatus( player ) != DataManager.PROTECTED ) return;
 		
 		//-- Check if they are in NoPvP or Invincible regions
-		ApplicableRegionSet region = this._worldguard.getRegionManager( player.getWorld() ).getApplicableRegions( player.getLocation() );
-		boolean isProtected = !region.allows( DefaultFlag.PVP ) || region.allows( DefaultFlag.INVINCIBILITY );
+		boolean isProtected = this.isPaused( to );
 		
 		//-- Update the data manager with the current protection state
-		try {
-			boolean updated = manager.setPlayerWGProtected( isProtected, playerName );
-			if ( !updated ) return; // The state didn't change, so don't spam messages
-		} catch ( CampfireDataException ex ) {
-			ex.printStackTrace();
-			return;
-		}
+		boolean updated = manager.setPlayerWGProtected( isProtected, player );
+		if ( !updated ) return; // The state didn't change, so don't spam messages
 		
 		//-- Send the user a message since protection state was updated
 		if ( isProtected )
 		{
-			player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Entering protected zone." );
-			player.sendMessage( "Protection timer paused!" );
+			this._plugin.getMessages().send( player, Message.ZONE_ENTER );
 		} else {
-			player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Leaving protected zone." );
-			player.sendMessage( "Protection timer resumed!" );
+			this._plugin.getMessages().send( player, Message.ZONE_LEAVE );
 		}
 	}
 	
+	/**
+	 * Keep the FireRadius grid up to date when players teleport
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onTeleport( PlayerTeleportEvent e )
+	{
+		if ( e.isCancelled() ) return;
+		this._plugin.getDataManager().playerMoved( e.getPlayer(), e.getTo() );
+	}
+	
+	/**
+	 * Take dead players out of the FireRadius grid
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onPlayerDeath( PlayerDeathEvent e )
+	{
+		this._plugin.getDataManager().playerDied( e.getEntity() );
+	}
+	
+	/**
+	 * Does the protection timer pause at a location - Is it in a NoPvP or Invincible region
+	 * Chunks with the same result everywhere are answered by the chunk map, other blocks are cached
+	 * one by one until WorldGuard's regions are reloaded or changed
+	 * @param loc Location to check
+	 * @return True if the timer pauses
+	 */
+	private boolean isPaused( Location loc )
+	{
+		//-- Regions can be disabled per world
+		World world = loc.getWorld();
+		RegionManager manager = this._worldguard.getRegionManager( world );
+		if ( manager == null ) return false;
+		int x = loc.getBlockX();
+		int y = loc.getBlockY();
+		int z = loc.getBlockZ();
+		
+		//-- Reloading regions replaces the region manager, so the map is built again
+		RegionMap map = this._regionMaps.get( world.getName() );
+		if ( map == null || map.getManager() != manager )
+		{
+			map = new RegionMap( manager );
+			map.rebuild();
+			this._regionMaps.put( world.getName(), map );
+		}
+		if ( y >= 0 && y <= RegionMap.TOP )
+		{
+			int chunk = map.get( x >> 4, z >> 4 );
+			if ( chunk == RegionMap.RUNNING || chunk == RegionMap.PAUSED ) this._plugin.getMetrics().count( this._regionHits );
+			if ( chunk == RegionMap.RUNNING ) return false;
+			if ( chunk == RegionMap.PAUSED ) return true;
+			if ( chunk == RegionMap.UNRESOLVED )
+			{
+				this._plugin.getMetrics().count( this._regionMisses );
+				boolean paused = EventListener.query( manager, loc );
+				map.resolve( x >> 4, z >> 4, paused );
+				return paused;
+			}
+		}
+		
+		//-- Mixed chunk, so the result depends on the block
+		RegionCache cache = this._regionCaches.get( world.getName() );
+		if ( cache == null || cache.getManager() != manager )
+		{
+			cache = new RegionCache( manager, this._plugin.getSettings().getRegionCacheSize() );
+			this._regionCaches.put( world.getName(), cache );
+		}
+		int state = cache.get( x, y, z );
+		if ( state != RegionCache.UNKNOWN )
+		{
+			this._plugin.getMetrics().count( this._regionHits );
+			return state == RegionCache.PAUSED;
+		}
+		this._plugin.getMetrics().count( this._regionMisses );
+		boolean paused = EventListener.query( manager, loc );
+		cache.put( x, y, z, paused );
+		return paused;
+	}
+	
+	/**
+	 * Ask WorldGuard if a location is in a NoPvP or Invincible region
+	 * @param manager Region manager of the location's world
+	 * @param loc Location to check
+	 * @return True if the timer pauses
+	 */
+	private static boolean query( RegionManager manager, Location loc )
+	{
+		ApplicableRegionSet region = manager.getApplicableRegions( loc );
+		return !region.allows( DefaultFlag.PVP ) || region.allows( DefaultFlag.INVINCIBILITY );
+	}
+	
+	/**
+	 * Get the chunk maps of where the timer pauses
+	 * @return Chunk maps keyed by world name
+	 */
+	public HashMap<String,RegionMap> getRegionMaps()
+	{
+		return this._regionMaps;
+	}
+	
 	/**
 	 * Prevent PvP damage for players under protection
 	 * @param e
@@ -163,18 +310,11 @@ public class EventListener implements Listener
 		if ( target == null ) return;
 		
 		//-- Ignore OPs and players who have the campfire immunity flag
-		if ( target.isOp() ) return;
-		if ( target.hasPermission( "campfire.immune" ) ) return;
+		if ( this._plugin.getDataManager().isImmune( target ) ) return;
 		
 		//-- Get their protected status
-		String playerName = target.getName();
 		DataManager manager = this._plugin.getDataManager();
-		boolean isProtected = false;
-		try {
-			isProtected = manager.playerProtected( playerName );
-		} catch( CampfireDataException ex ) {
-			//-- They aren't in our list of players. Odd.
-		}
+		boolean isProtected = manager.protectionStatus( target ) == DataManager.PROTECTED;
 		
 		//-- Check if the player is being hurt by TnT
 		Entity attackerEntity = e.getDamager(); 
@@ -214,31 +354,40 @@ public class EventListener implements Listener
 		}
 		
 		//-- Ignore OPs and players who have the campfire immunity flag
-		if ( attacker.isOp() ) return;
-		if ( attacker.hasPermission( "campfire.immune" ) ) return;
+		if ( manager.isImmune( attacker ) ) return;
 		
 		//-- If the attacker is under protection, cancel
-		try {
-			if ( manager.playerProtected( attacker.getName() ) )
-			{
-				attacker.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + ChatColor.RED + "You cannot PvP at this time!" );
-				e.setCancelled( true );
-				return;
-			}
-		} catch( CampfireDataException ex ) {
-			ex.printStackTrace();
+		int attackerStatus = manager.protectionStatus( attacker );
+		if ( attackerStatus == DataManager.UNKNOWN ) return; // They aren't in our list of players, most likely a fake player
+		if ( attackerStatus == DataManager.PROTECTED )
+		{
+			this._plugin.getThrottle().send( attacker, Message.CANNOT_PVP );
+			e.setCancelled( true );
 			return;
 		}
 		
 		//-- If the victim is under protection, cancel
 		if ( isProtected )
 		{
-			attacker.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.GRAY + "] " + ChatColor.RED + "Player is protected from PvP!" );
+			this._plugin.getThrottle().send( attacker, Message.TARGET_PROTECTED );
 			e.setCancelled( true );
 			return;
 		}
 	}
 	
+	/**
+	 * Load returning players' data while they log in, off the main thread
+	 * Looking them up when they join is then only a map lookup, even if their data had been dropped from memory
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onPlayerPreLogin( AsyncPlayerPreLoginEvent e )
+	{
+		//-- Ignore logins another plugin turned away
+		if ( e.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED ) return;
+		this._plugin.getDataManager().prefetch( e.getName() );
+	}
+	
 	/**
 	 * Add players to the data manager if they are new
 	 * Let returning players know how much time they have left, if any
@@ -247,35 +396,29 @@ public class EventListener implements Listener
 	@EventHandler( priority = EventPriority.HIGH )
 	public void onPlayerJoin( PlayerJoinEvent e  )
 	{
-		//-- Ignore OPs and players who have the campfire immunity flag
+		//-- Ignore OPs and players who have the campfire immunity flag, remembering which they are
 		Player player = e.getPlayer();
-		if ( player.isOp() ) return;
-		if ( player.hasPermission( "campfire.immune" ) ) return;
+		DataManager manager = this._plugin.getDataManager();
+		if ( manager.checkImmunity( player ) ) return;
 		
 		//-- Add them to the data manager
 		String playerName = player.getName();
-		DataManager manager = this._plugin.getDataManager();
-		boolean added = manager.addPlayer( playerName );
+		boolean added = manager.addPlayer( player );
 		
-		//-- Send them a message
+		//-- Send them a message, players whose data is still loading get theirs once it's in
 		if ( added )
 		{
-			player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] Starting protection!" );
-			player.sendMessage( ChatColor.GRAY + "Type '/campfire' for info on PvP Protection" );
-		} else {
+			this._plugin.getMessages().send( player, Message.STARTING );
+		} else if ( manager.protectionStatus( player ) != DataManager.UNKNOWN ) {
 			try {
 				int timeleft = manager.getPlayerTimeLeft( playerName );
 				if ( timeleft == 0 ) return; // Expired, stay silent
-				player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + String.format("%02d", Math.round(timeleft/60.0)) + " min of protection left!" );
-				player.sendMessage( ChatColor.GRAY + "Type '/campfire' for info on PvP Protection" );
+				this._plugin.getMessages().send( player, Message.TIME_LEFT, Math.round( timeleft / 60.0 ) );
 			} catch( CampfireDataException ex ) {
 				ex.printStackTrace();
 				return;
 			}
 		}
-		
-		//-- Save the data to disk
-		manager.savePlayerData();
 	}
 	
 	/**
@@ -285,13 +428,83 @@ public class EventListener implements Listener
 	@EventHandler( priority = EventPriority.HIGH )
 	public void onPlayerQuit( PlayerQuitEvent e  )
 	{
-		//-- Ignore OPs and players who have the campfire immunity flag
-		Player player = e.getPlayer();
-		if ( player.isOp() ) return;
-		if ( player.hasPermission( "campfire.immune" ) ) return;
+		//-- Stop their clock and journal their time so far
+		//-- OPs and immune players are included, they may have been given it after their clock started
+		this._plugin.getDataManager().savePlayer( e.getPlayer() );
+		
+		//-- Forget which messages they were sent
+		this._plugin.getThrottle().remove( e.getPlayer() );
+	}
+	
+	/**
+	 * Permissions can be per world, so check immunity again when someone changes worlds
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onPlayerChangedWorld( PlayerChangedWorldEvent e )
+	{
+		this._plugin.getDataManager().checkImmunity( e.getPlayer() );
+	}
+	
+	/**
+	 * Watch for players running commands that change OP status or regions
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onPlayerCommand( PlayerCommandPreprocessEvent e )
+	{
+		if ( e.isCancelled() ) return;
+		this.checkCommand( e.getMessage().substring( 1 ) ); // Drop the slash
+	}
+	
+	/**
+	 * Watch for the console running commands that change OP status or regions
+	 * @param e
+	 */
+	@EventHandler( priority = EventPriority.MONITOR )
+	public void onServerCommand( ServerCommandEvent e )
+	{
+		this.checkCommand( e.getCommand() );
+	}
+	
+	/**
+	 * Catch up on whatever a command may have changed
+	 * @param command Command line without the slash
+	 */
+	private void checkCommand( String command )
+	{
+		String[] args = command.trim().split( " +" );
+		String name = args[0].toLowerCase();
+		
+		//-- Region commands can change regions in place, so forget everything cached and build the maps again
+		if ( name.equals( "region" ) || name.equals( "rg" ) || name.equals( "regions" ) || name.equals( "worldguard" ) || name.equals( "wg" ) )
+		{
+			this._regionCaches.clear();
+			for ( RegionMap map : this._regionMaps.values() ) map.invalidate();
+			this._plugin.getServer().getScheduler().scheduleSyncDelayedTask( this._plugin, new Runnable()
+			{
+				public void run()
+				{
+					for ( RegionMap map : EventListener.this._regionMaps.values() ) map.rebuild();
+				}
+			} ); // The command runs after this event
+			return;
+		}
+		
+		//-- Check the target's immunity again after op and deop
+		if ( args.length < 2 ) return;
+		if ( !name.equals( "op" ) && !name.equals( "deop" ) ) return;
 		
-		//-- Save player data
-		this._plugin.getDataManager().savePlayerData();
+		//-- The command runs after this event, so check on the next tick
+		final String target = args[1];
+		this._plugin.getServer().getScheduler().scheduleSyncDelayedTask( this._plugin, new Runnable()
+		{
+			public void run()
+			{
+				Player player = EventListener.this._plugin.getServer().getPlayerExact( target );
+				if ( player != null ) EventListener.this._plugin.getDataManager().checkImmunity( player );
+			}
+		} );
 	}
 	
 	/**
@@ -303,27 +516,31 @@ public class EventListener implements Listener
 	{
 		//-- Ignore OPs and players who have the campfire immunity flag
 		Player player = e.getPlayer();
-		if ( player.isOp() ) return;
-		if ( player.hasPermission( "campfire.immune" ) ) return;
+		if ( this._plugin.getDataManager().isImmune( player ) ) return;
+		
+		//-- Ignore players who aren't on our list, like fake players from other plugins
+		if ( this._plugin.getDataManager().protectionStatus( player ) == DataManager.UNKNOWN ) return;
 				
 		//-- Check if we're supposed to reset on death
-		if ( this._plugin.getConfig().getBoolean( "ResetOnDeath" ) )
+		if ( this._plugin.getSettings().getResetOnDeath() )
 		{
 			//-- Reset them and let them know
 			try {
 				this._plugin.getDataManager().resetPlayer( player.getName() );
-				player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + "You have died! Protection reset!" );
+				this._plugin.getMessages().send( player, Message.DIED_RESET );
 			} catch ( CampfireDataException ex ) {
 				//-- Player isn't on our list. Odd.
 			}
 		}
 		
+		//-- Back in the FireRadius grid if they are still protected
+		this._plugin.getDataManager().playerMoved( player, e.getRespawnLocation() );
+		
 		//-- Send them a message
 		try {
 			int timeleft = this._plugin.getDataManager().getPlayerTimeLeft( player.getName() );
 			if ( timeleft == 0 ) return; // Expired, stay silent
-			player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + String.format("%02d", Math.round(timeleft/60.0)) + " min of protection left!" );
-			player.sendMessage( ChatColor.GRAY + "Type '/campfire' for info on PvP Protection" );
+			this._plugin.getMessages().send( player, Message.TIME_LEFT, Math.round( timeleft / 60.0 ) );
 		} catch( CampfireDataException ex ) {
 			ex.printStackTrace();
 			return;
@@ -338,7 +555,7 @@ public class EventListener implements Listener
 	public void onPlayerInteractEntity( PlayerInteractEntityEvent e )
 	{
             // Check if usage is allowed in config file
-            boolean containers = this._plugin.getConfig().getBoolean("AllowContainers");
+            boolean containers = this._plugin.getSettings().getAllowContainers();
             if (!containers) {
 		//-- Ignore all other entities
 		Entity ent = e.getRightClicked();
@@ -346,26 +563,19 @@ public class EventListener implements Listener
 		
 		//-- Ignore  OPs and players who have the campfire immunity flag
 		Player player = e.getPlayer();
-		if ( player.isOp() ) return;
-		if ( player.hasPermission( "campfire.immune" ) ) return;
+		if ( this._plugin.getDataManager().isImmune( player ) ) return;
 
 		//-- Get protection status
 		DataManager manager = this._plugin.getDataManager();
-		String playerName = player.getName();
-		boolean isProtected = false;
-		try {
-			isProtected = manager.playerProtected( playerName );
-		} catch ( CampfireDataException ex ) {
-			ex.printStackTrace();
-			return;
-		}
+		int status = manager.protectionStatus( player );
+		if ( status == DataManager.UNKNOWN ) return;
+		boolean isProtected = status == DataManager.PROTECTED;
 		
 		//-- Ignore non-protected players
 		if ( !isProtected ) return;
 		
 		//-- Disallow protected players from using it
-		player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use storage and hopper carts while protected!" );
-		player.sendMessage( "Use '/campfire terminate' to end your protection early!" );
+		this._plugin.getThrottle().send( player, Message.NO_CART_USE );
 		e.setCancelled( true );
             }
 	}
@@ -378,7 +588,7 @@ public class EventListener implements Listener
 	public void onVehicleDamage( VehicleDamageEvent e )
 	{
         // Check if usage is allowed in config file
-        boolean containers = this._plugin.getConfig().getBoolean("AllowContainers");
+        boolean containers = this._plugin.getSettings().getAllowContainers();
         if (!containers) {
 		//-- Ignore all other vehicles
     		Vehicle v = e.getVehicle();  
@@ -388,26 +598,19 @@ public class EventListener implements Listener
     		Entity ent = e.getAttacker();
     		if ( !( ent instanceof Player ) ) return;
     		Player player = (Player)ent;
-    		if ( player.isOp() ) return;
-    		if ( player.hasPermission( "campfire.immune" ) ) return;
+    		if ( this._plugin.getDataManager().isImmune( player ) ) return;
     
     		//-- Get protection status
     		DataManager manager = this._plugin.getDataManager();
-    		String playerName = player.getName();
-    		boolean isProtected = false;
-    		try {
-    			isProtected = manager.playerProtected( playerName );
-    		} catch ( CampfireDataException ex ) {
-    			ex.printStackTrace();
-    			return;
-    		}
+    		int status = manager.protectionStatus( player );
+    		if ( status == DataManager.UNKNOWN ) return;
+    		boolean isProtected = status == DataManager.PROTECTED;
     		
     		//-- Ignore non-protected players
     		if ( !isProtected ) return;
     		
     		//-- Disallow protected players from breaking it
-    		player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot break storage and hopper carts while protected!" );
-    		player.sendMessage( "Use '/campfire terminate' to end your protection early!" );
+    		this._plugin.getThrottle().send( player, Message.NO_CART_BREAK );
     		e.setCancelled( true );
         }
 	}
@@ -421,19 +624,13 @@ public class EventListener implements Listener
 	{	
 		//-- Ignore OPs and players who have the campfire immunity flag
 		Player player = e.getPlayer();
-		if ( player.isOp() ) return;
-		if ( player.hasPermission( "campfire.immune" ) ) return;
+		if ( this._plugin.getDataManager().isImmune( player ) ) return;
 
 		//-- Get protection status
 		DataManager manager = this._plugin.getDataManager();
-		String playerName = player.getName();
-		boolean isProtected = false;
-		try {
-			isProtected = manager.playerProtected( playerName );
-		} catch ( CampfireDataException ex ) {
-			ex.printStackTrace();
-			return;
-		}
+		int status = manager.protectionStatus( player );
+		if ( status == DataManager.UNKNOWN ) return;
+		boolean isProtected = status == DataManager.PROTECTED;
 		
 		//-- Check for restricted items
 		Material itemInHand = player.getItemInHand().getType();
@@ -450,15 +647,14 @@ public class EventListener implements Listener
 			// Block restricted items
 			if ( restrictedItem )
 			{
-				player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use that item while protected!" );
-				player.sendMessage( "Use '/campfire terminate' to end your protection early!" );
+				this._plugin.getThrottle().send( player, Message.NO_ITEM );
 				e.setCancelled( true );
 				return;
 			}
 			
 			// Block chests and hoppers
                         // Check if usage is allowed in config file
-            boolean containers = this._plugin.getConfig().getBoolean("AllowContainers");
+            boolean containers = this._plugin.getSettings().getAllowContainers();
             if (!containers) {
                 Block clicked = e.getClickedBlock();
                 if ( clicked == null ) return; // No block clicked
@@ -469,16 +665,14 @@ public class EventListener implements Listener
                         blocktype == Material.STORAGE_MINECART
                         )
                 {
-                        player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use chests while protected!" );
-                        player.sendMessage( "Use '/campfire terminate' to end your protection early!" );
+                        this._plugin.getThrottle().send( player, Message.NO_CHESTS );
                         e.setCancelled( true );
                         return;
                 } else if (blocktype == Material.HOPPER || 
                         blocktype == Material.HOPPER_MINECART
                     )
                 {
-                        player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "You cannot use hoppers while protected!" );
-                        player.sendMessage( "Use '/campfire terminate' to end your protection early!" );
+                        this._plugin.getThrottle().send( player, Message.NO_HOPPERS );
                         e.setCancelled( true );
                         return;
                 }
@@ -486,36 +680,15 @@ public class EventListener implements Listener
 		}
 		
 		//-- Prevent non-protected players from using restricted items too close to protected players
-		int radius = this._plugin.getConfig().getInt( "FireRadius" );
+		int radius = this._plugin.getSettings().getFireRadius();
 		if ( radius > 0 && restrictedItem && !isProtected )
 		{
-			// Get nearby players
-			Iterator<Entity> nearby = player.getNearbyEntities( radius, radius, radius ).iterator();
-			while ( nearby.hasNext() )
+			// Only protected, living players who aren't immune are kept in the grid
+			if ( manager.findProtectedNear( player.getLocation(), radius, player ) != null )
 			{
-				// We only care about players
-				Entity ent = nearby.next();
-				if ( !( ent instanceof Player ) ) continue;
-				Player victim = (Player) ent;
-					
-				// Ignore the player, OPs, and players who have the campfire immunity flag
-				if ( victim.equals( player ) ) continue;	// The player we're already checking around
-				if ( victim.isDead() ) continue;			// Ignore dead people
-				if ( victim.isOp() ) continue;
-				if ( victim.hasPermission( "campfire.immune" ) ) continue;
-				
-				// If the victim is protected, cancel and tell the attacker 
-				try {
-					if ( manager.playerProtected( victim.getName() ) )
-					{
-						player.sendMessage( ChatColor.WHITE + "[" + ChatColor.GOLD + "PvP Protection" + ChatColor.WHITE + "] " + ChatColor.RED + "Too close to protected player!" );
-						e.setCancelled( true );
-						return;
-					}
-				} catch( CampfireDataException ex ) {
-					ex.printStackTrace();
-					return;
-				}
+				this._plugin.getThrottle().send( player, Message.TOO_CLOSE );
+				e.setCancelled( true );
+				return;
 			}
 		}
 	}
@@ -0,0 +1,162 @@
+package com.hcsmp.campfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Default player data store, a folder of snapshot shards plus a journal of changes
+ * Changes are appended to the journal, which is folded into the shards it touches once it grows past its limit
+ * @author bitdagger
+ *
+ */
+public class FileStore extends DataWriter implements PlayerStore
+{
+	/**
+	 * Single snapshot file kept by older versions, split into shards when the store is opened
+	 */
+	private final File _file;
+
+	/**
+	 * Snapshot shards
+	 */
+	private final DataShards _shards;
+
+	/**
+	 * Journal of changes made since the snapshot
+	 */
+	private final Journal _journal;
+
+	/**
+	 * Journal size in bytes that triggers compaction
+	 */
+	private final long _journalLimit;
+
+	/**
+	 * Persisted batch count when the shards were opened for lookups - Guarded by the shards
+	 */
+	private long _readerBatch;
+
+	/**
+	 * Has the store started closing, after which nothing is looked up - Guarded by the shards
+	 */
+	private boolean _closed;
+
+	/**
+	 * Constructor
+	 * @param file Single snapshot file kept by older versions
+	 * @param folder Folder for the snapshot shards
+	 * @param journal Journal file
+	 * @param journalLimit Journal size in bytes that triggers compaction
+	 * @param capacity Maximum number of record batches waiting to be written
+	 * @param map Memory-map the shards for lookups
+	 */
+	public FileStore( File file, File folder, File journal, long journalLimit, int capacity, boolean map )
+	{
+		super( capacity );
+		this._file = file;
+		this._shards = new DataShards( folder, map );
+		this._journal = new Journal( journal );
+		this._journalLimit = journalLimit;
+	}
+
+	/**
+	 * Read the snapshot index, replay the journal and start the writer
+	 * Journaled players stay in memory until the journal is folded into the snapshot
+	 * @param data Filled with journaled player data
+	 * @param index Filled with the record number of every known player
+	 * @param expired Filled instead of the index for players whose protection is over and aren't journaled
+	 * @throws IOException
+	 */
+	public void open( HashMap<String,PlayerData> data, HashMap<String,Integer> index, HashMap<String,Integer> expired ) throws IOException
+	{
+		//-- Bring a single snapshot file from an older version over
+		if ( DataFile.isSerialized( this._file ) )
+		{
+			System.out.println( "[Campfire] Converting serialized player data" );
+			DataFile.write( this._file, DataFile.readSerialized( this._file ) );
+		}
+		if ( this._file.exists() )
+		{
+			System.out.println( "[Campfire] Splitting " + this._file.getName() + " into " + this._shards.split( this._file ) + " shards" );
+			if ( !this._file.delete() ) throw new IOException( "Unable to delete " + this._file.getPath() );
+		}
+
+		this._shards.readIndex( index, expired );
+		Journal.replay( this._journal.getFile(), data, index, expired );
+
+		this._journal.open();
+		this.start();
+		this._readerBatch = this.getPersisted();
+	}
+
+	/**
+	 * Read a single player's record from the snapshot
+	 * Safe from any thread, lookups take turns on the shards' lock
+	 * @param name Lowercase player name
+	 * @param slot Record number
+	 * @return Player data, null if the record is unused
+	 * @throws IOException If the record can't be read, or the store is closing
+	 */
+	public PlayerData load( String name, int slot ) throws IOException
+	{
+		synchronized ( this._shards )
+		{
+			if ( this._closed ) throw new IOException( "Player data is closed, unable to load " + name );
+
+			// Shards are replaced whenever the journal is folded into them
+			if ( this.getPersisted() != this._readerBatch )
+			{
+				this._shards.closeReaders();
+				this._readerBatch = this.getPersisted();
+			}
+			return this._shards.read( slot );
+		}
+	}
+
+	/**
+	 * Append records to the journal and fold it into the snapshot once it gets big
+	 * @param batches Encoded records
+	 * @throws IOException
+	 */
+	protected void write( ArrayList<byte[]> batches ) throws IOException
+	{
+		for ( byte[] records : batches ) this._journal.append( records );
+		this._journal.sync();
+		if ( this._journal.size() > this._journalLimit ) this.compact( this.getWritten() + batches.size() );
+	}
+
+	/**
+	 * Fold the journal into the snapshot and close everything
+	 * Lookups are refused from here on, so none can open a shard again after it is closed
+	 * @throws IOException
+	 */
+	protected void finish() throws IOException
+	{
+		synchronized ( this._shards )
+		{
+			this._closed = true;
+		}
+		try {
+			this.compact( this.getWritten() );
+		} finally {
+			this._journal.close();
+			this._shards.closeReaders();
+		}
+	}
+
+	/**
+	 * Fold the journal into the shards it touches and empty it
+	 * If this is interrupted the old journal is still there, and folding it again is harmless
+	 * @param batches Number of batches in the journal and the shards, counting the ones being written
+	 * @throws IOException
+	 */
+	private void compact( long batches ) throws IOException
+	{
+		this._journal.sync();
+		this._shards.fold( this._journal.getFile() );
+		this._journal.reset();
+		this.setPersisted( batches );
+	}
+}
@@ -0,0 +1,279 @@
+package com.hcsmp.campfire;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.googlecode.flyway.core.Flyway;
+
+/**
+ * Player data store backed by a database
+ * The schema is managed with Flyway, and changes are written from the writer thread as batched upserts.
+ * Only standard SQL is used, so it runs on MySQL as well as on embedded databases like H2 or Derby.
+ * @author bitdagger
+ *
+ */
+public class JdbcStore extends DataWriter implements PlayerStore
+{
+	/**
+	 * Time in milliseconds to wait for a pooled connection
+	 */
+	private static final long TIMEOUT = 5000;
+
+	/**
+	 * JDBC url
+	 */
+	private final String _url;
+
+	/**
+	 * Database user
+	 */
+	private final String _user;
+
+	/**
+	 * Database password
+	 */
+	private final String _password;
+
+	/**
+	 * Connection pool
+	 */
+	private final ConnectionPool _pool;
+
+	/**
+	 * Constructor
+	 * @param url JDBC url
+	 * @param user Database user
+	 * @param password Database password
+	 * @param poolSize Maximum number of open connections
+	 * @param capacity Maximum number of record batches waiting to be written
+	 */
+	public JdbcStore( String url, String user, String password, int poolSize, int capacity )
+	{
+		super( capacity );
+		this._url = url;
+		this._user = user;
+		this._password = password;
+		this._pool = new ConnectionPool( url, user, password, poolSize );
+	}
+
+	/**
+	 * Bring the schema up to date, read the index of known players and start the writer
+	 * @param data Left empty, nothing is held back from the database
+	 * @param index Filled with the record number of every known player
+	 * @param expired Filled instead of the index for players whose protection is over
+	 * @throws IOException
+	 */
+	public void open( HashMap<String,PlayerData> data, HashMap<String,Integer> index, HashMap<String,Integer> expired ) throws IOException
+	{
+		//-- Migrations are looked up through the context class loader, which has to be ours to find them
+		Thread thread = Thread.currentThread();
+		ClassLoader loader = thread.getContextClassLoader();
+		thread.setContextClassLoader( this.getClass().getClassLoader() );
+		try {
+			Flyway flyway = new Flyway();
+			flyway.setDataSource( this._url, this._user, this._password );
+			flyway.setTable( "campfire_schema_version" );
+			flyway.setLocations( "db/migration/campfire" );
+			flyway.setInitOnMigrate( true );
+			flyway.migrate();
+		} catch ( RuntimeException e ) {
+			throw new IOException( "Database migration failed: " + e.getMessage() );
+		} finally {
+			thread.setContextClassLoader( loader );
+		}
+
+		//-- Read the index
+		Connection connection = null;
+		try {
+			connection = this._pool.borrow( TIMEOUT );
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet result = statement.executeQuery( "SELECT name, slot, flags FROM campfire_players" );
+				while ( result.next() )
+				{
+					boolean isProtected = ( result.getInt( 3 ) & PlayerRecord.FLAG_PROTECTED ) != 0;
+					( isProtected ? index : expired ).put( result.getString( 1 ), result.getInt( 2 ) );
+				}
+			} finally {
+				statement.close();
+			}
+		} catch ( SQLException e ) {
+			throw new IOException( "Unable to read players: " + e.getMessage() );
+		} finally {
+			this._pool.release( connection );
+		}
+
+		this.start();
+	}
+
+	/**
+	 * Read a single player's row
+	 * This runs on the calling thread and waits for the database, on a connection of its own from the pool
+	 * @param name Lowercase player name
+	 * @param slot Record number
+	 * @return Player data, null if there is no row for the player
+	 * @throws IOException
+	 */
+	public PlayerData load( String name, int slot ) throws IOException
+	{
+		Connection connection = null;
+		try {
+			connection = this._pool.borrow( TIMEOUT );
+			PreparedStatement select = connection.prepareStatement( "SELECT slot, elapsed, flags FROM campfire_players WHERE name = ?" );
+			try {
+				select.setString( 1, name );
+				ResultSet result = select.executeQuery();
+				if ( !result.next() ) return null;
+				int flags = result.getInt( 3 );
+				PlayerData data = new PlayerData( result.getLong( 2 ), ( flags & PlayerRecord.FLAG_PROTECTED ) != 0, ( flags & PlayerRecord.FLAG_WGZONE ) != 0 );
+				data.setSlot( result.getInt( 1 ) );
+				return data;
+			} finally {
+				select.close();
+			}
+		} catch ( SQLException e ) {
+			throw new IOException( "Unable to load " + name + ": " + e.getMessage() );
+		} finally {
+			this._pool.release( connection );
+		}
+	}
+
+	/**
+	 * Write the latest change for each player in one transaction
+	 * @param batches Encoded records
+	 * @throws IOException
+	 */
+	protected void write( ArrayList<byte[]> batches ) throws IOException
+	{
+		//-- Only the last change for each player matters, null values are removals
+		LinkedHashMap<String,PlayerData> changes = new LinkedHashMap<String,PlayerData>();
+		byte[] scratch = new byte[PlayerRecord.NAME_SIZE];
+		for ( byte[] records : batches )
+		{
+			ByteBuffer buf = ByteBuffer.wrap( records );
+			while ( buf.remaining() >= PlayerRecord.SIZE )
+			{
+				String name = PlayerRecord.readName( buf, scratch );
+				boolean put = PlayerRecord.readOp( buf ) == PlayerRecord.PUT;
+				PlayerData data = PlayerRecord.read( buf );
+				changes.remove( name ); // Keep the map in change order
+				changes.put( name, put ? data : null );
+			}
+		}
+		if ( changes.isEmpty() )
+		{
+			this.setPersisted( this.getWritten() + batches.size() );
+			return;
+		}
+
+		Connection connection = null;
+		try {
+			connection = this._pool.borrow( TIMEOUT );
+			connection.setAutoCommit( false );
+			this.upsert( connection, changes );
+			connection.commit();
+			this.setPersisted( this.getWritten() + batches.size() );
+		} catch ( SQLException e ) {
+			throw new IOException( "Unable to write " + changes.size() + " players, retrying: " + e.getMessage() );
+		} finally {
+			this._pool.release( connection );
+		}
+	}
+
+	/**
+	 * Write a set of changes
+	 * Rows are updated first, and players that didn't have a row yet are inserted
+	 * @param connection Connection with an open transaction
+	 * @param changes Latest change for each player, null values are removals
+	 * @throws SQLException
+	 */
+	private void upsert( Connection connection, LinkedHashMap<String,PlayerData> changes ) throws SQLException
+	{
+		PreparedStatement update = connection.prepareStatement( "UPDATE campfire_players SET slot = ?, elapsed = ?, flags = ? WHERE name = ?" );
+		PreparedStatement insert = connection.prepareStatement( "INSERT INTO campfire_players ( slot, elapsed, flags, name ) VALUES ( ?, ?, ?, ? )" );
+		PreparedStatement delete = connection.prepareStatement( "DELETE FROM campfire_players WHERE name = ?" );
+		PreparedStatement exists = null;
+		try {
+			//-- Updates and removals
+			ArrayList<String> updated = new ArrayList<String>();
+			for ( Map.Entry<String,PlayerData> entry : changes.entrySet() )
+			{
+				if ( entry.getValue() == null )
+				{
+					delete.setString( 1, entry.getKey() );
+					delete.addBatch();
+					continue;
+				}
+				JdbcStore.bind( update, entry.getKey(), entry.getValue() );
+				update.addBatch();
+				updated.add( entry.getKey() );
+			}
+			delete.executeBatch();
+			int[] counts = update.executeBatch();
+
+			//-- Inserts for anyone who didn't have a row
+			boolean inserts = false;
+			for ( int i = 0; i < counts.length; i++ )
+			{
+				if ( counts[i] > 0 ) continue; // Updated
+				String name = updated.get( i );
+				if ( counts[i] != 0 ) // The driver doesn't say, so look
+				{
+					if ( exists == null ) exists = connection.prepareStatement( "SELECT 1 FROM campfire_players WHERE name = ?" );
+					exists.setString( 1, name );
+					ResultSet result = exists.executeQuery();
+					try {
+						if ( result.next() ) continue;
+					} finally {
+						result.close();
+					}
+				}
+				JdbcStore.bind( insert, name, changes.get( name ) );
+				insert.addBatch();
+				inserts = true;
+			}
+			if ( inserts ) insert.executeBatch();
+		} finally {
+			update.close();
+			insert.close();
+			delete.close();
+			if ( exists != null ) exists.close();
+		}
+	}
+
+	/**
+	 * Bind a player's data to an update or insert statement
+	 * @param statement Statement taking slot, elapsed, flags and name
+	 * @param name Lowercase player name
+	 * @param data Player data
+	 * @throws SQLException
+	 */
+	private static void bind( PreparedStatement statement, String name, PlayerData data ) throws SQLException
+	{
+		int flags = 0;
+		if ( data.isProtected() ) flags |= PlayerRecord.FLAG_PROTECTED;
+		if ( data.isWG() ) flags |= PlayerRecord.FLAG_WGZONE;
+		statement.setInt( 1, data.getSlot() );
+		statement.setLong( 2, data.getElapsed() );
+		statement.setInt( 3, flags );
+		statement.setString( 4, name );
+	}
+
+	/**
+	 * Close the pool
+	 * @throws IOException
+	 */
+	protected void finish() throws IOException
+	{
+		this._pool.close();
+	}
+}
@@ -0,0 +1,202 @@
+package com.hcsmp.campfire;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+/**
+ * Append-only journal of player data changes
+ * Each change is a fixed-size PlayerRecord holding the full state of one player, so replaying the journal
+ * over the last snapshot any number of times gives the same result
+ * @author bitdagger
+ *
+ */
+public class Journal
+{
+	/**
+	 * Journal file identifier, "CFJL"
+	 */
+	private static final int MAGIC = 0x43464A4C;
+
+	/**
+	 * Journal format version
+	 */
+	private static final int VERSION = 1;
+
+	/**
+	 * Size of the file header in bytes
+	 */
+	private static final int HEADER_SIZE = 8;
+
+	/**
+	 * Journal file
+	 */
+	private final File _file;
+
+	/**
+	 * Open channel to the journal file
+	 */
+	private FileChannel _channel;
+
+	/**
+	 * Constructor
+	 * @param file Journal file
+	 */
+	public Journal( File file )
+	{
+		this._file = file;
+	}
+
+	/**
+	 * Get the journal file
+	 * @return Journal file
+	 */
+	public File getFile()
+	{
+		return this._file;
+	}
+
+	/**
+	 * Open the journal for appending
+	 * A partially written record at the end of the file is dropped
+	 * @throws IOException
+	 */
+	public void open() throws IOException
+	{
+		this._channel = new RandomAccessFile( this._file, "rw" ).getChannel();
+		long size = this._channel.size();
+		if ( size < HEADER_SIZE )
+		{
+			this.reset();
+			return;
+		}
+		Journal.checkHeader( this._channel );
+		this._channel.truncate( size - ( size - HEADER_SIZE ) % PlayerRecord.SIZE );
+		this._channel.position( this._channel.size() );
+	}
+
+	/**
+	 * Append records to the journal
+	 * @param records Encoded records
+	 * @throws IOException
+	 */
+	public void append( byte[] records ) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.wrap( records );
+		while ( buf.hasRemaining() ) this._channel.write( buf );
+	}
+
+	/**
+	 * Make sure everything appended so far is on disk
+	 * @throws IOException
+	 */
+	public void sync() throws IOException
+	{
+		this._channel.force( false );
+	}
+
+	/**
+	 * Get the size of the journal
+	 * @return Size in bytes
+	 * @throws IOException
+	 */
+	public long size() throws IOException
+	{
+		return this._channel.size();
+	}
+
+	/**
+	 * Drop every record, after they have been folded into a snapshot
+	 * @throws IOException
+	 */
+	public void reset() throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		header.putInt( MAGIC ).putInt( VERSION ).flip();
+		this._channel.truncate( 0 );
+		this._channel.position( 0 );
+		while ( header.hasRemaining() ) this._channel.write( header );
+		this._channel.force( false );
+	}
+
+	/**
+	 * Close the journal
+	 */
+	public void close()
+	{
+		if ( this._channel == null ) return;
+		try {
+			this._channel.close();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		this._channel = null;
+	}
+
+	/**
+	 * Read every whole record in a journal file
+	 * @param file Journal file
+	 * @return Buffer holding the records, empty if there is no journal
+	 * @throws IOException
+	 */
+	public static ByteBuffer readAll( File file ) throws IOException
+	{
+		FileChannel channel;
+		try {
+			channel = new FileInputStream( file ).getChannel();
+		} catch ( FileNotFoundException e ) {
+			return ByteBuffer.allocate( 0 ); // No journal, nothing has changed since the snapshot
+		}
+
+		try {
+			long size = channel.size();
+			if ( size < HEADER_SIZE ) return ByteBuffer.allocate( 0 );
+			Journal.checkHeader( channel );
+
+			// Drop a partially written record at the end
+			ByteBuffer buf = ByteBuffer.allocate( (int) ( size - HEADER_SIZE ) );
+			while ( buf.hasRemaining() && channel.read( buf ) >= 0 );
+			buf.flip();
+			buf.limit( buf.limit() - buf.limit() % PlayerRecord.SIZE );
+			return buf;
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Replay a journal file over a set of player data
+	 * @param file Journal file
+	 * @param data Player data to apply the records to
+	 * @param index Record numbers to apply the records to
+	 * @param expired Record numbers of expired players, journaled players are taken out
+	 * @return Number of records replayed
+	 * @throws IOException
+	 */
+	public static int replay( File file, HashMap<String,PlayerData> data, HashMap<String,Integer> index, HashMap<String,Integer> expired ) throws IOException
+	{
+		return PlayerRecord.apply( Journal.readAll( file ), data, index, expired );
+	}
+
+	/**
+	 * Make sure a channel points at a journal we understand
+	 * Leaves the channel positioned after the header
+	 * @param channel Channel to check
+	 * @throws IOException
+	 */
+	private static void checkHeader( FileChannel channel ) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate( HEADER_SIZE );
+		channel.position( 0 );
+		while ( header.hasRemaining() && channel.read( header ) >= 0 );
+		header.flip();
+		if ( header.getInt() != MAGIC ) throw new IOException( "Not a Campfire journal" );
+		int version = header.getInt();
+		if ( version != VERSION ) throw new IOException( "Unsupported journal version " + version );
+	}
+}
@@ -0,0 +1,188 @@
+package com.hcsmp.campfire;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed buckets - Each power of two of nanoseconds is split into 8 buckets,
+ * so recording is a few additions and percentiles are accurate to within about 12%
+ * @author bitdagger
+ *
+ */
+public class LatencyHistogram
+{
+	/**
+	 * Buckets per power of two, as a number of bits
+	 */
+	private static final int SUB_BITS = 3;
+
+	/**
+	 * Name shown in the stats
+	 */
+	private final String _name;
+
+	/**
+	 * Bucket counts
+	 */
+	private final AtomicLongArray _buckets;
+
+	/**
+	 * Number of values recorded
+	 */
+	private final StripedCounter _count;
+
+	/**
+	 * Sum of the values recorded in nanoseconds
+	 */
+	private final StripedCounter _total;
+
+	/**
+	 * Largest value recorded in nanoseconds
+	 */
+	private final AtomicLong _max;
+
+	/**
+	 * Constructor
+	 * @param name Name shown in the stats
+	 */
+	public LatencyHistogram( String name )
+	{
+		this._name = name;
+		this._buckets = new AtomicLongArray( 64 << SUB_BITS );
+		this._count = new StripedCounter();
+		this._total = new StripedCounter();
+		this._max = new AtomicLong();
+	}
+
+	/**
+	 * Record a latency
+	 * @param nanos Latency in nanoseconds, negative values count as 0
+	 */
+	public void record( long nanos )
+	{
+		if ( nanos < 0 ) nanos = 0;
+		this._buckets.incrementAndGet( LatencyHistogram.bucket( nanos ) );
+		this._count.increment();
+		this._total.add( nanos );
+		long max = this._max.get();
+		while ( nanos > max && !this._max.compareAndSet( max, nanos ) ) max = this._max.get();
+	}
+
+	/**
+	 * Forget everything recorded
+	 */
+	public void reset()
+	{
+		for ( int i = 0; i < this._buckets.length(); i++ ) this._buckets.set( i, 0 );
+		this._count.reset();
+		this._total.reset();
+		this._max.set( 0 );
+	}
+
+	/**
+	 * Get the name shown in the stats
+	 * @return Name
+	 */
+	public String getName()
+	{
+		return this._name;
+	}
+
+	/**
+	 * Get the number of latencies recorded
+	 * @return Count
+	 */
+	public long getCount()
+	{
+		return this._count.sum();
+	}
+
+	/**
+	 * Get the mean latency
+	 * @return Mean in microseconds, 0 if nothing was recorded
+	 */
+	public double getMean()
+	{
+		long count = this._count.sum();
+		return count == 0 ? 0 : this._total.sum() / 1000.0 / count;
+	}
+
+	/**
+	 * Get the median latency
+	 * @return Median in microseconds
+	 */
+	public double getP50()
+	{
+		return this.percentile( 50 );
+	}
+
+	/**
+	 * Get the 99th percentile latency
+	 * @return 99th percentile in microseconds
+	 */
+	public double getP99()
+	{
+		return this.percentile( 99 );
+	}
+
+	/**
+	 * Get the largest latency
+	 * @return Largest latency in microseconds
+	 */
+	public double getMax()
+	{
+		return this._max.get() / 1000.0;
+	}
+
+	/**
+	 * Get a percentile from the buckets
+	 * @param percent Percentile, 0 to 100
+	 * @return Upper bound of the bucket holding it in microseconds, never more than the largest latency
+	 */
+	public double percentile( double percent )
+	{
+		long[] counts = new long[this._buckets.length()];
+		long total = 0;
+		for ( int i = 0; i < counts.length; i++ )
+		{
+			counts[i] = this._buckets.get( i );
+			total += counts[i];
+		}
+		if ( total == 0 ) return 0;
+		long rank = Math.max( 1, (long) Math.ceil( total * percent / 100.0 ) );
+		long seen = 0;
+		long max = this._max.get();
+		for ( int i = 0; i < counts.length; i++ )
+		{
+			seen += counts[i];
+			if ( seen >= rank ) return Math.min( LatencyHistogram.upper( i ), max ) / 1000.0;
+		}
+		return max / 1000.0;
+	}
+
+	/**
+	 * Get the bucket of a latency
+	 * @param nanos Latency, not negative
+	 * @return Bucket
+	 */
+	private static int bucket( long nanos )
+	{
+		if ( nanos < ( 1 << SUB_BITS ) ) return (int) nanos;
+		int exponent = 63 - Long.numberOfLeadingZeros( nanos ); // At least SUB_BITS
+		int step = (int) ( nanos >>> ( exponent - SUB_BITS ) ) & ( ( 1 << SUB_BITS ) - 1 );
+		return ( ( exponent - SUB_BITS + 1 ) << SUB_BITS ) + step;
+	}
+
+	/**
+	 * Get the largest latency in a bucket
+	 * @param bucket Bucket
+	 * @return Largest latency in nanoseconds
+	 */
+	private static long upper( int bucket )
+	{
+		if ( bucket < ( 1 << SUB_BITS ) ) return bucket;
+		int exponent = ( bucket >>> SUB_BITS ) + SUB_BITS - 1;
+		long step = bucket & ( ( 1 << SUB_BITS ) - 1 );
+		return ( 1L << exponent ) + ( ( step + 1 ) << ( exponent - SUB_BITS ) ) - 1;
+	}
+}
@@ -0,0 +1,103 @@
+package com.hcsmp.campfire;
+
+/**
+ * Every message Campfire sends, with its key in messages.yml and the placeholders its template may use
+ * Placeholders starting with # are numbers, everything else is text
+ * @author bitdagger
+ *
+ */
+public enum Message
+{
+	//-- Protection timer
+	NOW_VULNERABLE( "now-vulnerable" ),
+	EXPIRED_BROADCAST( "expired-broadcast", "player" ),
+	EXPIRED_BROADCAST_MANY( "expired-broadcast-many", "#count" ),
+	EXPIRES_IN( "expires-in", "#minutes" ),
+	EXPIRES_IN_ONE( "expires-in-one" ),
+	ZONE_ENTER( "zone-enter" ),
+	ZONE_LEAVE( "zone-leave" ),
+	STARTING( "starting" ),
+	TIME_LEFT( "time-left", "#minutes" ),
+	DIED_RESET( "died-reset" ),
+
+	//-- Blocked actions
+	CANNOT_PVP( "cannot-pvp" ),
+	TARGET_PROTECTED( "target-protected" ),
+	NO_CART_USE( "no-cart-use" ),
+	NO_CART_BREAK( "no-cart-break" ),
+	NO_ITEM( "no-item" ),
+	NO_CHESTS( "no-chests" ),
+	NO_HOPPERS( "no-hoppers" ),
+	TOO_CLOSE( "too-close" ),
+	REPEATED( "repeated", "#count" ),
+
+	//-- Commands
+	ABOUT( "about", "pause", "#minutes" ),
+	ABOUT_PAUSE( "about-pause" ),
+	NO_PERMISSION( "no-permission" ),
+	PLAYERS_ONLY( "players-only" ),
+	ERROR( "error", "error" ),
+	RELOADED( "reloaded" ),
+	RESET_USAGE( "reset-usage" ),
+	RESET_DONE( "reset-done", "player" ),
+	RESET_FAILED( "reset-failed", "error" ),
+	RESET_NOTICE( "reset-notice" ),
+	ALREADY_EXPIRED( "already-expired" ),
+	TERMINATE_WARNING( "terminate-warning" ),
+	TERMINATED_BROADCAST( "terminated-broadcast", "player" ),
+	TERMINATED_BROADCAST_MANY( "terminated-broadcast-many", "#count" ),
+	TIMELEFT_EXPIRED( "timeleft-expired", "player" ),
+	TIMELEFT( "timeleft", "player", "#minutes" ),
+	REGIONS_HEADER( "regions-header" ),
+	REGIONS_NONE( "regions-none" ),
+	REGIONS_WORLD( "regions-world", "world", "uniform", "mixed", "lookups", "answered", "resolved", "exact", "building" ),
+	REGIONS_BUILDING( "regions-building" ),
+	STATS_HEADER( "stats-header" ),
+	STATS_DISABLED( "stats-disabled" ),
+	STATS_LATENCY( "stats-latency", "name", "count", "mean", "p50", "p99", "max" ),
+	STATS_CACHE( "stats-cache", "name", "hits", "misses", "rate" ),
+	STATS_SIZES( "stats-sizes", "known", "archived", "loaded", "tracked", "protected" ),
+	STATS_RESET( "stats-reset" ),
+	HELP( "help" ),
+	HELP_RESET( "help-reset" ),
+	HELP_RELOAD( "help-reload" );
+
+	/**
+	 * Key in messages.yml
+	 */
+	private final String _key;
+
+	/**
+	 * Placeholder names, in the order their values are passed
+	 */
+	private final String[] _params;
+
+	/**
+	 * Constructor
+	 * @param key Key in messages.yml
+	 * @param params Placeholder names
+	 */
+	private Message( String key, String... params )
+	{
+		this._key = key;
+		this._params = params;
+	}
+
+	/**
+	 * Get the key in messages.yml
+	 * @return Key
+	 */
+	public String getKey()
+	{
+		return this._key;
+	}
+
+	/**
+	 * Get the placeholder names
+	 * @return Placeholder names, # marks a number
+	 */
+	public String[] getParams()
+	{
+		return this._params;
+	}
+}
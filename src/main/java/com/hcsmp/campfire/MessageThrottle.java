@@ -0,0 +1,154 @@
+package com.hcsmp.campfire;
+
+import org.bukkit.entity.Player;
+
+/**
+ * Rate limits repeated messages to a player
+ * Time is cut into windows of MessageThrottle milliseconds and each message is sent at most once per window,
+ * repeats are counted and, if CollapseRepeats is on, shown as (xN) the next time the message gets through
+ * @author bitdagger
+ *
+ */
+public class MessageThrottle
+{
+	/**
+	 * Number of different messages remembered per player
+	 */
+	private static final int SLOTS = 4;
+
+	/**
+	 * Reference to the parent plugin
+	 */
+	private final Campfire _plugin;
+
+	/**
+	 * Recent messages of each player - Keyed by UUID
+	 */
+	private final UuidMap<Recent> _recent;
+
+	/**
+	 * Constructor
+	 * @param plugin Parent plugin
+	 */
+	public MessageThrottle( Campfire plugin )
+	{
+		this._plugin = plugin;
+		this._recent = new UuidMap<Recent>();
+	}
+
+	/**
+	 * Send a message unless it was already sent to the player in the current window
+	 * @param player Recipient
+	 * @param message Message without placeholders
+	 */
+	public void send( Player player, Message message )
+	{
+		Settings settings = this._plugin.getSettings();
+		Messages messages = this._plugin.getMessages();
+		long window = settings.getMessageThrottle();
+		if ( window <= 0 )
+		{
+			messages.send( player, message );
+			return;
+		}
+
+		//-- Find the message's slot, taking over the stalest one if it's new
+		long bucket = System.currentTimeMillis() / window;
+		Recent recent = this._recent.get( player.getUniqueId() );
+		if ( recent == null )
+		{
+			recent = new Recent();
+			this._recent.put( player.getUniqueId(), recent );
+		}
+		int slot = recent.find( message );
+		if ( slot < 0 )
+		{
+			slot = recent.oldest();
+			recent.messages[slot] = message;
+			recent.repeats[slot] = 0;
+		} else if ( recent.buckets[slot] == bucket ) {
+			recent.repeats[slot]++;
+			return;
+		}
+
+		//-- New window, so send it along with how often it was held back
+		int repeats = recent.repeats[slot];
+		recent.buckets[slot] = bucket;
+		recent.repeats[slot] = 0;
+		if ( repeats == 0 || !settings.getCollapseRepeats() )
+		{
+			messages.send( player, message );
+			return;
+		}
+		String[] lines = messages.get( message ).clone();
+		lines[lines.length - 1] += messages.get( Message.REPEATED, repeats + 1 )[0];
+		player.sendMessage( lines );
+	}
+
+	/**
+	 * Forget a player
+	 * @param player Player
+	 */
+	public void remove( Player player )
+	{
+		this._recent.remove( player.getUniqueId() );
+	}
+
+	/**
+	 * Forget everyone
+	 */
+	public void clear()
+	{
+		this._recent.clear();
+	}
+
+	/**
+	 * A player's most recent messages
+	 */
+	private static class Recent
+	{
+		/**
+		 * Messages, null marks a free slot
+		 */
+		final Message[] messages = new Message[SLOTS];
+
+		/**
+		 * Window each message was last sent in
+		 */
+		final long[] buckets = new long[SLOTS];
+
+		/**
+		 * Times each message was held back since it was last sent
+		 */
+		final int[] repeats = new int[SLOTS];
+
+		/**
+		 * Find a message
+		 * @param message Message
+		 * @return Slot, -1 if it isn't remembered
+		 */
+		int find( Message message )
+		{
+			for ( int i = 0; i < SLOTS; i++ )
+			{
+				if ( this.messages[i] == message ) return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * Find the slot to reuse for a new message
+		 * @return A free slot, or the one sent longest ago
+		 */
+		int oldest()
+		{
+			int oldest = 0;
+			for ( int i = 0; i < SLOTS; i++ )
+			{
+				if ( this.messages[i] == null ) return i;
+				if ( this.buckets[i] < this.buckets[oldest] ) oldest = i;
+			}
+			return oldest;
+		}
+	}
+}
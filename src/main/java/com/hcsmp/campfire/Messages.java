@@ -0,0 +1,205 @@
+package com.hcsmp.campfire;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+/**
+ * Catalog of compiled messages for one locale
+ * Text comes from plugins/Campfire/messages_&lt;locale&gt;.yml if the server has one, then the bundled
+ * messages_&lt;locale&gt;.yml, then the bundled English messages.yml for anything still missing
+ * @author bitdagger
+ *
+ */
+public class Messages
+{
+	/**
+	 * Compiled messages - Indexed by Message ordinal
+	 */
+	private final Template[] _templates;
+
+	/**
+	 * Constructor - Load and compile every message
+	 * @param plugin Parent plugin
+	 * @param locale Locale, e.g. en or de
+	 */
+	public Messages( Campfire plugin, String locale )
+	{
+		//-- Sources from most to least specific, any of them may be missing
+		YamlConfiguration[] sources = {
+			Messages.load( new File( plugin.getDataFolder(), "messages_" + locale + ".yml" ) ),
+			Messages.load( plugin.getResource( "messages_" + locale + ".yml" ) ),
+			Messages.load( plugin.getResource( "messages.yml" ) )
+		};
+
+		//-- Compile everything
+		String[] prefix = Messages.lookup( sources, "prefix" );
+		String compiledPrefix = Template.colour( prefix == null ? "" : prefix[0] );
+		Message[] messages = Message.values();
+		this._templates = new Template[messages.length];
+		for ( Message message : messages )
+		{
+			String[] lines = Messages.lookup( sources, message.getKey() );
+			if ( lines == null )
+			{
+				System.out.println( "[Campfire] Missing message " + message.getKey() );
+				lines = new String[] { message.getKey() };
+			}
+			this._templates[message.ordinal()] = new Template( message, lines, compiledPrefix );
+		}
+	}
+
+	/**
+	 * Render a message without placeholders
+	 * @param message Message
+	 * @return Lines, which must not be changed
+	 */
+	public String[] get( Message message )
+	{
+		return this._templates[message.ordinal()].render( null, 0 );
+	}
+
+	/**
+	 * Render a message with a text placeholder
+	 * @param message Message
+	 * @param text Value of the text placeholder
+	 * @return Lines, which must not be changed
+	 */
+	public String[] get( Message message, String text )
+	{
+		return this._templates[message.ordinal()].render( text, 0 );
+	}
+
+	/**
+	 * Render a message with a number placeholder
+	 * @param message Message
+	 * @param number Value of the number placeholder
+	 * @return Lines, which must not be changed
+	 */
+	public String[] get( Message message, long number )
+	{
+		return this._templates[message.ordinal()].render( null, number );
+	}
+
+	/**
+	 * Render a message with a text and a number placeholder
+	 * @param message Message
+	 * @param text Value of the text placeholder
+	 * @param number Value of the number placeholder
+	 * @return Lines, which must not be changed
+	 */
+	public String[] get( Message message, String text, long number )
+	{
+		return this._templates[message.ordinal()].render( text, number );
+	}
+
+	/**
+	 * Render a message with several text placeholders
+	 * @param message Message
+	 * @param texts Values of the text placeholders in order
+	 * @return Lines, which must not be changed
+	 */
+	public String[] getAll( Message message, String... texts )
+	{
+		return this._templates[message.ordinal()].render( texts );
+	}
+
+	/**
+	 * Send a message without placeholders
+	 * @param sender Recipient
+	 * @param message Message
+	 */
+	public void send( CommandSender sender, Message message )
+	{
+		sender.sendMessage( this.get( message ) );
+	}
+
+	/**
+	 * Send a message with a text placeholder
+	 * @param sender Recipient
+	 * @param message Message
+	 * @param text Value of the text placeholder
+	 */
+	public void send( CommandSender sender, Message message, String text )
+	{
+		sender.sendMessage( this.get( message, text ) );
+	}
+
+	/**
+	 * Send a message with a number placeholder
+	 * @param sender Recipient
+	 * @param message Message
+	 * @param number Value of the number placeholder
+	 */
+	public void send( CommandSender sender, Message message, long number )
+	{
+		sender.sendMessage( this.get( message, number ) );
+	}
+
+	/**
+	 * Send a message with a text and a number placeholder
+	 * @param sender Recipient
+	 * @param message Message
+	 * @param text Value of the text placeholder
+	 * @param number Value of the number placeholder
+	 */
+	public void send( CommandSender sender, Message message, String text, long number )
+	{
+		sender.sendMessage( this.get( message, text, number ) );
+	}
+
+	/**
+	 * Find a message in the first source that has it
+	 * @param sources Sources, entries may be null
+	 * @param key Key
+	 * @return Lines, null if no source has the key
+	 */
+	private static String[] lookup( YamlConfiguration[] sources, String key )
+	{
+		for ( YamlConfiguration source : sources )
+		{
+			if ( source == null || !source.contains( key ) ) continue;
+			if ( source.isList( key ) )
+			{
+				List<String> lines = source.getStringList( key );
+				return lines.toArray( new String[lines.size()] );
+			}
+			return new String[] { source.getString( key ) };
+		}
+		return null;
+	}
+
+	/**
+	 * Load a messages file from the data folder
+	 * @param file File
+	 * @return Contents, null if there is no such file
+	 */
+	private static YamlConfiguration load( File file )
+	{
+		if ( !file.exists() ) return null;
+		return YamlConfiguration.loadConfiguration( file );
+	}
+
+	/**
+	 * Load a bundled messages file
+	 * @param in Resource stream, may be null
+	 * @return Contents, null if there is no such resource
+	 */
+	private static YamlConfiguration load( InputStream in )
+	{
+		if ( in == null ) return null;
+		try {
+			return YamlConfiguration.loadConfiguration( in );
+		} finally {
+			try {
+				in.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
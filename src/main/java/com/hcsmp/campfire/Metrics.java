@@ -0,0 +1,256 @@
+package com.hcsmp.campfire;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Hot path metrics - Handler and task latencies, cache hit rates and player set sizes
+ * With the Metrics option off, recording is a single flag check
+ * @author bitdagger
+ *
+ */
+public class Metrics implements MetricsMXBean
+{
+	/**
+	 * JMX name of the metrics
+	 */
+	public static final String OBJECT_NAME = "com.hcsmp.campfire:type=Metrics";
+
+	/**
+	 * Is anything being recorded
+	 */
+	private volatile boolean _enabled;
+
+	/**
+	 * Latencies in the order they were created - Keyed by name
+	 */
+	private final LinkedHashMap<String,LatencyHistogram> _latencies;
+
+	/**
+	 * Counters in the order they were created - Keyed by name
+	 */
+	private final LinkedHashMap<String,StripedCounter> _counters;
+
+	/**
+	 * Player set sizes as of the last update
+	 */
+	private volatile long _known, _archived, _loaded, _tracked, _protected;
+
+	/**
+	 * Constructor
+	 * @param enabled Whether to record anything
+	 */
+	public Metrics( boolean enabled )
+	{
+		this._enabled = enabled;
+		this._latencies = new LinkedHashMap<String,LatencyHistogram>();
+		this._counters = new LinkedHashMap<String,StripedCounter>();
+	}
+
+	/**
+	 * Turn recording on or off, what was recorded so far is kept
+	 * @param enabled Whether to record anything
+	 */
+	public void setEnabled( boolean enabled )
+	{
+		this._enabled = enabled;
+	}
+
+	/**
+	 * Is anything being recorded
+	 * @return True if the Metrics option is on
+	 */
+	public boolean isEnabled()
+	{
+		return this._enabled;
+	}
+
+	/**
+	 * Get a latency histogram, creating it if it's new
+	 * Meant to be called once while setting up, not on the hot path
+	 * @param name Name shown in the stats
+	 * @return Latency histogram
+	 */
+	public synchronized LatencyHistogram latency( String name )
+	{
+		LatencyHistogram latency = this._latencies.get( name );
+		if ( latency == null )
+		{
+			latency = new LatencyHistogram( name );
+			this._latencies.put( name, latency );
+		}
+		return latency;
+	}
+
+	/**
+	 * Get a counter, creating it if it's new
+	 * Meant to be called once while setting up, not on the hot path
+	 * @param name Name shown in the stats
+	 * @return Counter
+	 */
+	public synchronized StripedCounter counter( String name )
+	{
+		StripedCounter counter = this._counters.get( name );
+		if ( counter == null )
+		{
+			counter = new StripedCounter();
+			this._counters.put( name, counter );
+		}
+		return counter;
+	}
+
+	/**
+	 * Start timing something
+	 * @return Start time to pass to stop(), 0 if recording is off
+	 */
+	public long start()
+	{
+		return this._enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the time since start()
+	 * @param latency Where to record it
+	 * @param started Value start() returned
+	 */
+	public void stop( LatencyHistogram latency, long started )
+	{
+		if ( started == 0 ) return;
+		latency.record( System.nanoTime() - started );
+	}
+
+	/**
+	 * Count something if recording is on
+	 * @param counter Counter
+	 */
+	public void count( StripedCounter counter )
+	{
+		if ( this._enabled ) counter.increment();
+	}
+
+	/**
+	 * Set the player set sizes
+	 * @param known Players in the index
+	 * @param archived Players in the index's archive
+	 * @param loaded Players whose data is in memory
+	 * @param tracked Online players being tracked
+	 * @param protectedCount Online players under protection
+	 */
+	public void setSizes( long known, long archived, long loaded, long tracked, long protectedCount )
+	{
+		this._known = known;
+		this._archived = archived;
+		this._loaded = loaded;
+		this._tracked = tracked;
+		this._protected = protectedCount;
+	}
+
+	/**
+	 * Register every @EventHandler of a listener, timing each one
+	 * Stands in for PluginManager.registerEvents
+	 * @param listener Listener
+	 * @param plugin Plugin the listener belongs to
+	 */
+	public void registerEvents( Listener listener, Plugin plugin )
+	{
+		for ( Method method : listener.getClass().getDeclaredMethods() )
+		{
+			EventHandler handler = method.getAnnotation( EventHandler.class );
+			if ( handler == null ) continue;
+			Class<?>[] params = method.getParameterTypes();
+			if ( params.length != 1 || !Event.class.isAssignableFrom( params[0] ) )
+			{
+				System.out.println( "[Campfire] Not an event handler: " + method.getName() );
+				continue;
+			}
+			Class<? extends Event> type = params[0].asSubclass( Event.class );
+			method.setAccessible( true );
+			plugin.getServer().getPluginManager().registerEvent( type, listener, handler.priority(),
+					new TimedExecutor( method, type, this ), plugin, handler.ignoreCancelled() );
+		}
+	}
+
+	/**
+	 * Make the metrics visible over JMX
+	 */
+	public void register()
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName( OBJECT_NAME );
+			if ( server.isRegistered( name ) ) server.unregisterMBean( name ); // Left over from a reload of the server
+			server.registerMBean( this, name );
+		} catch ( JMException e ) {
+			System.out.println( "[Campfire] Failed to register metrics with JMX: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Remove the metrics from JMX
+	 */
+	public void unregister()
+	{
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName( OBJECT_NAME );
+			if ( server.isRegistered( name ) ) server.unregisterMBean( name );
+		} catch ( JMException e ) {
+			System.out.println( "[Campfire] Failed to unregister metrics from JMX: " + e.getMessage() );
+		}
+	}
+
+	/**
+	 * Get the latency of each handler and task, in microseconds
+	 * @return Latencies keyed by name, a copy
+	 */
+	public synchronized Map<String,LatencyHistogram> getLatencies()
+	{
+		return new LinkedHashMap<String,LatencyHistogram>( this._latencies );
+	}
+
+	/**
+	 * Get the hit and miss counts of each cache
+	 * @return Counts keyed by cache name and .hits or .misses
+	 */
+	public synchronized Map<String,Long> getCounters()
+	{
+		LinkedHashMap<String,Long> counts = new LinkedHashMap<String,Long>();
+		for ( Map.Entry<String,StripedCounter> entry : this._counters.entrySet() ) counts.put( entry.getKey(), entry.getValue().sum() );
+		return counts;
+	}
+
+	/**
+	 * Get the size of the player sets, as of the last update
+	 * @return Sizes keyed by set name
+	 */
+	public Map<String,Long> getSizes()
+	{
+		LinkedHashMap<String,Long> sizes = new LinkedHashMap<String,Long>();
+		sizes.put( "known", this._known );
+		sizes.put( "archived", this._archived );
+		sizes.put( "loaded", this._loaded );
+		sizes.put( "tracked", this._tracked );
+		sizes.put( "protected", this._protected );
+		return sizes;
+	}
+
+	/**
+	 * Start counting from scratch
+	 */
+	public synchronized void reset()
+	{
+		for ( LatencyHistogram latency : this._latencies.values() ) latency.reset();
+		for ( StripedCounter counter : this._counters.values() ) counter.reset();
+	}
+}
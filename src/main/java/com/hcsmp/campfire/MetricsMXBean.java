@@ -0,0 +1,40 @@
+package com.hcsmp.campfire;
+
+import java.util.Map;
+
+/**
+ * JMX view of Campfire's metrics, registered as com.hcsmp.campfire:type=Metrics
+ * @author bitdagger
+ *
+ */
+public interface MetricsMXBean
+{
+	/**
+	 * Is anything being recorded
+	 * @return True if the Metrics option is on
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Get the latency of each handler and task, in microseconds
+	 * @return Latencies keyed by name
+	 */
+	public Map<String,LatencyHistogram> getLatencies();
+
+	/**
+	 * Get the hit and miss counts of each cache
+	 * @return Counts keyed by cache name and .hits or .misses
+	 */
+	public Map<String,Long> getCounters();
+
+	/**
+	 * Get the size of the player sets, as of the last update
+	 * @return Sizes keyed by set name
+	 */
+	public Map<String,Long> getSizes();
+
+	/**
+	 * Start counting from scratch
+	 */
+	public void reset();
+}
@@ -0,0 +1,313 @@
+package com.hcsmp.campfire;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+
+/**
+ * Immutable, compact map of player names to record numbers
+ * Names are sorted by their UTF-8 bytes and front coded in blocks: the first name of a block is stored whole, the
+ * others as the length of the prefix they share with the name before them plus the rest. A lookup binary searches
+ * the first names, then decodes one block. An entry costs around a dozen bytes instead of a hash map entry, a
+ * String and an Integer.
+ * @author bitdagger
+ *
+ */
+public final class NameArchive
+{
+	/**
+	 * Archive with no names
+	 */
+	public static final NameArchive EMPTY = new NameArchive( new byte[0], new int[0], new int[0] );
+
+	/**
+	 * Names per block
+	 */
+	private static final int BLOCK = 16;
+
+	/**
+	 * Longest name the archive holds, in bytes
+	 */
+	private static final int MAX_NAME = 255;
+
+	/**
+	 * Charset names are stored in
+	 */
+	private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+	/**
+	 * Orders names by their bytes, unsigned
+	 */
+	private static final Comparator<byte[]> ORDER = new Comparator<byte[]>()
+	{
+		public int compare( byte[] a, byte[] b )
+		{
+			return NameArchive.compare( a, 0, a.length, b );
+		}
+	};
+
+	/**
+	 * Front coded names
+	 */
+	private final byte[] _names;
+
+	/**
+	 * Offset in the names of the start of each block
+	 */
+	private final int[] _blocks;
+
+	/**
+	 * Record number of each name, in name order
+	 */
+	private final int[] _slots;
+
+	/**
+	 * Archives are only made by build()
+	 * @param names Front coded names
+	 * @param blocks Offset of each block
+	 * @param slots Record numbers
+	 */
+	private NameArchive( byte[] names, int[] blocks, int[] slots )
+	{
+		this._names = names;
+		this._blocks = blocks;
+		this._slots = slots;
+	}
+
+	/**
+	 * Get the number of names in the archive
+	 * @return Number of names
+	 */
+	public int size()
+	{
+		return this._slots.length;
+	}
+
+	/**
+	 * Get the size of the archive
+	 * @return Approximate size in bytes
+	 */
+	public long getBytes()
+	{
+		return this._names.length + 4L * ( this._blocks.length + this._slots.length );
+	}
+
+	/**
+	 * Look up a name
+	 * Safe from any thread
+	 * @param name Lowercase player name
+	 * @return Record number, -1 if the name isn't archived
+	 */
+	public int get( String name )
+	{
+		if ( this._blocks.length == 0 ) return -1;
+		byte[] key = name.getBytes( CHARSET );
+
+		//-- Find the last block starting at or before the name
+		int low = 0;
+		int high = this._blocks.length - 1;
+		while ( low < high )
+		{
+			int mid = ( low + high + 1 ) >>> 1;
+			int offset = this._blocks[mid];
+			if ( NameArchive.compare( this._names, offset + 1, this._names[offset] & 0xFF, key ) <= 0 ) low = mid;
+			else high = mid - 1;
+		}
+
+		//-- Decode the block until the name is found or passed
+		byte[] current = new byte[MAX_NAME];
+		int offset = this._blocks[low];
+		int length = this._names[offset++] & 0xFF;
+		System.arraycopy( this._names, offset, current, 0, length );
+		offset += length;
+		int entry = low * BLOCK;
+		int end = Math.min( entry + BLOCK, this._slots.length );
+		while ( true )
+		{
+			int c = NameArchive.compare( current, 0, length, key );
+			if ( c == 0 ) return this._slots[entry];
+			if ( c > 0 || ++entry == end ) return -1;
+			int shared = this._names[offset++] & 0xFF;
+			int rest = this._names[offset++] & 0xFF;
+			System.arraycopy( this._names, offset, current, shared, rest );
+			offset += rest;
+			length = shared + rest;
+		}
+	}
+
+	/**
+	 * Build a new archive from an old one and a set of names to add
+	 * Runs in time linear in the size of the old archive, plus sorting the names that are added
+	 * @param from Archive to start from
+	 * @param drop Names to leave out of the old archive, only the keys are used
+	 * @param add Names to add with their record numbers, replacing the old archive's entries
+	 * @return New archive
+	 */
+	public static NameArchive build( NameArchive from, Map<String,?> drop, Map<String,Integer> add )
+	{
+		//-- Sort the names that are added
+		ArrayList<byte[]> added = new ArrayList<byte[]>( add.size() );
+		for ( String name : add.keySet() )
+		{
+			byte[] bytes = name.getBytes( CHARSET );
+			if ( bytes.length <= MAX_NAME ) added.add( bytes );
+			else System.out.println( "[Campfire] Name too long to archive: " + name );
+		}
+		byte[][] sorted = added.toArray( new byte[added.size()][] );
+		Arrays.sort( sorted, ORDER );
+
+		//-- Merge them with the old names, in order
+		Writer writer = new Writer( from.size() + sorted.length );
+		byte[] current = new byte[MAX_NAME];
+		int offset = 0;
+		int length = 0;
+		int next = 0;
+		for ( int entry = 0; entry < from._slots.length; entry++ )
+		{
+			// Decode the next old name
+			if ( entry % BLOCK == 0 )
+			{
+				length = from._names[offset++] & 0xFF;
+				System.arraycopy( from._names, offset, current, 0, length );
+				offset += length;
+			} else {
+				int shared = from._names[offset++] & 0xFF;
+				int rest = from._names[offset++] & 0xFF;
+				System.arraycopy( from._names, offset, current, shared, rest );
+				offset += rest;
+				length = shared + rest;
+			}
+
+			// Added names that come before it
+			int c = -1;
+			while ( next < sorted.length && ( c = NameArchive.compare( sorted[next], 0, sorted[next].length, current, length ) ) < 0 )
+			{
+				writer.add( sorted[next], sorted[next].length, add.get( new String( sorted[next], CHARSET ) ) );
+				next++;
+			}
+			if ( next < sorted.length && c == 0 ) continue; // Replaced by the added name, which is written next round
+			String name = new String( current, 0, length, CHARSET );
+			if ( !drop.containsKey( name ) ) writer.add( current, length, from._slots[entry] );
+		}
+		for ( ; next < sorted.length; next++ ) writer.add( sorted[next], sorted[next].length, add.get( new String( sorted[next], CHARSET ) ) );
+		return writer.finish();
+	}
+
+	/**
+	 * Compare a name in a byte array against another name, byte by byte
+	 * @param bytes Array holding the first name
+	 * @param offset Start of the first name
+	 * @param length Length of the first name
+	 * @param key Second name
+	 * @return Negative, zero or positive as the first name sorts before, with or after the second
+	 */
+	private static int compare( byte[] bytes, int offset, int length, byte[] key )
+	{
+		return NameArchive.compare( bytes, offset, length, key, key.length );
+	}
+
+	/**
+	 * Compare a name in a byte array against the start of another array, byte by byte
+	 * @param bytes Array holding the first name
+	 * @param offset Start of the first name
+	 * @param length Length of the first name
+	 * @param key Array starting with the second name
+	 * @param keyLength Length of the second name
+	 * @return Negative, zero or positive as the first name sorts before, with or after the second
+	 */
+	private static int compare( byte[] bytes, int offset, int length, byte[] key, int keyLength )
+	{
+		int n = Math.min( length, keyLength );
+		for ( int i = 0; i < n; i++ )
+		{
+			int c = ( bytes[offset + i] & 0xFF ) - ( key[i] & 0xFF );
+			if ( c != 0 ) return c;
+		}
+		return length - keyLength;
+	}
+
+	/**
+	 * Encodes names handed over in order into a new archive
+	 */
+	private static final class Writer
+	{
+		/**
+		 * Front coded names so far
+		 */
+		private final ByteArrayOutputStream _names = new ByteArrayOutputStream();
+
+		/**
+		 * Block offsets so far
+		 */
+		private final int[] _blocks;
+
+		/**
+		 * Record numbers so far
+		 */
+		private final int[] _slots;
+
+		/**
+		 * Previous name
+		 */
+		private final byte[] _last = new byte[MAX_NAME];
+
+		/**
+		 * Length of the previous name
+		 */
+		private int _lastLength;
+
+		/**
+		 * Number of names so far
+		 */
+		private int _count;
+
+		/**
+		 * Constructor
+		 * @param capacity Most names that will be added
+		 */
+		Writer( int capacity )
+		{
+			this._blocks = new int[( capacity + BLOCK - 1 ) / BLOCK];
+			this._slots = new int[capacity];
+		}
+
+		/**
+		 * Add the next name
+		 * @param name Array starting with the name, which must sort after the previous one
+		 * @param length Length of the name
+		 * @param slot Record number
+		 */
+		void add( byte[] name, int length, int slot )
+		{
+			if ( this._count % BLOCK == 0 )
+			{
+				this._blocks[this._count / BLOCK] = this._names.size();
+				this._names.write( length );
+				this._names.write( name, 0, length );
+			} else {
+				int shared = 0;
+				int max = Math.min( length, this._lastLength );
+				while ( shared < max && name[shared] == this._last[shared] ) shared++;
+				this._names.write( shared );
+				this._names.write( length - shared );
+				this._names.write( name, shared, length - shared );
+			}
+			System.arraycopy( name, 0, this._last, 0, length );
+			this._lastLength = length;
+			this._slots[this._count++] = slot;
+		}
+
+		/**
+		 * Make the archive
+		 * @return Archive of every name added
+		 */
+		NameArchive finish()
+		{
+			int blocks = ( this._count + BLOCK - 1 ) / BLOCK;
+			return new NameArchive( this._names.toByteArray(), Arrays.copyOf( this._blocks, blocks ), Arrays.copyOf( this._slots, this._count ) );
+		}
+	}
+}
@@ -1,9 +1,20 @@
 package com.hcsmp.campfire;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.bukkit.entity.Player;
 
 /**
  * Holds player's campfire data
+ * Elapsed time is kept as the time counted before the current running interval plus the start of that
+ * interval, so it is worked out when it is read instead of being added up every second
+ * The clock and flags are one immutable snapshot replaced by compare and set, so any thread can read them
+ * without locking and every change is atomic. The timer and mark belong to the main thread
  * @author bitdagger
  *
  */
@@ -13,37 +24,81 @@ public class PlayerData implements Serializable
 	 * Serializable ID
 	 */
 	private static final long serialVersionUID = -9108869362947930490L;
+	
+	/**
+	 * Serialized form, kept the same as before the clock was computed on read so old data files still load
+	 */
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField( "_lastUpdate", long.class ),
+		new ObjectStreamField( "_timeElapsed", long.class ),
+		new ObjectStreamField( "_WGZone", boolean.class ),
+		new ObjectStreamField( "_protected", boolean.class )
+	};
 
 	/**
-	 * Timestamp of the last update in milliseconds
+	 * Updates the clock snapshot atomically
+	 */
+	private static final AtomicReferenceFieldUpdater<PlayerData,Clock> CLOCK = AtomicReferenceFieldUpdater.newUpdater( PlayerData.class, Clock.class, "_clock" );
+
+	/**
+	 * Clock and flags
+	 */
+	private transient volatile Clock _clock;
+	
+	/**
+	 * Record number in the data file, set before the data is shared
+	 */
+	private transient int _slot;
+	
+	/**
+	 * Batch of journal records holding the latest change to this data
+	 */
+	private transient volatile long _batch;
+	
+	/**
+	 * Timestamp of the last time this data was looked up in milliseconds
+	 */
+	private transient volatile long _lastAccess;
+	
+	/**
+	 * Timer for the next notification or expiry, created the first time it is scheduled
 	 */
-	private long _lastUpdate;
+	private transient TimingWheel.Timer<Player> _timer;
 	
 	/**
-	 * Amount of time elapsed in milliseconds
+	 * Seconds of protection left at the next notification, 0 for expiry
 	 */
-	private long _timeElapsed;
+	private transient long _mark;
 	
 	/**
-	 * WorldGuard protected zone flag
+	 * Is an online player being tracked with this data - Main thread only
 	 */
-	private boolean _WGZone;
+	private transient boolean _tracked;
 	
 	/**
-	 * Is the player protected from PvP
+	 * Is this data counted as a protected online player - Main thread only
 	 */
-	private boolean _protected;
+	private transient boolean _counted;
 	
 	/**
 	 * Constructor
-	 * Initialize defaults
+	 * Initialize defaults, the clock is stopped
 	 */
 	public PlayerData()
 	{
-		this._lastUpdate = System.currentTimeMillis();
-		this._timeElapsed = 0;
-		this._WGZone = false;
-		this._protected = true;
+		this._clock = Clock.FRESH;
+	}
+
+	/**
+	 * Constructor
+	 * Restore saved state, the clock is stopped
+	 * @param elapsed Amount of time elapsed in milliseconds
+	 * @param isProtected Is the player protected from PvP
+	 * @param wg WorldGuard protected zone flag
+	 */
+	public PlayerData( long elapsed, boolean isProtected, boolean wg )
+	{
+		this._clock = new Clock( elapsed, 0, false, wg, isProtected );
 	}
 
 	/**
@@ -52,7 +107,7 @@ public class PlayerData implements Serializable
 	 */
 	public boolean isProtected()
 	{
-		return this._protected;
+		return this._clock.isProtected;
 	}
 
 	/**
@@ -61,52 +116,327 @@ public class PlayerData implements Serializable
 	 */
 	public boolean isWG()
 	{
-		return this._WGZone;
+		return this._clock.wg;
 	}
 	
 	/**
 	 * Set the WG zone status
+	 * Entering a zone stops the clock, leaving one doesn't start it again
 	 * @param val
+	 * @param now Current timestamp in milliseconds
+	 */
+	public void setWG( boolean val, long now )
+	{
+		while ( true )
+		{
+			Clock clock = this._clock;
+			if ( clock.wg == val && ( !val || !clock.running ) ) return;
+			long accumulated = val ? clock.elapsed( now ) : clock.accumulated;
+			boolean running = !val && clock.running;
+			if ( CLOCK.compareAndSet( this, clock, new Clock( accumulated, clock.started, running, val, clock.isProtected ) ) ) return;
+		}
+	}
+
+	/**
+	 * Disable protection, stopping the clock
+	 * Only one caller wins if several try at once, so it doubles as check-then-terminate
+	 * @param now Current timestamp in milliseconds
+	 * @return True if this call ended the protection, false if it was already over
+	 */
+	public boolean unprotect( long now )
+	{
+		while ( true )
+		{
+			Clock clock = this._clock;
+			if ( !clock.isProtected ) return false;
+			if ( CLOCK.compareAndSet( this, clock, new Clock( clock.elapsed( now ), 0, false, clock.wg, false ) ) ) return true;
+		}
+	}
+	
+	/**
+	 * Start protection over, with the clock stopped and no time counted
+	 * The snapshot is swapped in one go, so a change racing with it either lands first and is wiped, or retries on
+	 * the fresh clock. Callers hold the player's lock anyway, to journal the reset along with it.
+	 */
+	public void reset()
+	{
+		CLOCK.set( this, Clock.FRESH );
+	}
+	
+	/**
+	 * Is the clock running
+	 * @return True if time is being counted
+	 */
+	public boolean isRunning()
+	{
+		return this._clock.running;
+	}
+	
+	/**
+	 * Start the clock, unless protection is over or paused by a WG zone
+	 * @param now Current timestamp in milliseconds
+	 * @return True if the clock is running
+	 */
+	public boolean start( long now )
+	{
+		while ( true )
+		{
+			Clock clock = this._clock;
+			if ( clock.running ) return true;
+			if ( !clock.isProtected || clock.wg ) return false;
+			if ( CLOCK.compareAndSet( this, clock, new Clock( clock.accumulated, now, true, false, true ) ) ) return true;
+		}
+	}
+	
+	/**
+	 * Stop the clock, keeping the time counted so far
+	 * @param now Current timestamp in milliseconds
 	 */
-	public void setWG( boolean val )
+	public void stop( long now )
 	{
-		this._WGZone = val;
+		while ( true )
+		{
+			Clock clock = this._clock;
+			if ( !clock.running ) return;
+			if ( CLOCK.compareAndSet( this, clock, new Clock( clock.elapsed( now ), 0, false, clock.wg, clock.isProtected ) ) ) return;
+		}
 	}
 
 	/**
-	 * Disable protection
+	 * Get total elapsed time
+	 * @param now Current timestamp in milliseconds
+	 * @return Elapsed time in milliseconds
 	 */
-	public void unprotect()
+	public long getElapsed( long now )
 	{
-		this._protected = false;
+		return this._clock.elapsed( now );
 	}
 
 	/**
 	 * Get total elapsed time
-	 * @return
+	 * @return Elapsed time in milliseconds
 	 */
 	public long getElapsed()
 	{
-		return this._timeElapsed;
+		return this.getElapsed( System.currentTimeMillis() );
 	}
-
+	
 	/**
-	 * Update the time elapsed
+	 * Write the old serialized fields, the elapsed time so far is saved with the clock stopped
+	 * @param out
+	 * @throws IOException
 	 */
-	public void update()
+	private void writeObject( ObjectOutputStream out ) throws IOException
 	{
-		if ( !this._WGZone )
-		{
-			this._timeElapsed += (System.currentTimeMillis() - this._lastUpdate);
-		}
-		this._lastUpdate = System.currentTimeMillis();
+		long now = System.currentTimeMillis();
+		Clock clock = this._clock;
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put( "_lastUpdate", now );
+		fields.put( "_timeElapsed", clock.elapsed( now ) );
+		fields.put( "_WGZone", clock.wg );
+		fields.put( "_protected", clock.isProtected );
+		out.writeFields();
 	}
 	
 	/**
-	 * Set the last updated time
+	 * Read the old serialized fields, the clock is stopped
+	 * @param in
+	 * @throws IOException
+	 * @throws ClassNotFoundException
 	 */
-	public void setLastUpdated()
+	private void readObject( ObjectInputStream in ) throws IOException, ClassNotFoundException
 	{
-		this._lastUpdate = System.currentTimeMillis();
+		ObjectInputStream.GetField fields = in.readFields();
+		this._clock = new Clock( fields.get( "_timeElapsed", 0L ), 0, false, fields.get( "_WGZone", false ), fields.get( "_protected", true ) );
+	}
+	
+	/**
+	 * Get the record number in the data file
+	 * @return Record number
+	 */
+	public int getSlot()
+	{
+		return this._slot;
+	}
+	
+	/**
+	 * Set the record number in the data file
+	 * @param slot Record number
+	 */
+	public void setSlot( int slot )
+	{
+		this._slot = slot;
+	}
+	
+	/**
+	 * Get the batch of journal records holding the latest change to this data
+	 * @return Batch number, 0 if unchanged since it was loaded
+	 */
+	public long getBatch()
+	{
+		return this._batch;
+	}
+	
+	/**
+	 * Set the batch of journal records holding the latest change to this data
+	 * @param batch Batch number
+	 */
+	public void setBatch( long batch )
+	{
+		this._batch = batch;
+	}
+	
+	/**
+	 * Get the last time this data was looked up
+	 * @return Timestamp in milliseconds
+	 */
+	public long getLastAccess()
+	{
+		return this._lastAccess;
+	}
+	
+	/**
+	 * Mark this data as just looked up
+	 * @param now Current timestamp in milliseconds
+	 */
+	public void touch( long now )
+	{
+		this._lastAccess = now;
+	}
+	
+	/**
+	 * Get the timer for the next notification or expiry
+	 * @return Timer, null if it was never scheduled
+	 */
+	public TimingWheel.Timer<Player> getTimer()
+	{
+		return this._timer;
+	}
+	
+	/**
+	 * Set the timer for the next notification or expiry
+	 * @param timer Timer
+	 */
+	public void setTimer( TimingWheel.Timer<Player> timer )
+	{
+		this._timer = timer;
+	}
+	
+	/**
+	 * Get the seconds of protection left at the next notification
+	 * @return Seconds left, 0 for expiry
+	 */
+	public long getMark()
+	{
+		return this._mark;
+	}
+	
+	/**
+	 * Set the seconds of protection left at the next notification
+	 * @param mark Seconds left, 0 for expiry
+	 */
+	public void setMark( long mark )
+	{
+		this._mark = mark;
+	}
+	
+	/**
+	 * Is an online player being tracked with this data
+	 * @return True if tracked
+	 */
+	public boolean isTracked()
+	{
+		return this._tracked;
+	}
+	
+	/**
+	 * Mark this data as tracked for an online player, or no longer tracked
+	 * @param tracked Is it tracked
+	 */
+	public void setTracked( boolean tracked )
+	{
+		this._tracked = tracked;
+	}
+	
+	/**
+	 * Is this data counted as a protected online player
+	 * @return True if counted
+	 */
+	public boolean isCounted()
+	{
+		return this._counted;
+	}
+	
+	/**
+	 * Mark this data as counted as a protected online player, or no longer counted
+	 * @param counted Is it counted
+	 */
+	public void setCounted( boolean counted )
+	{
+		this._counted = counted;
+	}
+	
+	/**
+	 * Immutable clock and flags
+	 */
+	private static final class Clock
+	{
+		/**
+		 * Protected with nothing counted
+		 */
+		static final Clock FRESH = new Clock( 0, 0, false, false, true );
+		
+		/**
+		 * Time in milliseconds counted before the current running interval
+		 */
+		final long accumulated;
+		
+		/**
+		 * Timestamp in milliseconds the current running interval started
+		 */
+		final long started;
+		
+		/**
+		 * Is the clock running
+		 */
+		final boolean running;
+		
+		/**
+		 * WorldGuard protected zone flag
+		 */
+		final boolean wg;
+		
+		/**
+		 * Is the player protected from PvP
+		 */
+		final boolean isProtected;
+		
+		/**
+		 * Constructor
+		 * @param accumulated Time in milliseconds counted before the current running interval
+		 * @param started Timestamp in milliseconds the current running interval started
+		 * @param running Is the clock running
+		 * @param wg WorldGuard protected zone flag
+		 * @param isProtected Is the player protected from PvP
+		 */
+		Clock( long accumulated, long started, boolean running, boolean wg, boolean isProtected )
+		{
+			this.accumulated = accumulated;
+			this.started = started;
+			this.running = running;
+			this.wg = wg;
+			this.isProtected = isProtected;
+		}
+		
+		/**
+		 * Get total elapsed time
+		 * @param now Current timestamp in milliseconds
+		 * @return Elapsed time in milliseconds
+		 */
+		long elapsed( long now )
+		{
+			if ( !this.running ) return this.accumulated;
+			return this.accumulated + Math.max( 0, now - this.started );
+		}
 	}
-}
\ No newline at end of file
+}
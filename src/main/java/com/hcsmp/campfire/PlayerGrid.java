@@ -0,0 +1,217 @@
+package com.hcsmp.campfire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+
+/**
+ * Spatial hash of players, bucketed by world and 16x16 block column
+ * Positions are copied in as players move, so a radius query only looks at the players in the
+ * few cells around it instead of every entity nearby
+ * @author bitdagger
+ *
+ */
+public class PlayerGrid
+{
+	/**
+	 * Bits of a block coordinate dropped to get its cell
+	 */
+	private static final int SHIFT = 4;
+
+	/**
+	 * Entries of everyone in the grid - Keyed by UUID
+	 */
+	private final UuidMap<Entry> _entries;
+
+	/**
+	 * Cells of each world - Keyed by world name, then packed cell coordinates
+	 */
+	private final HashMap<String,HashMap<Long,ArrayList<Entry>>> _worlds;
+
+	/**
+	 * Constructor
+	 */
+	public PlayerGrid()
+	{
+		this._entries = new UuidMap<Entry>();
+		this._worlds = new HashMap<String,HashMap<Long,ArrayList<Entry>>>();
+	}
+
+	/**
+	 * Get the number of players in the grid
+	 * @return Number of players
+	 */
+	public int size()
+	{
+		return this._entries.size();
+	}
+
+	/**
+	 * Add a player or move them to a new position
+	 * @param player Player
+	 * @param loc Player's position
+	 */
+	public void update( Player player, Location loc )
+	{
+		String world = loc.getWorld().getName();
+		long cell = PlayerGrid.cell( loc.getBlockX() >> SHIFT, loc.getBlockZ() >> SHIFT );
+		Entry entry = this._entries.get( player.getUniqueId() );
+		if ( entry == null )
+		{
+			entry = new Entry( player );
+			this._entries.put( player.getUniqueId(), entry );
+			this.link( entry, world, cell );
+		} else if ( entry.cell != cell || !entry.world.equals( world ) ) {
+			this.unlink( entry );
+			this.link( entry, world, cell );
+		}
+		entry.x = loc.getX();
+		entry.y = loc.getY();
+		entry.z = loc.getZ();
+	}
+
+	/**
+	 * Remove a player
+	 * @param player Player
+	 */
+	public void remove( Player player )
+	{
+		Entry entry = this._entries.remove( player.getUniqueId() );
+		if ( entry != null ) this.unlink( entry );
+	}
+
+	/**
+	 * Remove everyone
+	 */
+	public void clear()
+	{
+		this._entries.clear();
+		this._worlds.clear();
+	}
+
+	/**
+	 * Find a player within a cube around a location
+	 * Matches what getNearbyEntities() would find, allowing for the size of a player
+	 * @param center Center of the cube
+	 * @param radius Half the edge of the cube in blocks
+	 * @param exclude Player to leave out, may be null
+	 * @return A player in the cube, null if there is none
+	 */
+	public Player findNear( Location center, double radius, Player exclude )
+	{
+		HashMap<Long,ArrayList<Entry>> cells = this._worlds.get( center.getWorld().getName() );
+		if ( cells == null ) return null;
+		double x = center.getX();
+		double y = center.getY();
+		double z = center.getZ();
+		double horizontal = radius + 0.6; // Both players are 0.6 blocks wide
+		int minX = (int) Math.floor( x - horizontal ) >> SHIFT;
+		int maxX = (int) Math.floor( x + horizontal ) >> SHIFT;
+		int minZ = (int) Math.floor( z - horizontal ) >> SHIFT;
+		int maxZ = (int) Math.floor( z + horizontal ) >> SHIFT;
+		for ( int cx = minX; cx <= maxX; cx++ )
+		{
+			for ( int cz = minZ; cz <= maxZ; cz++ )
+			{
+				ArrayList<Entry> entries = cells.get( PlayerGrid.cell( cx, cz ) );
+				if ( entries == null ) continue;
+				for ( int i = 0; i < entries.size(); i++ )
+				{
+					Entry entry = entries.get( i );
+					if ( entry.player == exclude ) continue;
+					if ( Math.abs( entry.x - x ) > horizontal || Math.abs( entry.z - z ) > horizontal ) continue;
+					if ( entry.y - y > radius + 1.8 || y - entry.y > radius + 1.8 ) continue; // Both players are 1.8 blocks tall
+					return entry.player;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Put an entry in a cell
+	 * @param entry Entry
+	 * @param world World name
+	 * @param cell Packed cell coordinates
+	 */
+	private void link( Entry entry, String world, long cell )
+	{
+		HashMap<Long,ArrayList<Entry>> cells = this._worlds.get( world );
+		if ( cells == null )
+		{
+			cells = new HashMap<Long,ArrayList<Entry>>();
+			this._worlds.put( world, cells );
+		}
+		ArrayList<Entry> entries = cells.get( cell );
+		if ( entries == null )
+		{
+			entries = new ArrayList<Entry>( 2 );
+			cells.put( cell, entries );
+		}
+		entries.add( entry );
+		entry.world = world;
+		entry.cell = cell;
+	}
+
+	/**
+	 * Take an entry out of its cell, dropping the cell once it is empty
+	 * @param entry Entry
+	 */
+	private void unlink( Entry entry )
+	{
+		HashMap<Long,ArrayList<Entry>> cells = this._worlds.get( entry.world );
+		if ( cells == null ) return;
+		ArrayList<Entry> entries = cells.get( entry.cell );
+		if ( entries == null ) return;
+		entries.remove( entry );
+		if ( entries.isEmpty() ) cells.remove( entry.cell );
+	}
+
+	/**
+	 * Pack cell coordinates
+	 * @param cx Cell x
+	 * @param cz Cell z
+	 * @return Packed coordinates
+	 */
+	private static long cell( int cx, int cz )
+	{
+		return ( (long) cx << 32 ) | ( cz & 0xFFFFFFFFL );
+	}
+
+	/**
+	 * A player's place in the grid
+	 */
+	private static class Entry
+	{
+		/**
+		 * Player
+		 */
+		final Player player;
+
+		/**
+		 * World name
+		 */
+		String world;
+
+		/**
+		 * Packed cell coordinates
+		 */
+		long cell;
+
+		/**
+		 * Last known position
+		 */
+		double x, y, z;
+
+		/**
+		 * Constructor
+		 * @param player Player
+		 */
+		Entry( Player player )
+		{
+			this.player = player;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package com.hcsmp.campfire;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record numbers of every known player, keyed by lowercase name
+ * Players whose protection is over almost never change again and are most of the players a server has ever seen,
+ * so they are kept in a NameArchive. Everyone else is in a hash map that is looked at first, which also holds
+ * players who expired since the archive was built, and marks archived players who were removed since.
+ * Lookups are safe from any thread. Changes to a player must be made under that player's lock, and only one
+ * thread may archive at a time.
+ * @author bitdagger
+ *
+ */
+public class PlayerIndex
+{
+	/**
+	 * Entry in the hash map of an archived player who was removed
+	 */
+	private static final Slot REMOVED = new Slot( -1 );
+
+	/**
+	 * Players who aren't archived, and players who changed since
+	 */
+	private final ConcurrentHashMap<String,Slot> _hot;
+
+	/**
+	 * Archived players
+	 */
+	private volatile NameArchive _archive;
+
+	/**
+	 * Players in the hash map whose protection is over, waiting to be archived
+	 */
+	private final ConcurrentHashMap<String,Boolean> _retired;
+
+	/**
+	 * Constructor
+	 * @param hot Players whose protection is still running, or who may still change
+	 * @param expired Players whose protection is over
+	 */
+	public PlayerIndex( Map<String,Integer> hot, Map<String,Integer> expired )
+	{
+		this._hot = new ConcurrentHashMap<String,Slot>( hot.size() );
+		for ( Map.Entry<String,Integer> entry : hot.entrySet() ) this._hot.put( entry.getKey(), new Slot( entry.getValue() ) );
+		this._retired = new ConcurrentHashMap<String,Boolean>();
+		this._archive = NameArchive.build( NameArchive.EMPTY, hot, expired );
+	}
+
+	/**
+	 * Look up a player
+	 * @param name Lowercase player name
+	 * @return Record number, -1 if the player is unknown
+	 */
+	public int get( String name )
+	{
+		Slot slot = this._hot.get( name );
+		if ( slot != null ) return slot.value; // Removed players are -1
+		return this._archive.get( name );
+	}
+
+	/**
+	 * Add a player, or bring an archived one back into the hash map because their protection started again
+	 * Every put makes a new entry, so archiving can tell it apart from the one it saw even if the slot is the same
+	 * @param name Lowercase player name
+	 * @param slot Record number
+	 */
+	public void put( String name, int slot )
+	{
+		this._hot.put( name, new Slot( slot ) );
+		this._retired.remove( name );
+	}
+
+	/**
+	 * Remove a player
+	 * @param name Lowercase player name
+	 * @return Record number the player had, -1 if they were unknown
+	 */
+	public int remove( String name )
+	{
+		int slot = this.get( name );
+		if ( slot < 0 ) return -1;
+		this._retired.remove( name );
+		this._hot.put( name, REMOVED ); // Hides the archive's entry until it is built again
+		return slot;
+	}
+
+	/**
+	 * Note that a player's protection is over, so they are archived next time
+	 * @param name Lowercase player name
+	 */
+	public void retire( String name )
+	{
+		if ( this._hot.containsKey( name ) ) this._retired.put( name, Boolean.TRUE );
+	}
+
+	/**
+	 * Get the number of players waiting to be archived
+	 * @return Number of players
+	 */
+	public int getRetired()
+	{
+		return this._retired.size();
+	}
+
+	/**
+	 * Get the archive
+	 * @return Archived players
+	 */
+	public NameArchive getArchive()
+	{
+		return this._archive;
+	}
+
+	/**
+	 * Get the number of known players
+	 * Players who changed since they were archived are counted twice
+	 * @return Number of players
+	 */
+	public int size()
+	{
+		return this._hot.size() + this._archive.size();
+	}
+
+	/**
+	 * Build a new archive with everyone waiting to be archived, and drop them and the players marked removed
+	 * from the hash map
+	 * Lookups keep working throughout, the new archive is in place before anyone leaves the hash map
+	 * @return Number of players archived
+	 */
+	public int archive()
+	{
+		//-- Everyone waiting who is still in the hash map, and the entries they had
+		HashMap<String,Integer> add = new HashMap<String,Integer>();
+		HashMap<String,Slot> seen = new HashMap<String,Slot>();
+		for ( String name : this._retired.keySet() )
+		{
+			Slot slot = this._hot.get( name );
+			if ( slot == null || slot == REMOVED )
+			{
+				this._retired.remove( name );
+				continue;
+			}
+			add.put( name, slot.value );
+			seen.put( name, slot );
+		}
+
+		//-- Archived players in the hash map were removed or changed, so they are left out
+		NameArchive archive = NameArchive.build( this._archive, this._hot, add );
+		this._archive = archive;
+
+		//-- Only drop entries that are the very ones archived, or still removed and no longer archived
+		for ( Map.Entry<String,Slot> entry : seen.entrySet() )
+		{
+			String name = entry.getKey();
+			if ( archive.get( name ) != entry.getValue().value ) continue; // Couldn't be archived
+			if ( this._hot.remove( name, entry.getValue() ) ) this._retired.remove( name ); // Not if they were put again since
+		}
+		for ( Map.Entry<String,Slot> entry : this._hot.entrySet() )
+		{
+			if ( entry.getValue() == REMOVED && archive.get( entry.getKey() ) < 0 ) this._hot.remove( entry.getKey(), REMOVED );
+		}
+		return add.size();
+	}
+
+	/**
+	 * Record number in the hash map
+	 * Entries are only equal to themselves, so replacing one is noticed even when the record number stays the same
+	 */
+	private static final class Slot
+	{
+		/**
+		 * Record number, -1 for removed players
+		 */
+		final int value;
+
+		/**
+		 * Constructor
+		 * @param value Record number
+		 */
+		Slot( int value )
+		{
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,195 @@
+package com.hcsmp.campfire;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+
+/**
+ * Fixed-width binary record of a player's data, shared by the snapshot file and the journal
+ * Layout: op (1), flags (1), reserved (2), slot (4), elapsed ms (8), lowercase name (16, zero padded)
+ * @author bitdagger
+ *
+ */
+public final class PlayerRecord
+{
+	/**
+	 * Size of a single record in bytes
+	 */
+	public static final int SIZE = 32;
+
+	/**
+	 * Longest name a record can hold, in bytes
+	 */
+	public static final int NAME_SIZE = 16;
+
+	/**
+	 * Record holds the player's current state
+	 */
+	public static final byte PUT = 1;
+
+	/**
+	 * Record removes the player
+	 */
+	public static final byte REMOVE = 2;
+
+	/**
+	 * Offset of the slot field within a record
+	 */
+	public static final int SLOT_OFFSET = 4;
+
+	/**
+	 * Flag bit for protected players
+	 */
+	public static final byte FLAG_PROTECTED = 0x01;
+
+	/**
+	 * Flag bit for players in a WorldGuard protected zone
+	 */
+	public static final byte FLAG_WGZONE = 0x02;
+
+	/**
+	 * Charset names are stored in
+	 */
+	private static final Charset CHARSET = Charset.forName( "UTF-8" );
+
+	/**
+	 * Records are only encoded and decoded through the static methods
+	 */
+	private PlayerRecord()
+	{
+	}
+
+	/**
+	 * Encode a record holding a player's current state
+	 * @param buf Buffer to encode into, at its current position
+	 * @param name Lowercase player name
+	 * @param data Player data
+	 * @return False if the name doesn't fit in a record, nothing is written
+	 */
+	public static boolean put( ByteBuffer buf, String name, PlayerData data )
+	{
+		byte flags = 0;
+		if ( data.isProtected() ) flags |= FLAG_PROTECTED;
+		if ( data.isWG() ) flags |= FLAG_WGZONE;
+		return PlayerRecord.encode( buf, PUT, flags, data.getSlot(), data.getElapsed(), name );
+	}
+
+	/**
+	 * Encode a record removing a player
+	 * @param buf Buffer to encode into, at its current position
+	 * @param slot Record number the player had in the data file
+	 * @param name Lowercase player name
+	 * @return False if the name doesn't fit in a record, nothing is written
+	 */
+	public static boolean remove( ByteBuffer buf, int slot, String name )
+	{
+		return PlayerRecord.encode( buf, REMOVE, (byte) 0, slot, 0, name );
+	}
+
+	/**
+	 * Encode a record
+	 * @param buf Buffer to encode into
+	 * @param op Operation
+	 * @param flags Flag bits
+	 * @param slot Record number in the data file
+	 * @param elapsed Elapsed protection time in milliseconds
+	 * @param name Lowercase player name
+	 * @return False if the name doesn't fit in a record
+	 */
+	private static boolean encode( ByteBuffer buf, byte op, byte flags, int slot, long elapsed, String name )
+	{
+		byte[] bytes = name.getBytes( CHARSET );
+		if ( bytes.length > NAME_SIZE ) return false;
+		buf.put( op ).put( flags ).putShort( (short) 0 ).putInt( slot ).putLong( elapsed ).put( bytes );
+		for ( int i = bytes.length; i < NAME_SIZE; i++ ) buf.put( (byte) 0 );
+		return true;
+	}
+
+	/**
+	 * Decode every whole record left in a buffer and apply it to a set of player data
+	 * A partial record at the end is left in the buffer
+	 * @param buf Buffer to decode from, at its current position
+	 * @param data Player data to apply the records to
+	 * @param index Record numbers to apply the records to
+	 * @param expired Record numbers of expired players, every player a record is for is taken out
+	 * @return Number of records applied
+	 */
+	public static int apply( ByteBuffer buf, HashMap<String,PlayerData> data, HashMap<String,Integer> index, HashMap<String,Integer> expired )
+	{
+		byte[] name = new byte[NAME_SIZE];
+		int count = 0;
+		while ( buf.remaining() >= SIZE )
+		{
+			byte op = buf.get( buf.position() );
+			int slot = buf.getInt( buf.position() + SLOT_OFFSET );
+			String key = PlayerRecord.readName( buf, name );
+			expired.remove( key );
+			if ( op == PUT )
+			{
+				data.put( key, PlayerRecord.read( buf ) );
+				index.put( key, slot );
+			} else {
+				if ( op == REMOVE )
+				{
+					data.remove( key );
+					index.remove( key );
+				}
+				buf.position( buf.position() + SIZE );
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Decode the player data in a record
+	 * @param buf Buffer positioned at the start of the record, left positioned after it
+	 * @return Player data
+	 */
+	public static PlayerData read( ByteBuffer buf )
+	{
+		int start = buf.position();
+		byte flags = buf.get( start + 1 );
+		PlayerData data = new PlayerData( buf.getLong( start + 8 ), ( flags & FLAG_PROTECTED ) != 0, ( flags & FLAG_WGZONE ) != 0 );
+		data.setSlot( buf.getInt( start + SLOT_OFFSET ) );
+		buf.position( start + SIZE );
+		return data;
+	}
+
+	/**
+	 * Get the operation of a record
+	 * @param buf Buffer positioned at the start of the record
+	 * @return Operation, 0 for an unused slot
+	 */
+	public static byte readOp( ByteBuffer buf )
+	{
+		return buf.get( buf.position() );
+	}
+
+	/**
+	 * Decode the name in a record without moving the buffer
+	 * @param buf Buffer positioned at the start of the record
+	 * @param scratch Buffer of NAME_SIZE bytes to copy the name field into
+	 * @return Player name
+	 */
+	public static String readName( ByteBuffer buf, byte[] scratch )
+	{
+		int start = buf.position();
+		buf.position( start + SIZE - NAME_SIZE );
+		buf.get( scratch );
+		buf.position( start );
+		return PlayerRecord.decodeName( scratch );
+	}
+
+	/**
+	 * Decode a zero padded name
+	 * @param bytes Name field
+	 * @return Player name
+	 */
+	private static String decodeName( byte[] bytes )
+	{
+		int length = 0;
+		while ( length < bytes.length && bytes[length] != 0 ) length++;
+		return new String( bytes, 0, length, CHARSET );
+	}
+}
@@ -0,0 +1,52 @@
+package com.hcsmp.campfire;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Storage backend for player data
+ * Changes reach the store as batches of encoded PlayerRecords, which it persists on its own thread.
+ * @author bitdagger
+ *
+ */
+public interface PlayerStore
+{
+	/**
+	 * Open the store and start persisting changes
+	 * @param data Filled with player data that has to stay in memory until it is persisted
+	 * @param index Filled with the record number of every known player, keyed by lowercase name
+	 * @param expired Filled instead of the index for players whose protection is over and aren't held in memory
+	 * @throws IOException
+	 */
+	public void open( HashMap<String,PlayerData> data, HashMap<String,Integer> index, HashMap<String,Integer> expired ) throws IOException;
+
+	/**
+	 * Load a single player's data
+	 * Called from any thread but the main one, possibly from several at once
+	 * @param name Lowercase player name
+	 * @param slot Record number of the player
+	 * @return Player data, null if the store doesn't have it
+	 * @throws IOException
+	 */
+	public PlayerData load( String name, int slot ) throws IOException;
+
+	/**
+	 * Hand a batch of encoded records over to be persisted
+	 * @param records Encoded records, must not be modified afterwards
+	 * @return False if the store is behind and the batch was not accepted
+	 */
+	public boolean offer( byte[] records );
+
+	/**
+	 * Get the number of batches that load() is guaranteed to see
+	 * Batches are numbered from 1 in the order they are accepted by offer()
+	 * @return Number of batches
+	 */
+	public long getPersisted();
+
+	/**
+	 * Persist the last records and close the store, blocking until everything is stored
+	 * @param records Encoded records that were never handed over
+	 */
+	public void close( byte[] records );
+}
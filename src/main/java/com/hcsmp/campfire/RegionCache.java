@@ -0,0 +1,118 @@
+package com.hcsmp.campfire;
+
+import com.sk89q.worldguard.protection.managers.RegionManager;
+
+/**
+ * Bounded cache of WorldGuard results for one world - Whether the protection timer pauses at a block
+ * Direct mapped, so a lookup is one array probe and a newer block simply replaces whatever shared its slot
+ * @author bitdagger
+ *
+ */
+public class RegionCache
+{
+	/**
+	 * Nothing cached for the block
+	 */
+	public static final int UNKNOWN = 0;
+
+	/**
+	 * PvP is allowed at the block, the timer runs
+	 */
+	public static final int RUNNING = 1;
+
+	/**
+	 * PvP is denied or players are invincible at the block, the timer pauses
+	 */
+	public static final int PAUSED = 2;
+
+	/**
+	 * Region manager the results came from, a reload replaces it
+	 */
+	private final RegionManager _manager;
+
+	/**
+	 * Packed block positions
+	 */
+	private final long[] _keys;
+
+	/**
+	 * Cached results, UNKNOWN marks a free slot
+	 */
+	private final byte[] _states;
+
+	/**
+	 * Constructor
+	 * @param manager Region manager the results come from
+	 * @param size Number of blocks to hold, rounded up to a power of two
+	 */
+	public RegionCache( RegionManager manager, int size )
+	{
+		int capacity = Integer.highestOneBit( Math.max( 16, size ) - 1 ) << 1;
+		this._manager = manager;
+		this._keys = new long[capacity];
+		this._states = new byte[capacity];
+	}
+
+	/**
+	 * Get the region manager the results came from
+	 * @return Region manager
+	 */
+	public RegionManager getManager()
+	{
+		return this._manager;
+	}
+
+	/**
+	 * Look up a block
+	 * @param x Block x
+	 * @param y Block y
+	 * @param z Block z
+	 * @return UNKNOWN, RUNNING or PAUSED
+	 */
+	public int get( int x, int y, int z )
+	{
+		long key = RegionCache.pack( x, y, z );
+		int i = RegionCache.slot( key, this._keys.length );
+		if ( this._keys[i] != key ) return UNKNOWN;
+		return this._states[i];
+	}
+
+	/**
+	 * Remember the result for a block
+	 * @param x Block x
+	 * @param y Block y
+	 * @param z Block z
+	 * @param paused True if the timer pauses at the block
+	 */
+	public void put( int x, int y, int z, boolean paused )
+	{
+		long key = RegionCache.pack( x, y, z );
+		int i = RegionCache.slot( key, this._keys.length );
+		this._keys[i] = key;
+		this._states[i] = (byte) ( paused ? PAUSED : RUNNING );
+	}
+
+	/**
+	 * Pack a block position into a long, 26 bits each for x and z and 12 for y
+	 * @param x Block x
+	 * @param y Block y
+	 * @param z Block z
+	 * @return Packed position
+	 */
+	private static long pack( int x, int y, int z )
+	{
+		return ( ( x & 0x3FFFFFFL ) << 38 ) | ( ( z & 0x3FFFFFFL ) << 12 ) | ( y & 0xFFFL );
+	}
+
+	/**
+	 * Get the slot for a packed position
+	 * @param key Packed position
+	 * @param capacity Table size, a power of two
+	 * @return Slot
+	 */
+	private static int slot( long key, int capacity )
+	{
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) ( h >>> 40 ) & ( capacity - 1 );
+	}
+}
@@ -0,0 +1,620 @@
+package com.hcsmp.campfire;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sk89q.worldguard.protection.flags.DefaultFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag;
+import com.sk89q.worldguard.protection.flags.StateFlag.State;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.GlobalProtectedRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+
+/**
+ * Chunk map of one world telling which chunks have the same WorldGuard result everywhere
+ * A chunk is uniform when every region touching it covers the whole chunk column, so one exact query
+ * answers for all of it. The map is kept as bitsets per region file (32x32 chunks) and is built on a
+ * background thread from a snapshot of the region bounds, redoing only the region files whose regions
+ * changed. Results for uniform chunks are filled in on the main thread the first time they are needed.
+ * @author bitdagger
+ *
+ */
+public class RegionMap
+{
+	/**
+	 * The map can't answer for the chunk, query WorldGuard for the exact block
+	 */
+	public static final int UNKNOWN = 0;
+
+	/**
+	 * The chunk is uniform but its result isn't known yet, query any block in it and resolve()
+	 */
+	public static final int UNRESOLVED = 1;
+
+	/**
+	 * PvP is allowed in the whole chunk, the timer runs
+	 */
+	public static final int RUNNING = 2;
+
+	/**
+	 * PvP is denied or players are invincible in the whole chunk, the timer pauses
+	 */
+	public static final int PAUSED = 3;
+
+	/**
+	 * Highest block a region has to reach to cover a chunk column, the map only answers for blocks up to here
+	 */
+	public static final int TOP = 255;
+
+	/**
+	 * Region manager the map was built from
+	 */
+	private final RegionManager _manager;
+
+	/**
+	 * Built region files - Keyed by packed region file coordinates
+	 * Files no region touches are left out
+	 */
+	private final ConcurrentHashMap<Long,RegionFile> _files;
+
+	/**
+	 * Is a build waiting or running, lookups aren't answered until it is done
+	 */
+	private volatile boolean _building;
+
+	/**
+	 * Snapshot waiting to be built, only touched while holding the lock on the map
+	 */
+	private HashMap<String,Box> _next;
+
+	/**
+	 * Is the builder thread running, only touched while holding the lock on the map
+	 */
+	private boolean _running;
+
+	/**
+	 * Has the map been invalidated without a new snapshot yet, only touched while holding the lock on the map
+	 */
+	private boolean _stale;
+
+	/**
+	 * Snapshot the files were built from, only used by the builder thread
+	 */
+	private HashMap<String,Box> _built;
+
+	/**
+	 * Result for chunks in files no region touches
+	 */
+	private int _empty;
+
+	/**
+	 * Number of uniform chunks in built files
+	 */
+	private volatile int _uniformChunks;
+
+	/**
+	 * Number of mixed chunks in built files
+	 */
+	private volatile int _mixedChunks;
+
+	/**
+	 * Lookups answered by the map
+	 */
+	private long _hits;
+
+	/**
+	 * Lookups that needed one query to resolve a uniform chunk
+	 */
+	private long _resolves;
+
+	/**
+	 * Lookups the map couldn't answer
+	 */
+	private long _misses;
+
+	/**
+	 * Constructor
+	 * Nothing is answered until the first snapshot has been built
+	 * @param manager Region manager the map is built from
+	 */
+	public RegionMap( RegionManager manager )
+	{
+		this._manager = manager;
+		this._files = new ConcurrentHashMap<Long,RegionFile>();
+		this._built = new HashMap<String,Box>();
+		this._empty = UNRESOLVED;
+		this._building = true;
+	}
+
+	/**
+	 * Get the region manager the map was built from
+	 * @return Region manager
+	 */
+	public RegionManager getManager()
+	{
+		return this._manager;
+	}
+
+	/**
+	 * Look up a chunk, main thread only
+	 * @param cx Chunk x
+	 * @param cz Chunk z
+	 * @return UNKNOWN, UNRESOLVED, RUNNING or PAUSED
+	 */
+	public int get( int cx, int cz )
+	{
+		if ( this._building )
+		{
+			this._misses++;
+			return UNKNOWN;
+		}
+		RegionFile file = this._files.get( RegionMap.fileKey( cx >> 5, cz >> 5 ) );
+		int state = file == null ? this._empty : file.get( RegionMap.bit( cx, cz ) );
+		if ( state == RUNNING || state == PAUSED )
+		{
+			this._hits++;
+		} else if ( state == UNRESOLVED ) {
+			this._resolves++;
+		} else {
+			this._misses++;
+		}
+		return state;
+	}
+
+	/**
+	 * Fill in the result for a uniform chunk, main thread only
+	 * @param cx Chunk x
+	 * @param cz Chunk z
+	 * @param paused True if the timer pauses in the chunk
+	 */
+	public void resolve( int cx, int cz, boolean paused )
+	{
+		if ( this._building ) return;
+		RegionFile file = this._files.get( RegionMap.fileKey( cx >> 5, cz >> 5 ) );
+		if ( file == null )
+		{
+			this._empty = paused ? PAUSED : RUNNING;
+		} else {
+			file.resolve( RegionMap.bit( cx, cz ), paused );
+		}
+	}
+
+	/**
+	 * Stop answering lookups until the map is built again, main thread only
+	 */
+	public void invalidate()
+	{
+		synchronized ( this )
+		{
+			this._stale = true;
+			this._building = true;
+		}
+	}
+
+	/**
+	 * Take a snapshot of the regions and have it built in the background, main thread only
+	 * Lookups return UNKNOWN until the build is done
+	 */
+	public void rebuild()
+	{
+		//-- Only plain data leaves the main thread
+		HashMap<String,Box> snapshot = new HashMap<String,Box>();
+		for ( Map.Entry<String,ProtectedRegion> entry : this._manager.getRegions().entrySet() )
+		{
+			snapshot.put( entry.getKey(), new Box( entry.getValue() ) );
+		}
+		this._empty = UNRESOLVED;
+
+		synchronized ( this )
+		{
+			this._building = true;
+			this._stale = false;
+			this._next = snapshot; // A newer snapshot replaces one that hasn't been started on
+			if ( this._running ) return;
+			this._running = true;
+		}
+		Thread thread = new Thread( new Runnable()
+		{
+			public void run() { RegionMap.this.build(); }
+		}, "Campfire Region Map" );
+		thread.setDaemon( true );
+		thread.start();
+	}
+
+	/**
+	 * Build snapshots until there are none left, on the builder thread
+	 */
+	private void build()
+	{
+		while ( true )
+		{
+			HashMap<String,Box> snapshot;
+			synchronized ( this )
+			{
+				snapshot = this._next;
+				this._next = null;
+				if ( snapshot == null )
+				{
+					this._running = false;
+					this._building = this._stale;
+					return;
+				}
+			}
+			try {
+				this.build( snapshot );
+			} catch ( RuntimeException e ) {
+				e.printStackTrace();
+				this._files.clear();
+				this._built = new HashMap<String,Box>(); // Start over with the next snapshot
+			}
+		}
+	}
+
+	/**
+	 * Redo the region files touched by regions that changed since the last snapshot
+	 * @param snapshot Region bounds keyed by id
+	 */
+	private void build( HashMap<String,Box> snapshot )
+	{
+		//-- Region files touched by added, removed or changed regions
+		HashSet<Long> dirty = new HashSet<Long>();
+		boolean everything = false;
+		for ( Map.Entry<String,Box> entry : snapshot.entrySet() )
+		{
+			Box old = this._built.get( entry.getKey() );
+			if ( entry.getValue().equals( old ) ) continue;
+			everything |= entry.getValue().addFiles( dirty );
+			if ( old != null ) everything |= old.addFiles( dirty );
+		}
+		for ( Map.Entry<String,Box> entry : this._built.entrySet() )
+		{
+			if ( !snapshot.containsKey( entry.getKey() ) ) everything |= entry.getValue().addFiles( dirty );
+		}
+		if ( everything ) // The global region changed, which affects every chunk
+		{
+			dirty.addAll( this._files.keySet() );
+			for ( Box box : snapshot.values() ) box.addFiles( dirty );
+		}
+
+		//-- Regions touching each dirty file
+		HashMap<Long,ArrayList<Box>> touching = new HashMap<Long,ArrayList<Box>>();
+		for ( Box box : snapshot.values() )
+		{
+			if ( box.isGlobal() ) continue;
+			for ( int fx = box.minX >> 9; fx <= box.maxX >> 9; fx++ )
+			{
+				for ( int fz = box.minZ >> 9; fz <= box.maxZ >> 9; fz++ )
+				{
+					Long key = RegionMap.fileKey( fx, fz );
+					if ( !dirty.contains( key ) ) continue;
+					ArrayList<Box> boxes = touching.get( key );
+					if ( boxes == null )
+					{
+						boxes = new ArrayList<Box>();
+						touching.put( key, boxes );
+					}
+					boxes.add( box );
+				}
+			}
+		}
+
+		//-- Rebuild them, files no region touches any more are dropped
+		int mixed = this._mixedChunks;
+		for ( Long key : dirty )
+		{
+			ArrayList<Box> boxes = touching.get( key );
+			RegionFile file = boxes == null ? null : new RegionFile( key, boxes );
+			RegionFile old = file == null ? this._files.remove( key ) : this._files.put( key, file );
+			if ( old != null ) mixed -= old.countMixed();
+			if ( file != null ) mixed += file.countMixed();
+		}
+		this._mixedChunks = mixed;
+		this._uniformChunks = this._files.size() * 1024 - mixed;
+		this._built = snapshot;
+	}
+
+	/**
+	 * Get the number of uniform chunks in region files touched by a region
+	 * @return Number of chunks
+	 */
+	public int getUniformChunks()
+	{
+		return this._uniformChunks;
+	}
+
+	/**
+	 * Get the number of mixed chunks
+	 * @return Number of chunks
+	 */
+	public int getMixedChunks()
+	{
+		return this._mixedChunks;
+	}
+
+	/**
+	 * Get the number of lookups answered by the map
+	 * @return Number of lookups
+	 */
+	public long getHits()
+	{
+		return this._hits;
+	}
+
+	/**
+	 * Get the number of lookups that needed a query to resolve a uniform chunk
+	 * @return Number of lookups
+	 */
+	public long getResolves()
+	{
+		return this._resolves;
+	}
+
+	/**
+	 * Get the number of lookups the map couldn't answer
+	 * @return Number of lookups
+	 */
+	public long getMisses()
+	{
+		return this._misses;
+	}
+
+	/**
+	 * Is a build waiting or running
+	 * @return True if building
+	 */
+	public boolean isBuilding()
+	{
+		return this._building;
+	}
+
+	/**
+	 * Pack region file coordinates
+	 * @param fx Region file x
+	 * @param fz Region file z
+	 * @return Key
+	 */
+	private static long fileKey( int fx, int fz )
+	{
+		return ( (long) fx << 32 ) | ( fz & 0xFFFFFFFFL );
+	}
+
+	/**
+	 * Get a chunk's bit within its region file
+	 * @param cx Chunk x
+	 * @param cz Chunk z
+	 * @return Bit index
+	 */
+	private static int bit( int cx, int cz )
+	{
+		return ( ( cz & 31 ) << 5 ) | ( cx & 31 );
+	}
+
+	/**
+	 * Chunk bitsets of one region file
+	 */
+	private static class RegionFile
+	{
+		/**
+		 * Chunks some region only partly covers
+		 */
+		private final long[] _mixed = new long[16];
+
+		/**
+		 * Uniform chunks whose result is known, only touched by the main thread
+		 */
+		private final long[] _resolved = new long[16];
+
+		/**
+		 * Uniform chunks where the timer pauses, only touched by the main thread
+		 */
+		private final long[] _paused = new long[16];
+
+		/**
+		 * Constructor
+		 * @param key Packed region file coordinates
+		 * @param boxes Regions touching the file
+		 */
+		public RegionFile( long key, ArrayList<Box> boxes )
+		{
+			int baseX = (int) ( key >> 32 ) << 5;
+			int baseZ = (int) key << 5;
+			for ( Box box : boxes )
+			{
+				int minX = Math.max( box.minX >> 4, baseX );
+				int maxX = Math.min( box.maxX >> 4, baseX + 31 );
+				int minZ = Math.max( box.minZ >> 4, baseZ );
+				int maxZ = Math.min( box.maxZ >> 4, baseZ + 31 );
+				for ( int cz = minZ; cz <= maxZ; cz++ )
+				{
+					for ( int cx = minX; cx <= maxX; cx++ )
+					{
+						if ( box.covers( cx, cz ) ) continue;
+						int bit = RegionMap.bit( cx, cz );
+						this._mixed[bit >> 6] |= 1L << bit;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Look up a chunk
+		 * @param bit Chunk bit
+		 * @return UNKNOWN, UNRESOLVED, RUNNING or PAUSED
+		 */
+		public int get( int bit )
+		{
+			long mask = 1L << bit;
+			int word = bit >> 6;
+			if ( ( this._mixed[word] & mask ) != 0 ) return UNKNOWN;
+			if ( ( this._resolved[word] & mask ) == 0 ) return UNRESOLVED;
+			return ( this._paused[word] & mask ) != 0 ? PAUSED : RUNNING;
+		}
+
+		/**
+		 * Fill in the result for a uniform chunk
+		 * @param bit Chunk bit
+		 * @param paused True if the timer pauses in the chunk
+		 */
+		public void resolve( int bit, boolean paused )
+		{
+			long mask = 1L << bit;
+			int word = bit >> 6;
+			if ( ( this._mixed[word] & mask ) != 0 ) return;
+			this._resolved[word] |= mask;
+			if ( paused ) this._paused[word] |= mask;
+		}
+
+		/**
+		 * Count the mixed chunks
+		 * @return Number of chunks
+		 */
+		public int countMixed()
+		{
+			int count = 0;
+			for ( long word : this._mixed ) count += Long.bitCount( word );
+			return count;
+		}
+	}
+
+	/**
+	 * Bounds and settings of a region, copied on the main thread
+	 */
+	private static class Box
+	{
+		/**
+		 * Bounds in blocks
+		 */
+		final int minX, minY, minZ, maxX, maxY, maxZ;
+
+		/**
+		 * Is the region a cuboid, anything else only counts as touching the chunks in its bounds
+		 */
+		final boolean cuboid;
+
+		/**
+		 * Is this the global region
+		 */
+		final boolean global;
+
+		/**
+		 * PvP flag, taken from the nearest region up the parent chain that sets it
+		 */
+		final State pvp;
+
+		/**
+		 * Invincibility flag, taken from the nearest region up the parent chain that sets it
+		 */
+		final State invincible;
+
+		/**
+		 * Priority of the region
+		 */
+		final int priority;
+
+		/**
+		 * Id of the parent region, or null
+		 */
+		final String parent;
+
+		/**
+		 * Constructor
+		 * @param region Region to copy
+		 */
+		Box( ProtectedRegion region )
+		{
+			this.global = region instanceof GlobalProtectedRegion;
+			this.cuboid = region instanceof ProtectedCuboidRegion;
+			if ( this.global )
+			{
+				this.minX = this.minY = this.minZ = this.maxX = this.maxY = this.maxZ = 0;
+			} else {
+				this.minX = region.getMinimumPoint().getBlockX();
+				this.minY = region.getMinimumPoint().getBlockY();
+				this.minZ = region.getMinimumPoint().getBlockZ();
+				this.maxX = region.getMaximumPoint().getBlockX();
+				this.maxY = region.getMaximumPoint().getBlockY();
+				this.maxZ = region.getMaximumPoint().getBlockZ();
+			}
+			this.pvp = Box.resolve( region, DefaultFlag.PVP );
+			this.invincible = Box.resolve( region, DefaultFlag.INVINCIBILITY );
+			this.priority = region.getPriority();
+			this.parent = region.getParent() == null ? null : region.getParent().getId();
+		}
+
+		/**
+		 * Get the value of a flag the way WorldGuard inherits it, from the region or the nearest parent setting it
+		 * @param region Region to start from
+		 * @param flag Flag to look up
+		 * @return Flag value, or null if no region in the chain sets it
+		 */
+		private static State resolve( ProtectedRegion region, StateFlag flag )
+		{
+			for ( int depth = 0; region != null && depth < 64; depth++ ) // WorldGuard refuses cycles, the cap is only a guard
+			{
+				State value = region.getFlag( flag );
+				if ( value != null ) return value;
+				region = region.getParent();
+			}
+			return null;
+		}
+
+		/**
+		 * Is this the global region
+		 * @return True if global
+		 */
+		boolean isGlobal()
+		{
+			return this.global;
+		}
+
+		/**
+		 * Does the region cover a whole chunk column
+		 * @param cx Chunk x
+		 * @param cz Chunk z
+		 * @return True if covered
+		 */
+		boolean covers( int cx, int cz )
+		{
+			return this.cuboid && this.minY <= 0 && this.maxY >= TOP
+					&& this.minX <= cx << 4 && this.maxX >= ( cx << 4 ) + 15
+					&& this.minZ <= cz << 4 && this.maxZ >= ( cz << 4 ) + 15;
+		}
+
+		/**
+		 * Add the region files the region touches
+		 * @param files Region file keys
+		 * @return True if this is the global region, which touches everything
+		 */
+		boolean addFiles( HashSet<Long> files )
+		{
+			if ( this.global ) return true;
+			for ( int fx = this.minX >> 9; fx <= this.maxX >> 9; fx++ )
+			{
+				for ( int fz = this.minZ >> 9; fz <= this.maxZ >> 9; fz++ ) files.add( RegionMap.fileKey( fx, fz ) );
+			}
+			return false;
+		}
+
+		@Override
+		public boolean equals( Object o )
+		{
+			if ( !( o instanceof Box ) ) return false;
+			Box other = (Box) o;
+			return this.minX == other.minX && this.minY == other.minY && this.minZ == other.minZ
+					&& this.maxX == other.maxX && this.maxY == other.maxY && this.maxZ == other.maxZ
+					&& this.cuboid == other.cuboid && this.global == other.global
+					&& this.pvp == other.pvp && this.invincible == other.invincible && this.priority == other.priority
+					&& ( this.parent == null ? other.parent == null : this.parent.equals( other.parent ) );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ( ( ( this.minX * 31 + this.minZ ) * 31 + this.maxX ) * 31 + this.maxZ ) * 31 + this.priority;
+		}
+	}
+}
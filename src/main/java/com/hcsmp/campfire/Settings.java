@@ -0,0 +1,404 @@
+package com.hcsmp.campfire;
+
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * Immutable snapshot of the config file
+ * Values are read and checked once when the config is loaded, so event handlers only read final fields
+ * and a reload swaps in a whole new snapshot instead of changing values underneath them
+ * @author bitdagger
+ *
+ */
+public final class Settings
+{
+	/**
+	 * Length of protection in seconds
+	 */
+	private final long _duration;
+
+	/**
+	 * Whether protection starts over on death
+	 */
+	private final boolean _resetOnDeath;
+
+	/**
+	 * Whether WorldGuard regions pause the timer
+	 */
+	private final boolean _worldGuardPause;
+
+	/**
+	 * Radius in blocks fires and lava can't be placed near protected players, 0 to disable
+	 */
+	private final int _fireRadius;
+
+	/**
+	 * Whether protected players may use containers
+	 */
+	private final boolean _allowContainers;
+
+	/**
+	 * Seconds between handing changes to the background writer
+	 */
+	private final int _saveInterval;
+
+	/**
+	 * Pending batches the background writer holds
+	 */
+	private final int _saveQueueSize;
+
+	/**
+	 * Journal size in bytes before it is folded into the data file
+	 */
+	private final long _journalLimit;
+
+	/**
+	 * Whether the data file is memory mapped
+	 */
+	private final boolean _memoryMapData;
+
+	/**
+	 * Milliseconds an offline player's data stays in memory
+	 */
+	private final long _evictAfter;
+
+	/**
+	 * True to keep player data in a database instead of players.dat
+	 */
+	private final boolean _jdbc;
+
+	/**
+	 * Database connection settings
+	 */
+	private final String _databaseUrl, _databaseUser, _databasePassword;
+
+	/**
+	 * Maximum open database connections
+	 */
+	private final int _databasePoolSize;
+
+	/**
+	 * Seconds between immunity checks of everyone online
+	 */
+	private final int _immunityRefresh;
+
+	/**
+	 * Blocks per world whose WorldGuard result is cached
+	 */
+	private final int _regionCacheSize;
+
+	/**
+	 * Locale of the message catalog
+	 */
+	private final String _locale;
+
+	/**
+	 * Whether expiries and terminations are announced
+	 */
+	private final boolean _broadcasts;
+
+	/**
+	 * Milliseconds within which a repeated blocked action message is held back, 0 to disable
+	 */
+	private final long _messageThrottle;
+
+	/**
+	 * Whether held back messages are counted in the next one that is sent
+	 */
+	private final boolean _collapseRepeats;
+
+	/**
+	 * Whether hot path latencies, cache hit rates and player set sizes are recorded
+	 */
+	private final boolean _metrics;
+
+	/**
+	 * Fill in any missing options with their defaults
+	 * @param config Config file
+	 * @return True if anything was added and the file should be saved
+	 */
+	public static boolean addDefaults( FileConfiguration config )
+	{
+		boolean changed = false;
+		changed |= Settings.addDefault( config, "Duration", 60 * 60 );
+		changed |= Settings.addDefault( config, "ResetOnDeath", true );
+		changed |= Settings.addDefault( config, "WorldGuardPause", true );
+		changed |= Settings.addDefault( config, "FireRadius", 5 );
+		changed |= Settings.addDefault( config, "AllowContainers", false );
+		changed |= Settings.addDefault( config, "SaveInterval", 10 );
+		changed |= Settings.addDefault( config, "SaveQueueSize", 2 );
+		changed |= Settings.addDefault( config, "JournalLimit", 1024 );
+		changed |= Settings.addDefault( config, "MemoryMapData", false );
+		changed |= Settings.addDefault( config, "EvictAfter", 600 );
+		changed |= Settings.addDefault( config, "Storage", "file" );
+		changed |= Settings.addDefault( config, "Database.Url", "jdbc:mysql://localhost/minecraft" );
+		changed |= Settings.addDefault( config, "Database.User", "minecraft" );
+		changed |= Settings.addDefault( config, "Database.Password", "" );
+		changed |= Settings.addDefault( config, "Database.PoolSize", 2 );
+		changed |= Settings.addDefault( config, "ImmunityRefresh", 30 );
+		changed |= Settings.addDefault( config, "RegionCacheSize", 4096 );
+		changed |= Settings.addDefault( config, "Locale", "en" );
+		changed |= Settings.addDefault( config, "Broadcasts", true );
+		changed |= Settings.addDefault( config, "MessageThrottle", 2000 );
+		changed |= Settings.addDefault( config, "CollapseRepeats", true );
+		changed |= Settings.addDefault( config, "Metrics", true );
+		return changed;
+	}
+
+	/**
+	 * Constructor - Read and check every option
+	 * Out of range values are clamped with a warning rather than failing the load
+	 * @param config Config file, with defaults already added
+	 */
+	public Settings( FileConfiguration config )
+	{
+		this._duration = Settings.atLeast( config, "Duration", 1 );
+		this._resetOnDeath = config.getBoolean( "ResetOnDeath" );
+		this._worldGuardPause = config.getBoolean( "WorldGuardPause" );
+		this._fireRadius = (int) Settings.atLeast( config, "FireRadius", 0 );
+		this._allowContainers = config.getBoolean( "AllowContainers" );
+		this._saveInterval = (int) Settings.atLeast( config, "SaveInterval", 1 );
+		this._saveQueueSize = (int) Settings.atLeast( config, "SaveQueueSize", 1 );
+		this._journalLimit = Settings.atLeast( config, "JournalLimit", 1 ) * 1024;
+		this._memoryMapData = config.getBoolean( "MemoryMapData" );
+		this._evictAfter = Settings.atLeast( config, "EvictAfter", 0 ) * 1000;
+		this._databaseUrl = config.getString( "Database.Url", "" );
+		this._databaseUser = config.getString( "Database.User", "" );
+		this._databasePassword = config.getString( "Database.Password", "" );
+		this._databasePoolSize = (int) Settings.atLeast( config, "Database.PoolSize", 1 );
+		this._immunityRefresh = (int) Settings.atLeast( config, "ImmunityRefresh", 1 );
+		this._regionCacheSize = (int) Settings.atLeast( config, "RegionCacheSize", 16 );
+		this._locale = config.getString( "Locale", "en" ).trim();
+		this._broadcasts = config.getBoolean( "Broadcasts" );
+		this._messageThrottle = Settings.atLeast( config, "MessageThrottle", 0 );
+		this._collapseRepeats = config.getBoolean( "CollapseRepeats" );
+		this._metrics = config.getBoolean( "Metrics" );
+
+		//-- Storage
+		String storage = config.getString( "Storage", "file" );
+		if ( !storage.equalsIgnoreCase( "file" ) && !storage.equalsIgnoreCase( "jdbc" ) )
+		{
+			System.out.println( "[Campfire] Unknown Storage '" + storage + "', using file" );
+		}
+		this._jdbc = storage.equalsIgnoreCase( "jdbc" );
+	}
+
+	/**
+	 * Check whether another snapshot stores player data the same way
+	 * @param other Other snapshot
+	 * @return True if every storage option matches
+	 */
+	public boolean sameStorage( Settings other )
+	{
+		return this._jdbc == other._jdbc && this._saveQueueSize == other._saveQueueSize
+				&& this._journalLimit == other._journalLimit && this._memoryMapData == other._memoryMapData
+				&& this._databaseUrl.equals( other._databaseUrl ) && this._databaseUser.equals( other._databaseUser )
+				&& this._databasePassword.equals( other._databasePassword ) && this._databasePoolSize == other._databasePoolSize;
+	}
+
+	/**
+	 * Set an option if it is missing
+	 * @param config Config file
+	 * @param path Option
+	 * @param value Default value
+	 * @return True if the option was missing
+	 */
+	private static boolean addDefault( FileConfiguration config, String path, Object value )
+	{
+		if ( config.contains( path ) ) return false;
+		config.set( path, value );
+		return true;
+	}
+
+	/**
+	 * Read a whole number option, clamping it to a minimum
+	 * @param config Config file
+	 * @param path Option
+	 * @param min Smallest allowed value
+	 * @return Value
+	 */
+	private static long atLeast( FileConfiguration config, String path, long min )
+	{
+		long value = config.getLong( path );
+		if ( value >= min ) return value;
+		System.out.println( "[Campfire] " + path + " can't be less than " + min + ", using " + min );
+		return min;
+	}
+
+	//-- Getters
+
+	/**
+	 * @return Length of protection in seconds
+	 */
+	public long getDuration()
+	{
+		return this._duration;
+	}
+
+	/**
+	 * @return Whether protection starts over on death
+	 */
+	public boolean getResetOnDeath()
+	{
+		return this._resetOnDeath;
+	}
+
+	/**
+	 * @return Whether WorldGuard regions pause the timer
+	 */
+	public boolean getWorldGuardPause()
+	{
+		return this._worldGuardPause;
+	}
+
+	/**
+	 * @return Radius in blocks fires and lava can't be placed near protected players, 0 if disabled
+	 */
+	public int getFireRadius()
+	{
+		return this._fireRadius;
+	}
+
+	/**
+	 * @return Whether protected players may use containers
+	 */
+	public boolean getAllowContainers()
+	{
+		return this._allowContainers;
+	}
+
+	/**
+	 * @return Seconds between handing changes to the background writer
+	 */
+	public int getSaveInterval()
+	{
+		return this._saveInterval;
+	}
+
+	/**
+	 * @return Pending batches the background writer holds
+	 */
+	public int getSaveQueueSize()
+	{
+		return this._saveQueueSize;
+	}
+
+	/**
+	 * @return Journal size in bytes before it is folded into the data file
+	 */
+	public long getJournalLimit()
+	{
+		return this._journalLimit;
+	}
+
+	/**
+	 * @return Whether the data file is memory mapped
+	 */
+	public boolean getMemoryMapData()
+	{
+		return this._memoryMapData;
+	}
+
+	/**
+	 * @return Milliseconds an offline player's data stays in memory
+	 */
+	public long getEvictAfter()
+	{
+		return this._evictAfter;
+	}
+
+	/**
+	 * @return True if player data is kept in a database
+	 */
+	public boolean useJdbc()
+	{
+		return this._jdbc;
+	}
+
+	/**
+	 * @return JDBC url
+	 */
+	public String getDatabaseUrl()
+	{
+		return this._databaseUrl;
+	}
+
+	/**
+	 * @return Database user
+	 */
+	public String getDatabaseUser()
+	{
+		return this._databaseUser;
+	}
+
+	/**
+	 * @return Database password
+	 */
+	public String getDatabasePassword()
+	{
+		return this._databasePassword;
+	}
+
+	/**
+	 * @return Maximum open database connections
+	 */
+	public int getDatabasePoolSize()
+	{
+		return this._databasePoolSize;
+	}
+
+	/**
+	 * @return Seconds between immunity checks of everyone online
+	 */
+	public int getImmunityRefresh()
+	{
+		return this._immunityRefresh;
+	}
+
+	/**
+	 * @return Blocks per world whose WorldGuard result is cached
+	 */
+	public int getRegionCacheSize()
+	{
+		return this._regionCacheSize;
+	}
+
+	/**
+	 * @return Locale of the message catalog
+	 */
+	public String getLocale()
+	{
+		return this._locale;
+	}
+
+	/**
+	 * @return Whether expiries and terminations are announced
+	 */
+	public boolean getBroadcasts()
+	{
+		return this._broadcasts;
+	}
+
+	/**
+	 * @return Milliseconds within which a repeated blocked action message is held back, 0 if disabled
+	 */
+	public long getMessageThrottle()
+	{
+		return this._messageThrottle;
+	}
+
+	/**
+	 * @return Whether held back messages are counted in the next one that is sent
+	 */
+	public boolean getCollapseRepeats()
+	{
+		return this._collapseRepeats;
+	}
+
+	/**
+	 * @return Whether hot path latencies, cache hit rates and player set sizes are recorded
+	 */
+	public boolean getMetrics()
+	{
+		return this._metrics;
+	}
+}
@@ -0,0 +1,73 @@
+package com.hcsmp.campfire;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that threads can add to without fighting over one value
+ * Each thread adds to one of a few cells, each on its own cache line, and reading sums the cells
+ * @author bitdagger
+ *
+ */
+public class StripedCounter
+{
+	/**
+	 * Number of cells, a power of two
+	 */
+	private static final int STRIPES = 8;
+
+	/**
+	 * Longs per cell, so that cells don't share a cache line
+	 */
+	private static final int PAD = 8;
+
+	/**
+	 * Cells, only every PAD-th one is used
+	 */
+	private final AtomicLongArray _cells;
+
+	/**
+	 * Constructor
+	 */
+	public StripedCounter()
+	{
+		this._cells = new AtomicLongArray( STRIPES * PAD );
+	}
+
+	/**
+	 * Add one
+	 */
+	public void increment()
+	{
+		this.add( 1 );
+	}
+
+	/**
+	 * Add to the count
+	 * @param delta Amount to add
+	 */
+	public void add( long delta )
+	{
+		int cell = ( (int) Thread.currentThread().getId() & ( STRIPES - 1 ) ) * PAD;
+		this._cells.addAndGet( cell, delta );
+	}
+
+	/**
+	 * Get the count
+	 * Adds that happen while summing may or may not be included
+	 * @return Sum of all cells
+	 */
+	public long sum()
+	{
+		long sum = 0;
+		for ( int i = 0; i < STRIPES; i++ ) sum += this._cells.get( i * PAD );
+		return sum;
+	}
+
+	/**
+	 * Set the count back to 0
+	 */
+	public void reset()
+	{
+		for ( int i = 0; i < STRIPES; i++ ) this._cells.set( i * PAD, 0 );
+	}
+}
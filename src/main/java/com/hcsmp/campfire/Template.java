@@ -0,0 +1,233 @@
+package com.hcsmp.campfire;
+
+import java.util.ArrayList;
+
+import org.bukkit.ChatColor;
+
+/**
+ * A message compiled from its messages.yml text
+ * Colour codes and the prefix are resolved up front, leaving constant parts with typed slots between them,
+ * so rendering is a single pass of appends and a message without placeholders is never rebuilt at all
+ * @author bitdagger
+ *
+ */
+public class Template
+{
+	/**
+	 * Constant parts of each line, one more than the line has slots
+	 */
+	private final String[][] _parts;
+
+	/**
+	 * Slots of each line - Text slots hold the index of their value, number slots hold -1 minus their zero padded width
+	 */
+	private final int[][] _slots;
+
+	/**
+	 * Length of the constant parts of each line
+	 */
+	private final int[] _lengths;
+
+	/**
+	 * Rendered lines if there are no slots at all
+	 */
+	private final String[] _constant;
+
+	/**
+	 * Constructor - Compile a message
+	 * Text is written with &amp; colour codes, {prefix} for the shared prefix and {name} or {#name:width} for placeholders
+	 * @param message Message being compiled
+	 * @param lines Lines of text
+	 * @param prefix Compiled prefix
+	 */
+	public Template( Message message, String[] lines, String prefix )
+	{
+		this._parts = new String[lines.length][];
+		this._slots = new int[lines.length][];
+		this._lengths = new int[lines.length];
+		boolean constant = true;
+		for ( int i = 0; i < lines.length; i++ )
+		{
+			this.compile( i, message, lines[i], prefix );
+			if ( this._slots[i].length > 0 ) constant = false;
+		}
+		if ( constant )
+		{
+			this._constant = new String[lines.length];
+			for ( int i = 0; i < lines.length; i++ ) this._constant[i] = this._parts[i][0];
+		} else {
+			this._constant = null;
+		}
+	}
+
+	/**
+	 * Render the message
+	 * @param text Value of the first text placeholder
+	 * @param number Value of the number placeholder
+	 * @return Lines, shared between calls when the message is constant so they must not be changed
+	 */
+	public String[] render( String text, long number )
+	{
+		if ( this._constant != null ) return this._constant;
+		return this.render( null, text, number );
+	}
+
+	/**
+	 * Render a message that only has text placeholders
+	 * @param texts Values of the text placeholders in order
+	 * @return Lines, shared between calls when the message is constant so they must not be changed
+	 */
+	public String[] render( String[] texts )
+	{
+		if ( this._constant != null ) return this._constant;
+		return this.render( texts, null, 0 );
+	}
+
+	/**
+	 * Render the message
+	 * @param texts Values of the text placeholders, null to use text for the first one
+	 * @param text Value of the first text placeholder
+	 * @param number Value of the number placeholder
+	 * @return Lines
+	 */
+	private String[] render( String[] texts, String text, long number )
+	{
+		String[] lines = new String[this._parts.length];
+		for ( int i = 0; i < lines.length; i++ )
+		{
+			String[] parts = this._parts[i];
+			int[] slots = this._slots[i];
+			if ( slots.length == 0 )
+			{
+				lines[i] = parts[0];
+				continue;
+			}
+			StringBuilder line = new StringBuilder( this._lengths[i] + 16 * slots.length );
+			line.append( parts[0] );
+			for ( int j = 0; j < slots.length; j++ )
+			{
+				int slot = slots[j];
+				if ( slot >= 0 )
+				{
+					line.append( texts != null ? texts[slot] : text );
+				} else {
+					Template.appendNumber( line, number, -1 - slot );
+				}
+				line.append( parts[j + 1] );
+			}
+			lines[i] = line.toString();
+		}
+		return lines;
+	}
+
+	/**
+	 * Compile one line
+	 * @param i Line number
+	 * @param message Message being compiled
+	 * @param text Text of the line
+	 * @param prefix Compiled prefix
+	 */
+	private void compile( int i, Message message, String text, String prefix )
+	{
+		ArrayList<String> parts = new ArrayList<String>();
+		ArrayList<Integer> slots = new ArrayList<Integer>();
+		StringBuilder part = new StringBuilder();
+		int pos = 0;
+		while ( pos < text.length() )
+		{
+			int open = text.indexOf( '{', pos );
+			int close = open < 0 ? -1 : text.indexOf( '}', open );
+			if ( close < 0 )
+			{
+				part.append( Template.colour( text.substring( pos ) ) );
+				break;
+			}
+			part.append( Template.colour( text.substring( pos, open ) ) );
+			pos = close + 1;
+
+			//-- The prefix is constant, so it just joins the surrounding text
+			String name = text.substring( open + 1, close );
+			if ( name.equals( "prefix" ) )
+			{
+				part.append( prefix );
+				continue;
+			}
+
+			//-- Anything else has to be one of the message's placeholders
+			int slot = Template.slot( message, name );
+			if ( slot == Integer.MIN_VALUE )
+			{
+				System.out.println( "[Campfire] Unknown placeholder {" + name + "} in message " + message.getKey() );
+				part.append( text, open, close + 1 );
+				continue;
+			}
+			parts.add( part.toString() );
+			slots.add( slot );
+			part.setLength( 0 );
+		}
+		parts.add( part.toString() );
+
+		this._parts[i] = parts.toArray( new String[parts.size()] );
+		this._slots[i] = new int[slots.size()];
+		for ( int j = 0; j < this._slots[i].length; j++ ) this._slots[i][j] = slots.get( j );
+		for ( String p : this._parts[i] ) this._lengths[i] += p.length();
+	}
+
+	/**
+	 * Work out the slot of a placeholder
+	 * @param message Message being compiled
+	 * @param name Placeholder, with an optional :width for numbers
+	 * @return Slot, Integer.MIN_VALUE if the message has no such placeholder
+	 */
+	private static int slot( Message message, String name )
+	{
+		int width = 0;
+		int colon = name.indexOf( ':' );
+		if ( colon >= 0 )
+		{
+			try {
+				width = Math.max( 0, Math.min( 20, Integer.parseInt( name.substring( colon + 1 ) ) ) );
+			} catch ( NumberFormatException e ) {
+				return Integer.MIN_VALUE;
+			}
+			name = name.substring( 0, colon );
+		}
+		int texts = 0;
+		for ( String param : message.getParams() )
+		{
+			boolean number = param.startsWith( "#" );
+			if ( number && param.equals( name ) ) return -1 - width;
+			if ( number && param.substring( 1 ).equals( name ) ) return -1 - width;
+			if ( !number && param.equals( name ) ) return colon < 0 ? texts : Integer.MIN_VALUE;
+			if ( !number ) texts++;
+		}
+		return Integer.MIN_VALUE;
+	}
+
+	/**
+	 * Append a number, zero padded to a width
+	 * @param line Line being rendered
+	 * @param number Number
+	 * @param width Minimum number of digits
+	 */
+	private static void appendNumber( StringBuilder line, long number, int width )
+	{
+		if ( number >= 0 )
+		{
+			int digits = 1;
+			for ( long n = number; n >= 10; n /= 10 ) digits++;
+			for ( ; digits < width; digits++ ) line.append( '0' );
+		}
+		line.append( number );
+	}
+
+	/**
+	 * Translate &amp; colour codes
+	 * @param text Text
+	 * @return Text with colour codes
+	 */
+	static String colour( String text )
+	{
+		return ChatColor.translateAlternateColorCodes( '&', text );
+	}
+}
@@ -0,0 +1,73 @@
+package com.hcsmp.campfire;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.bukkit.event.Event;
+import org.bukkit.event.EventException;
+import org.bukkit.event.Listener;
+import org.bukkit.plugin.EventExecutor;
+
+/**
+ * Calls one event handler and records how long it took
+ * Works like Bukkit's own executor, which also calls handlers by reflection
+ * @author bitdagger
+ *
+ */
+public class TimedExecutor implements EventExecutor
+{
+	/**
+	 * Event handler
+	 */
+	private final Method _method;
+
+	/**
+	 * Event type the handler takes
+	 */
+	private final Class<? extends Event> _type;
+
+	/**
+	 * Metrics to record in
+	 */
+	private final Metrics _metrics;
+
+	/**
+	 * Latencies of the handler
+	 */
+	private final LatencyHistogram _latency;
+
+	/**
+	 * Constructor
+	 * @param method Event handler
+	 * @param type Event type the handler takes
+	 * @param metrics Metrics to record in
+	 */
+	public TimedExecutor( Method method, Class<? extends Event> type, Metrics metrics )
+	{
+		this._method = method;
+		this._type = type;
+		this._metrics = metrics;
+		this._latency = metrics.latency( method.getName() );
+	}
+
+	/**
+	 * Call the handler
+	 * @param listener Listener the handler belongs to
+	 * @param event Event
+	 */
+	public void execute( Listener listener, Event event ) throws EventException
+	{
+		//-- Handler lists are shared with subclasses of the event
+		if ( !this._type.isInstance( event ) ) return;
+		long started = this._metrics.start();
+		try {
+			this._method.invoke( listener, event );
+		} catch ( InvocationTargetException e ) {
+			throw new EventException( e.getCause() );
+		} catch ( Throwable t ) {
+			throw new EventException( t );
+		} finally {
+			this._metrics.stop( this._latency, started );
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.hcsmp.campfire;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel holding timers with absolute deadlines
+ * Timers are kept in buckets by how far away their deadline is, and are moved to finer buckets as it gets
+ * closer. Scheduling and cancelling are constant time, and advancing only touches timers that are due
+ * (plus the occasional move down a level).
+ * @author bitdagger
+ *
+ * @param <T> Payload carried by the timers
+ */
+public class TimingWheel<T>
+{
+	/**
+	 * Number of bits of the tick used by each level
+	 */
+	private static final int BITS = 6;
+
+	/**
+	 * Number of buckets per level
+	 */
+	private static final int SIZE = 1 << BITS;
+
+	/**
+	 * Number of levels, enough for about six months at one second ticks
+	 */
+	private static final int LEVELS = 4;
+
+	/**
+	 * Length of a tick in milliseconds
+	 */
+	private final long _resolution;
+
+	/**
+	 * Buckets for each level, every bucket is the sentinel of a circular list
+	 */
+	private final Timer<T>[][] _buckets;
+
+	/**
+	 * Last tick that was processed
+	 */
+	private long _tick;
+
+	/**
+	 * Number of scheduled timers
+	 */
+	private int _size;
+
+	/**
+	 * Constructor
+	 * @param resolution Length of a tick in milliseconds
+	 * @param now Current time in milliseconds
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel( long resolution, long now )
+	{
+		this._resolution = resolution;
+		this._tick = now / resolution;
+		this._buckets = new Timer[LEVELS][SIZE];
+		for ( int level = 0; level < LEVELS; level++ )
+		{
+			for ( int i = 0; i < SIZE; i++ ) this._buckets[level][i] = new Timer<T>( null );
+		}
+	}
+
+	/**
+	 * Get the number of scheduled timers
+	 * @return Number of timers
+	 */
+	public int size()
+	{
+		return this._size;
+	}
+
+	/**
+	 * Schedule a timer, moving it if it was already scheduled
+	 * @param timer Timer to schedule
+	 * @param deadline Time in milliseconds the timer is due
+	 */
+	public void schedule( Timer<T> timer, long deadline )
+	{
+		this.cancel( timer );
+		timer._deadline = deadline;
+		timer._due = ( deadline + this._resolution - 1 ) / this._resolution; // Round up so timers never fire early
+		this.place( timer, this._tick + 1 ); // The current tick has already been processed
+		this._size++;
+	}
+
+	/**
+	 * Cancel a timer
+	 * @param timer Timer to cancel, nothing happens if it isn't scheduled
+	 */
+	public void cancel( Timer<T> timer )
+	{
+		if ( !timer.isScheduled() ) return;
+		timer.unlink();
+		this._size--;
+	}
+
+	/**
+	 * Advance the wheel to the current time and collect every timer that is due
+	 * Collected timers are no longer scheduled
+	 * @param now Current time in milliseconds
+	 * @param due Filled with the payloads of due timers, in deadline order to within a tick
+	 */
+	public void advance( long now, List<T> due )
+	{
+		long target = now / this._resolution;
+		while ( this._tick < target )
+		{
+			this._tick++;
+
+			// Move timers down from the coarser levels as their turn comes up
+			for ( int level = 1; level < LEVELS; level++ )
+			{
+				if ( ( this._tick & ( ( 1L << ( BITS * level ) ) - 1 ) ) != 0 ) break;
+				this.cascade( level, (int) ( ( this._tick >>> ( BITS * level ) ) & ( SIZE - 1 ) ) );
+			}
+
+			// Collect everything in the current bucket
+			Timer<T> bucket = this._buckets[0][(int) ( this._tick & ( SIZE - 1 ) )];
+			while ( bucket._next != bucket )
+			{
+				Timer<T> timer = bucket._next;
+				timer.unlink();
+				this._size--;
+				due.add( timer._payload );
+			}
+		}
+	}
+
+	/**
+	 * Re-place every timer in a bucket
+	 * @param level Level of the bucket
+	 * @param index Index of the bucket
+	 */
+	private void cascade( int level, int index )
+	{
+		Timer<T> bucket = this._buckets[level][index];
+		Timer<T> timer = bucket._next;
+		bucket._next = bucket;
+		bucket._prev = bucket;
+		while ( timer != bucket )
+		{
+			Timer<T> next = timer._next;
+			this.place( timer, this._tick ); // Cascading happens before the current tick is collected
+			timer = next;
+		}
+	}
+
+	/**
+	 * Put a timer in the bucket for its deadline
+	 * @param timer Timer to place
+	 * @param earliest Earliest tick it can still be collected in, anything overdue goes there
+	 */
+	private void place( Timer<T> timer, long earliest )
+	{
+		long due = Math.max( timer._due, earliest );
+		long delta = due - this._tick;
+		int level = 0;
+		while ( level < LEVELS - 1 && delta >= ( 1L << ( BITS * ( level + 1 ) ) ) ) level++;
+		if ( delta >= ( 1L << ( BITS * LEVELS ) ) ) due = this._tick + ( 1L << ( BITS * LEVELS ) ) - 1; // Too far out, it is placed again on the way down
+		timer.link( this._buckets[level][(int) ( ( due >>> ( BITS * level ) ) & ( SIZE - 1 ) )] );
+	}
+
+	/**
+	 * Timer that can be scheduled on a wheel
+	 * @param <T> Payload carried by the timer
+	 */
+	public static class Timer<T>
+	{
+		/**
+		 * Payload handed back when the timer is due
+		 */
+		private final T _payload;
+
+		/**
+		 * Deadline in milliseconds
+		 */
+		private long _deadline;
+
+		/**
+		 * Tick the timer is due in
+		 */
+		private long _due;
+
+		/**
+		 * Previous timer in the bucket
+		 */
+		private Timer<T> _prev;
+
+		/**
+		 * Next timer in the bucket
+		 */
+		private Timer<T> _next;
+
+		/**
+		 * Constructor
+		 * @param payload Payload handed back when the timer is due
+		 */
+		public Timer( T payload )
+		{
+			this._payload = payload;
+			if ( payload == null ) // Bucket sentinel
+			{
+				this._prev = this;
+				this._next = this;
+			}
+		}
+
+		/**
+		 * Get the payload
+		 * @return Payload
+		 */
+		public T getPayload()
+		{
+			return this._payload;
+		}
+
+		/**
+		 * Get the deadline
+		 * @return Deadline in milliseconds
+		 */
+		public long getDeadline()
+		{
+			return this._deadline;
+		}
+
+		/**
+		 * Is the timer currently scheduled
+		 * @return True if scheduled
+		 */
+		public boolean isScheduled()
+		{
+			return this._next != null;
+		}
+
+		/**
+		 * Add the timer to the end of a bucket
+		 * @param bucket Bucket sentinel
+		 */
+		private void link( Timer<T> bucket )
+		{
+			this._prev = bucket._prev;
+			this._next = bucket;
+			bucket._prev._next = this;
+			bucket._prev = this;
+		}
+
+		/**
+		 * Remove the timer from its bucket
+		 */
+		private void unlink()
+		{
+			this._prev._next = this._next;
+			this._next._prev = this._prev;
+			this._prev = null;
+			this._next = null;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.hcsmp.campfire;
+
+import java.util.UUID;
+
+/**
+ * Open addressing hash map keyed by UUID
+ * Keys are stored as their two halves in primitive arrays, so a lookup is a single probe sequence over
+ * longs without allocating or calling equals()
+ * @author bitdagger
+ *
+ * @param <V> Value type
+ */
+public class UuidMap<V>
+{
+	/**
+	 * Smallest table size, always a power of two
+	 */
+	private static final int MIN_CAPACITY = 16;
+
+	/**
+	 * Most significant halves of the keys
+	 */
+	private long[] _msb;
+
+	/**
+	 * Least significant halves of the keys
+	 */
+	private long[] _lsb;
+
+	/**
+	 * Values, null marks a free slot
+	 */
+	private Object[] _values;
+
+	/**
+	 * Number of entries
+	 */
+	private int _size;
+
+	/**
+	 * Constructor
+	 */
+	public UuidMap()
+	{
+		this.allocate( MIN_CAPACITY );
+	}
+
+	/**
+	 * Get the number of entries
+	 * @return Number of entries
+	 */
+	public int size()
+	{
+		return this._size;
+	}
+
+	/**
+	 * Look up a value
+	 * @param key Key
+	 * @return Value, null if there is none
+	 */
+	public V get( UUID key )
+	{
+		return this.get( key.getMostSignificantBits(), key.getLeastSignificantBits() );
+	}
+
+	/**
+	 * Look up a value
+	 * @param msb Most significant half of the key
+	 * @param lsb Least significant half of the key
+	 * @return Value, null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public V get( long msb, long lsb )
+	{
+		int mask = this._values.length - 1;
+		for ( int i = UuidMap.hash( msb, lsb ) & mask; this._values[i] != null; i = ( i + 1 ) & mask )
+		{
+			if ( this._msb[i] == msb && this._lsb[i] == lsb ) return (V) this._values[i];
+		}
+		return null;
+	}
+
+	/**
+	 * Add or replace a value
+	 * @param key Key
+	 * @param value Value, must not be null
+	 * @return Previous value, null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V put( UUID key, V value )
+	{
+		if ( value == null ) throw new NullPointerException( "Null values aren't supported" );
+		long msb = key.getMostSignificantBits();
+		long lsb = key.getLeastSignificantBits();
+		int mask = this._values.length - 1;
+		int i = UuidMap.hash( msb, lsb ) & mask;
+		for ( ; this._values[i] != null; i = ( i + 1 ) & mask )
+		{
+			if ( this._msb[i] == msb && this._lsb[i] == lsb )
+			{
+				V old = (V) this._values[i];
+				this._values[i] = value;
+				return old;
+			}
+		}
+		this._msb[i] = msb;
+		this._lsb[i] = lsb;
+		this._values[i] = value;
+		if ( ++this._size * 2 > this._values.length ) this.resize( this._values.length * 2 ); // Keep probe sequences short
+		return null;
+	}
+
+	/**
+	 * Remove a value
+	 * @param key Key
+	 * @return Removed value, null if there was none
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove( UUID key )
+	{
+		long msb = key.getMostSignificantBits();
+		long lsb = key.getLeastSignificantBits();
+		int mask = this._values.length - 1;
+		for ( int i = UuidMap.hash( msb, lsb ) & mask; this._values[i] != null; i = ( i + 1 ) & mask )
+		{
+			if ( this._msb[i] != msb || this._lsb[i] != lsb ) continue;
+			V old = (V) this._values[i];
+			this.shift( i );
+			this._size--;
+			return old;
+		}
+		return null;
+	}
+
+	/**
+	 * Remove everything
+	 */
+	public void clear()
+	{
+		this.allocate( MIN_CAPACITY );
+		this._size = 0;
+	}
+
+	/**
+	 * Free a slot, moving later entries of the probe sequence back so lookups don't need tombstones
+	 * @param free Slot to free
+	 */
+	private void shift( int free )
+	{
+		int mask = this._values.length - 1;
+		int i = free;
+		while ( true )
+		{
+			i = ( i + 1 ) & mask;
+			if ( this._values[i] == null ) break;
+
+			// Entries whose home slot lies cyclically in ( free, i ] are already as close as they can get
+			int home = UuidMap.hash( this._msb[i], this._lsb[i] ) & mask;
+			if ( free <= i ? ( free < home && home <= i ) : ( free < home || home <= i ) ) continue;
+			this._msb[free] = this._msb[i];
+			this._lsb[free] = this._lsb[i];
+			this._values[free] = this._values[i];
+			free = i;
+		}
+		this._values[free] = null;
+	}
+
+	/**
+	 * Move everything into a table of a new size
+	 * @param capacity New table size, a power of two
+	 */
+	private void resize( int capacity )
+	{
+		long[] msb = this._msb;
+		long[] lsb = this._lsb;
+		Object[] values = this._values;
+		this.allocate( capacity );
+		int mask = capacity - 1;
+		for ( int j = 0; j < values.length; j++ )
+		{
+			if ( values[j] == null ) continue;
+			int i = UuidMap.hash( msb[j], lsb[j] ) & mask;
+			while ( this._values[i] != null ) i = ( i + 1 ) & mask;
+			this._msb[i] = msb[j];
+			this._lsb[i] = lsb[j];
+			this._values[i] = values[j];
+		}
+	}
+
+	/**
+	 * Allocate empty tables
+	 * @param capacity Table size, a power of two
+	 */
+	private void allocate( int capacity )
+	{
+		this._msb = new long[capacity];
+		this._lsb = new long[capacity];
+		this._values = new Object[capacity];
+	}
+
+	/**
+	 * Hash a key
+	 * Offline mode UUIDs are name based, so the bits are mixed rather than trusted to be random
+	 * @param msb Most significant half of the key
+	 * @param lsb Least significant half of the key
+	 * @return Hash
+	 */
+	private static int hash( long msb, long lsb )
+	{
+		long h = ( msb ^ lsb ) * 0x9E3779B97F4A7C15L;
+		return (int) ( h ^ ( h >>> 32 ) );
+	}
+}
@@ -0,0 +1,7 @@
+CREATE TABLE campfire_players (
+  name VARCHAR(16) NOT NULL,
+  slot INT NOT NULL,
+  elapsed BIGINT NOT NULL,
+  flags SMALLINT NOT NULL,
+  PRIMARY KEY (name)
+);
@@ -0,0 +1,213 @@
+package com.hcsmp.campfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the database store against an in-memory H2 database
+ * @author bitdagger
+ *
+ */
+public class JdbcStoreTest
+{
+	/**
+	 * Databases made so far, each test gets its own
+	 */
+	private static int databases;
+
+	/**
+	 * JDBC url of this test's database
+	 */
+	private String _url;
+
+	/**
+	 * Player data read when the store was last opened
+	 */
+	private HashMap<String,PlayerData> _data;
+
+	/**
+	 * Record numbers of protected players read when the store was last opened
+	 */
+	private HashMap<String,Integer> _index;
+
+	/**
+	 * Record numbers of expired players read when the store was last opened
+	 */
+	private HashMap<String,Integer> _expired;
+
+	/**
+	 * Use a fresh database, kept until the JVM exits so it outlives each store's connections
+	 */
+	@Before
+	public void setUp()
+	{
+		this._url = "jdbc:h2:mem:campfire" + ( ++databases ) + ";DB_CLOSE_DELAY=-1";
+	}
+
+	/**
+	 * The schema is created on an empty database and left alone afterwards
+	 * @throws IOException
+	 */
+	@Test
+	public void migratesEmptyDatabase() throws IOException
+	{
+		this.open().close( new byte[0] );
+		JdbcStore store = this.open();
+		store.close( new byte[0] );
+		assertTrue( this._data.isEmpty() );
+		assertTrue( this._index.isEmpty() );
+		assertTrue( this._expired.isEmpty() );
+	}
+
+	/**
+	 * New players are inserted and can be looked up and loaded afterwards
+	 * @throws IOException
+	 */
+	@Test
+	public void insertsNewPlayers() throws IOException
+	{
+		JdbcStore store = this.open();
+		assertTrue( store.offer( JdbcStoreTest.records( "alice", JdbcStoreTest.player( 0, 1000, true, false ), "bob", JdbcStoreTest.player( 1, 7000, false, true ) ) ) );
+		store.close( new byte[0] );
+
+		store = this.open();
+		try {
+			assertEquals( Integer.valueOf( 0 ), this._index.get( "alice" ) );
+			assertEquals( Integer.valueOf( 1 ), this._expired.get( "bob" ) );
+			PlayerData alice = store.load( "alice", 0 );
+			assertNotNull( alice );
+			assertEquals( 1000, alice.getElapsed() );
+			assertTrue( alice.isProtected() );
+			assertFalse( alice.isWG() );
+			PlayerData bob = store.load( "bob", 1 );
+			assertEquals( 7000, bob.getElapsed() );
+			assertFalse( bob.isProtected() );
+			assertTrue( bob.isWG() );
+		} finally {
+			store.close( new byte[0] );
+		}
+	}
+
+	/**
+	 * Players who already have a row are updated, and removed players lose theirs
+	 * @throws IOException
+	 */
+	@Test
+	public void updatesAndRemovesPlayers() throws IOException
+	{
+		JdbcStore store = this.open();
+		store.close( JdbcStoreTest.records( "alice", JdbcStoreTest.player( 0, 1000, true, false ), "bob", JdbcStoreTest.player( 1, 2000, true, false ) ) );
+
+		store = this.open();
+		ByteBuffer buf = ByteBuffer.allocate( PlayerRecord.SIZE * 2 );
+		PlayerRecord.put( buf, "alice", JdbcStoreTest.player( 0, 5000, false, false ) );
+		PlayerRecord.remove( buf, 1, "bob" );
+		store.close( buf.array() );
+
+		store = this.open();
+		try {
+			assertNull( this._index.get( "alice" ) );
+			assertEquals( Integer.valueOf( 0 ), this._expired.get( "alice" ) );
+			assertEquals( 5000, store.load( "alice", 0 ).getElapsed() );
+			assertFalse( this._index.containsKey( "bob" ) );
+			assertFalse( this._expired.containsKey( "bob" ) );
+			assertNull( store.load( "bob", 1 ) );
+		} finally {
+			store.close( new byte[0] );
+		}
+	}
+
+	/**
+	 * Only the last change to a player in a write counts
+	 * @throws IOException
+	 */
+	@Test
+	public void keepsLastChange() throws IOException
+	{
+		JdbcStore store = this.open();
+		byte[] first = JdbcStoreTest.records( "alice", JdbcStoreTest.player( 0, 1000, true, false ) );
+		byte[] second = JdbcStoreTest.records( "alice", JdbcStoreTest.player( 0, 3000, true, true ) );
+		byte[] both = Arrays.copyOf( first, first.length + second.length );
+		System.arraycopy( second, 0, both, first.length, second.length );
+		store.close( both );
+
+		store = this.open();
+		try {
+			PlayerData alice = store.load( "alice", 0 );
+			assertEquals( 3000, alice.getElapsed() );
+			assertTrue( alice.isWG() );
+		} finally {
+			store.close( new byte[0] );
+		}
+	}
+
+	/**
+	 * Open a store on this test's database
+	 * @return Open store
+	 * @throws IOException
+	 */
+	private JdbcStore open() throws IOException
+	{
+		this._data = new HashMap<String,PlayerData>();
+		this._index = new HashMap<String,Integer>();
+		this._expired = new HashMap<String,Integer>();
+		JdbcStore store = new JdbcStore( this._url, "sa", "", 2, 16 );
+		store.open( this._data, this._index, this._expired );
+		return store;
+	}
+
+	/**
+	 * Make player data
+	 * @param slot Record number
+	 * @param elapsed Elapsed protection time in milliseconds
+	 * @param isProtected Is the player protected
+	 * @param wg WorldGuard protected zone flag
+	 * @return Player data
+	 */
+	private static PlayerData player( int slot, long elapsed, boolean isProtected, boolean wg )
+	{
+		PlayerData data = new PlayerData( elapsed, isProtected, wg );
+		data.setSlot( slot );
+		return data;
+	}
+
+	/**
+	 * Encode a record for a player
+	 * @param name Lowercase player name
+	 * @param data Player data
+	 * @return Encoded record
+	 */
+	private static byte[] records( String name, PlayerData data )
+	{
+		ByteBuffer buf = ByteBuffer.allocate( PlayerRecord.SIZE );
+		PlayerRecord.put( buf, name, data );
+		return buf.array();
+	}
+
+	/**
+	 * Encode records for two players
+	 * @param name First lowercase player name
+	 * @param data First player's data
+	 * @param other Second lowercase player name
+	 * @param otherData Second player's data
+	 * @return Encoded records
+	 */
+	private static byte[] records( String name, PlayerData data, String other, PlayerData otherData )
+	{
+		ByteBuffer buf = ByteBuffer.allocate( PlayerRecord.SIZE * 2 );
+		PlayerRecord.put( buf, name, data );
+		PlayerRecord.put( buf, other, otherData );
+		return buf.array();
+	}
+}
@@ -0,0 +1,149 @@
+package com.hcsmp.campfire;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the player index and its archive agree with a plain map as players come, go and expire
+ * @author bitdagger
+ *
+ */
+public class PlayerIndexTest
+{
+	/**
+	 * Archived names are found across blocks, names that aren't archived aren't
+	 */
+	@Test
+	public void archiveFindsNames()
+	{
+		HashMap<String,Integer> names = new HashMap<String,Integer>();
+		for ( int i = 0; i < 1000; i++ ) names.put( "player" + i, i );
+		NameArchive archive = NameArchive.build( NameArchive.EMPTY, new HashMap<String,Integer>(), names );
+		assertEquals( 1000, archive.size() );
+		for ( int i = 0; i < 1000; i++ ) assertEquals( i, archive.get( "player" + i ) );
+		assertEquals( -1, archive.get( "player" ) );
+		assertEquals( -1, archive.get( "player1000" ) );
+		assertEquals( -1, archive.get( "a" ) );
+		assertEquals( -1, archive.get( "zzz" ) );
+		assertEquals( -1, NameArchive.EMPTY.get( "player0" ) );
+	}
+
+	/**
+	 * Rebuilding an archive drops, replaces and adds names
+	 */
+	@Test
+	public void archiveRebuilds()
+	{
+		HashMap<String,Integer> names = new HashMap<String,Integer>();
+		for ( int i = 0; i < 100; i++ ) names.put( "player" + i, i );
+		NameArchive archive = NameArchive.build( NameArchive.EMPTY, new HashMap<String,Integer>(), names );
+
+		HashMap<String,Integer> drop = new HashMap<String,Integer>();
+		drop.put( "player5", 5 );
+		HashMap<String,Integer> add = new HashMap<String,Integer>();
+		add.put( "player7", 70 );
+		add.put( "newcomer", 100 );
+		archive = NameArchive.build( archive, drop, add );
+
+		assertEquals( 100, archive.size() );
+		assertEquals( -1, archive.get( "player5" ) );
+		assertEquals( 70, archive.get( "player7" ) );
+		assertEquals( 100, archive.get( "newcomer" ) );
+		assertEquals( 6, archive.get( "player6" ) );
+	}
+
+	/**
+	 * An archived player who is removed, archived again and then put back has the new record number
+	 */
+	@Test
+	public void removeArchivePutRestoresSlot()
+	{
+		HashMap<String,Integer> expired = new HashMap<String,Integer>();
+		expired.put( "alice", 3 );
+		expired.put( "bob", 4 );
+		PlayerIndex index = new PlayerIndex( new HashMap<String,Integer>(), expired );
+		assertEquals( 3, index.get( "alice" ) );
+
+		assertEquals( 3, index.remove( "alice" ) );
+		assertEquals( -1, index.get( "alice" ) );
+		assertEquals( -1, index.remove( "alice" ) );
+		index.archive();
+		assertEquals( -1, index.get( "alice" ) );
+		assertEquals( 1, index.size() ); // Out of the archive, and the removed mark is gone
+
+		index.put( "alice", 7 );
+		assertEquals( 7, index.get( "alice" ) );
+		index.retire( "alice" );
+		assertEquals( 1, index.archive() );
+		assertEquals( 7, index.get( "alice" ) );
+		assertEquals( 7, index.getArchive().get( "alice" ) );
+		assertEquals( 4, index.get( "bob" ) );
+		assertEquals( 2, index.size() );
+	}
+
+	/**
+	 * A player put back after they retired, or removed after they retired, isn't archived
+	 */
+	@Test
+	public void changesAfterRetiringWin()
+	{
+		HashMap<String,Integer> hot = new HashMap<String,Integer>();
+		hot.put( "alice", 1 );
+		hot.put( "bob", 2 );
+		PlayerIndex index = new PlayerIndex( hot, new HashMap<String,Integer>() );
+
+		index.retire( "alice" );
+		index.put( "alice", 1 ); // Protection started again
+		index.retire( "bob" );
+		index.remove( "bob" );
+		assertEquals( 0, index.archive() );
+		assertEquals( 0, index.getRetired() );
+		assertEquals( 1, index.get( "alice" ) );
+		assertEquals( -1, index.getArchive().get( "alice" ) );
+		assertEquals( -1, index.get( "bob" ) );
+		assertEquals( 1, index.size() );
+	}
+
+	/**
+	 * Random puts, removes, retirements and archiving agree with a HashMap
+	 */
+	@Test
+	public void matchesHashMap()
+	{
+		Random random = new Random( 42 );
+		PlayerIndex index = new PlayerIndex( new HashMap<String,Integer>(), new HashMap<String,Integer>() );
+		HashMap<String,Integer> expected = new HashMap<String,Integer>();
+		for ( int round = 0; round < 20000; round++ )
+		{
+			String name = "player" + random.nextInt( 500 );
+			switch ( random.nextInt( 4 ) )
+			{
+				case 0:
+					index.put( name, round );
+					expected.put( name, round );
+					break;
+				case 1:
+					Integer removed = expected.remove( name );
+					assertEquals( removed == null ? -1 : removed.intValue(), index.remove( name ) );
+					break;
+				case 2:
+					index.retire( name );
+					break;
+				default:
+					if ( random.nextInt( 50 ) == 0 ) index.archive();
+			}
+			Integer slot = expected.get( name );
+			assertEquals( slot == null ? -1 : slot.intValue(), index.get( name ) );
+		}
+		index.archive();
+		for ( int i = 0; i < 500; i++ )
+		{
+			Integer slot = expected.get( "player" + i );
+			assertEquals( slot == null ? -1 : slot.intValue(), index.get( "player" + i ) );
+		}
+	}
+}
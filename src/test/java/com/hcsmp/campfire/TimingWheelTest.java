@@ -0,0 +1,167 @@
+package com.hcsmp.campfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks timers fire on time, from every level of the wheel, and only once
+ * @author bitdagger
+ *
+ */
+public class TimingWheelTest
+{
+	/**
+	 * Length of a tick in milliseconds
+	 */
+	private static final long TICK = 1000;
+
+	/**
+	 * Wheel under test, started at time 0
+	 */
+	private TimingWheel<String> _wheel;
+
+	/**
+	 * Payloads collected by the last advance
+	 */
+	private ArrayList<String> _due;
+
+	/**
+	 * Use a fresh wheel
+	 */
+	@Before
+	public void setUp()
+	{
+		this._wheel = new TimingWheel<String>( TICK, 0 );
+		this._due = new ArrayList<String>();
+	}
+
+	/**
+	 * A timer within the first level fires at its deadline and not a tick earlier
+	 */
+	@Test
+	public void firesAtDeadline()
+	{
+		TimingWheel.Timer<String> timer = new TimingWheel.Timer<String>( "alice" );
+		this._wheel.schedule( timer, 10 * TICK );
+		assertTrue( timer.isScheduled() );
+		assertEquals( 1, this._wheel.size() );
+
+		assertTrue( this.advance( 9 * TICK ).isEmpty() );
+		assertEquals( Arrays.asList( "alice" ), this.advance( 10 * TICK ) );
+		assertFalse( timer.isScheduled() );
+		assertEquals( 0, this._wheel.size() );
+	}
+
+	/**
+	 * Deadlines between ticks are rounded up, timers never fire early
+	 */
+	@Test
+	public void neverFiresEarly()
+	{
+		this._wheel.schedule( new TimingWheel.Timer<String>( "alice" ), 1500 );
+		assertTrue( this.advance( 1999 ).isEmpty() );
+		assertEquals( Arrays.asList( "alice" ), this.advance( 2000 ) );
+	}
+
+	/**
+	 * Timers on the coarser levels are cascaded down and fire at their deadline, not when their bucket comes up
+	 */
+	@Test
+	public void firesBeyondFirstLevel()
+	{
+		long[] deadlines = { 100, 4100, 300000 }; // Levels 1, 2 and 3, in ticks
+		for ( long deadline : deadlines )
+		{
+			this._wheel.schedule( new TimingWheel.Timer<String>( String.valueOf( deadline ) ), deadline * TICK );
+		}
+		assertEquals( 3, this._wheel.size() );
+
+		long now = 0;
+		for ( long deadline : deadlines )
+		{
+			assertTrue( this.advance( ( deadline - 1 ) * TICK ).isEmpty() );
+			assertEquals( Arrays.asList( String.valueOf( deadline ) ), this.advance( deadline * TICK ) );
+			now = deadline;
+		}
+		assertEquals( 0, this._wheel.size() );
+		assertTrue( this.advance( ( now + 1000 ) * TICK ).isEmpty() );
+	}
+
+	/**
+	 * Advancing one tick at a time finds the same deadline as advancing in one go
+	 */
+	@Test
+	public void firesWhenStepped()
+	{
+		this._wheel.schedule( new TimingWheel.Timer<String>( "alice" ), 130 * TICK );
+		for ( long tick = 1; tick < 130; tick++ ) assertTrue( this.advance( tick * TICK ).isEmpty() );
+		assertEquals( Arrays.asList( "alice" ), this.advance( 130 * TICK ) );
+	}
+
+	/**
+	 * A cancelled timer that is scheduled again fires once, at its new deadline
+	 */
+	@Test
+	public void cancelThenRescheduleFiresOnce()
+	{
+		TimingWheel.Timer<String> timer = new TimingWheel.Timer<String>( "alice" );
+		this._wheel.schedule( timer, 200 * TICK );
+		this._wheel.cancel( timer );
+		assertFalse( timer.isScheduled() );
+		assertEquals( 0, this._wheel.size() );
+		this._wheel.cancel( timer ); // Nothing happens the second time
+		assertEquals( 0, this._wheel.size() );
+
+		this._wheel.schedule( timer, 300 * TICK );
+		assertEquals( 1, this._wheel.size() );
+		assertTrue( this.advance( 299 * TICK ).isEmpty() );
+		assertEquals( Arrays.asList( "alice" ), this.advance( 300 * TICK ) );
+		assertTrue( this.advance( 1000 * TICK ).isEmpty() );
+	}
+
+	/**
+	 * Scheduling a timer that is already scheduled moves it instead of adding it twice
+	 */
+	@Test
+	public void rescheduleMovesTimer()
+	{
+		TimingWheel.Timer<String> timer = new TimingWheel.Timer<String>( "alice" );
+		this._wheel.schedule( timer, 10 * TICK );
+		this._wheel.schedule( timer, 5000 * TICK );
+		assertEquals( 1, this._wheel.size() );
+		assertEquals( 5000 * TICK, timer.getDeadline() );
+		assertTrue( this.advance( 4999 * TICK ).isEmpty() );
+		assertEquals( Arrays.asList( "alice" ), this.advance( 5000 * TICK ) );
+	}
+
+	/**
+	 * A deadline that has already passed fires on the next tick
+	 */
+	@Test
+	public void overdueFiresNextTick()
+	{
+		this.advance( 50 * TICK );
+		this._wheel.schedule( new TimingWheel.Timer<String>( "alice" ), 20 * TICK );
+		assertTrue( this.advance( 50 * TICK ).isEmpty() );
+		assertEquals( Arrays.asList( "alice" ), this.advance( 51 * TICK ) );
+	}
+
+	/**
+	 * Advance the wheel and collect what is due
+	 * @param now Current time in milliseconds
+	 * @return Payloads that are due
+	 */
+	private ArrayList<String> advance( long now )
+	{
+		this._due.clear();
+		this._wheel.advance( now, this._due );
+		return this._due;
+	}
+}
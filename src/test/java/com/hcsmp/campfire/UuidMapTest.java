@@ -0,0 +1,106 @@
+package com.hcsmp.campfire;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Checks lookups keep working as colliding keys are added and removed
+ * @author bitdagger
+ *
+ */
+public class UuidMapTest
+{
+	/**
+	 * Values can be added, replaced, looked up by either form of the key and removed
+	 */
+	@Test
+	public void putsAndRemoves()
+	{
+		UuidMap<String> map = new UuidMap<String>();
+		UUID alice = UUID.randomUUID();
+		assertNull( map.put( alice, "alice" ) );
+		assertEquals( "alice", map.put( alice, "alice2" ) );
+		assertEquals( 1, map.size() );
+		assertEquals( "alice2", map.get( alice ) );
+		assertEquals( "alice2", map.get( alice.getMostSignificantBits(), alice.getLeastSignificantBits() ) );
+		assertNull( map.get( UUID.randomUUID() ) );
+		assertEquals( "alice2", map.remove( alice ) );
+		assertNull( map.remove( alice ) );
+		assertEquals( 0, map.size() );
+		assertNull( map.get( alice ) );
+	}
+
+	/**
+	 * Removing a key from the middle or the start of a collision chain leaves the rest of the chain findable
+	 */
+	@Test
+	public void removeKeepsCollidingKeys()
+	{
+		UuidMap<Integer> map = new UuidMap<Integer>();
+		ArrayList<UUID> keys = new ArrayList<UUID>();
+		for ( int i = 0; i < 6; i++ )
+		{
+			keys.add( UuidMapTest.colliding( i ) );
+			map.put( keys.get( i ), i );
+		}
+
+		map.remove( keys.get( 2 ) );
+		map.remove( keys.get( 0 ) );
+		assertEquals( 4, map.size() );
+		assertNull( map.get( keys.get( 0 ) ) );
+		assertNull( map.get( keys.get( 2 ) ) );
+		for ( int i : new int[] { 1, 3, 4, 5 } ) assertEquals( Integer.valueOf( i ), map.get( keys.get( i ) ) );
+
+		map.put( keys.get( 2 ), 20 );
+		assertEquals( Integer.valueOf( 20 ), map.get( keys.get( 2 ) ) );
+		assertEquals( Integer.valueOf( 5 ), map.get( keys.get( 5 ) ) );
+	}
+
+	/**
+	 * Random puts and removes, enough to grow the table several times, agree with a HashMap
+	 */
+	@Test
+	public void matchesHashMap()
+	{
+		Random random = new Random( 42 );
+		UuidMap<Integer> map = new UuidMap<Integer>();
+		HashMap<UUID,Integer> expected = new HashMap<UUID,Integer>();
+		ArrayList<UUID> keys = new ArrayList<UUID>();
+		for ( int i = 0; i < 2000; i++ ) keys.add( i % 4 == 0 ? UuidMapTest.colliding( i ) : new UUID( random.nextLong(), random.nextLong() ) );
+
+		for ( int round = 0; round < 20000; round++ )
+		{
+			UUID key = keys.get( random.nextInt( keys.size() ) );
+			if ( random.nextInt( 3 ) == 0 )
+			{
+				assertEquals( expected.remove( key ), map.remove( key ) );
+			} else {
+				assertEquals( expected.put( key, round ), map.put( key, round ) );
+			}
+		}
+		assertEquals( expected.size(), map.size() );
+		for ( UUID key : keys ) assertEquals( expected.get( key ), map.get( key ) );
+
+		map.clear();
+		assertEquals( 0, map.size() );
+		for ( Map.Entry<UUID,Integer> entry : expected.entrySet() ) assertNull( map.get( entry.getKey() ) );
+	}
+
+	/**
+	 * Make a key that hashes the same as every other key made here
+	 * @param i Key number
+	 * @return Key
+	 */
+	private static UUID colliding( long i )
+	{
+		return new UUID( i, i ^ 0x5DEECE66DL ); // The halves are hashed together, so only their xor counts
+	}
+}